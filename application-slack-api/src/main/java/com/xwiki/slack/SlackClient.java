@@ -20,21 +20,45 @@
 package com.xwiki.slack;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.http.Consts;
+import org.apache.http.Header;
 import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
-import org.json.simple.JSONObject;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
 import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+import com.xwiki.slack.internal.SlackDeliveryConfiguration;
+import com.xwiki.slack.internal.SlackMessageBuilder;
+import com.xwiki.slack.internal.SlackPayloadBuffer;
 
 /**
  * Component used to push notifications to Slack.
@@ -43,40 +67,254 @@ import org.xwiki.component.annotation.Component;
  */
 @Component(roles = SlackClient.class)
 @Singleton
-public class SlackClient
+public class SlackClient implements Initializable, Disposable
 {
     /**
-     * Post a message to Slack.
+     * The maximum number of blocks in a Slack message.
+     */
+    public static final int MAX_BLOCKS = 50;
+
+    /**
+     * The maximum length of the text of a section block.
+     */
+    public static final int MAX_BLOCK_TEXT_LENGTH = 3000;
+
+    /**
+     * The maximum length of the text of a message. Slack cuts the longer messages itself, possibly in the middle of a
+     * link.
+     */
+    public static final int MAX_TEXT_LENGTH = 40000;
+
+    private static final int MAX_REASON_LENGTH = 200;
+
+    /**
+     * The longest wait accepted from the Retry-After header, so that a bogus value doesn't hold the messages forever.
+     */
+    private static final long MAX_RETRY_AFTER = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Smaller payloads are not worth compressing.
+     */
+    private static final int MIN_COMPRESSED_LENGTH = 1024;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private SlackDeliveryConfiguration configuration;
+
+    @Inject
+    private SlackSendExecutor executor;
+
+    private CloseableHttpClient httpClient;
+
+    /**
+     * The hosts that refused a compressed payload.
+     */
+    private final Set<String> uncompressedHosts = ConcurrentHashMap.newKeySet();
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        // Reuse the connections to Slack across messages to avoid paying for a TCP and TLS handshake each time.
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(this.configuration.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(this.configuration.getMaxConnectionsPerRoute());
+
+        RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(this.configuration.getConnectTimeout())
+            .setSocketTimeout(this.configuration.getSocketTimeout())
+            .setConnectionRequestTimeout(this.configuration.getConnectionRequestTimeout()).build();
+
+        final long keepAlive = this.configuration.getKeepAlive();
+        ConnectionKeepAliveStrategy keepAliveStrategy = new DefaultConnectionKeepAliveStrategy()
+        {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context)
+            {
+                long duration = super.getKeepAliveDuration(response, context);
+                return duration > 0 ? Math.min(duration, keepAlive) : keepAlive;
+            }
+        };
+
+        // The client asks for compressed responses (Accept-Encoding: gzip) and decompresses them transparently.
+        this.httpClient = HttpClients.custom().setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig).setKeepAliveStrategy(keepAliveStrategy)
+            .evictIdleConnections(keepAlive, TimeUnit.MILLISECONDS).build();
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        try {
+            this.httpClient.close();
+        } catch (IOException e) {
+            throw new ComponentLifecycleException("Failed to close the Slack HTTP client.", e);
+        }
+    }
+
+    /**
+     * Post a message to Slack. A message longer than {@link #MAX_TEXT_LENGTH} is shortened.
      * 
      * @param message the message to post
      * @param url where to post the message
-     * @throws IOException if posting the message fails
+     * @return the status of the post, telling whether Slack accepted the message
+     * @throws IOException if Slack could not be reached
+     */
+    public SlackDeliveryStatus postMessage(String message, String url) throws IOException
+    {
+        return post(SlackMessageBuilder.buildPayload(SlackMessageBuilder.truncate(message, MAX_TEXT_LENGTH)), url);
+    }
+
+    /**
+     * Post a message to Slack without waiting for the answer. The request runs on the {@link SlackSendExecutor}.
+     *
+     * @param message the message to post
+     * @param url where to post the message
+     * @return the status of the post, completed with an {@link UncheckedIOException} if Slack could not be reached
+     */
+    public CompletableFuture<SlackDeliveryStatus> postMessageAsync(String message, String url)
+    {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return postMessage(message, url);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, this.executor);
+    }
+
+    /**
+     * Post several messages to Slack with a single request, as one message made of several blocks.
+     *
+     * @param messages the messages to post, at most {@link #MAX_BLOCKS}; the ones longer than
+     *            {@link #MAX_BLOCK_TEXT_LENGTH} are shortened
+     * @param url where to post the messages
+     * @return the status of the post, telling whether Slack accepted the messages
+     * @throws IOException if Slack could not be reached
+     */
+    public SlackDeliveryStatus postMessages(List<String> messages, String url) throws IOException
+    {
+        return post(SlackMessageBuilder.buildBlocksPayload(truncate(messages)), url);
+    }
+
+    /**
+     * Serializes a message to the JSON payload expected by the Slack incoming webhooks.
+     *
+     * @param message the (already encoded) message, shortened if longer than {@link #MAX_TEXT_LENGTH}
+     * @return the JSON payload
+     */
+    public String getPayload(String message)
+    {
+        return SlackMessageBuilder.toPayload(SlackMessageBuilder.truncate(message, MAX_TEXT_LENGTH));
+    }
+
+    /**
+     * Serializes several messages to a single Block Kit payload, with one block per message.
+     *
+     * @param messages the (already encoded) messages, shortened if longer than {@link #MAX_BLOCK_TEXT_LENGTH}
+     * @return the JSON payload
      */
-    public void postMessage(String message, String url) throws IOException
+    public String getPayload(List<String> messages)
+    {
+        return SlackMessageBuilder.toBlocksPayload(truncate(messages));
+    }
+
+    private List<String> truncate(List<String> messages)
+    {
+        List<String> truncated = messages;
+        for (int i = 0; i < messages.size(); i++) {
+            String message = messages.get(i);
+            int blockTextLength = SlackMessageBuilder.getBlockTextLength(message);
+            if (blockTextLength > MAX_BLOCK_TEXT_LENGTH) {
+                if (truncated == messages) {
+                    truncated = new ArrayList<>(messages);
+                }
+                // Leave room for the escaping of the formatting characters, which lengthens the text of the block.
+                truncated.set(i, SlackMessageBuilder.truncate(message,
+                    MAX_BLOCK_TEXT_LENGTH - (blockTextLength - message.length())));
+            }
+        }
+        return truncated;
+    }
+
+    private SlackDeliveryStatus post(CharSequence payload, String url) throws IOException
     {
+        // Encode the payload straight from the builder, without creating a string first.
+        SlackPayloadBuffer buffer = SlackPayloadBuffer.of(payload);
         HttpPost httpPost = new HttpPost(url);
+        String host = httpPost.getURI().getHost();
 
-        httpPost.setHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.toString());
-        Map<String, Object> data = new HashMap<>();
-        data.put("text", message);
-        data.put("mrkdwn", false);
-        JSONObject json = new JSONObject(data);
-        httpPost.setEntity(new StringEntity(json.toJSONString(), Consts.UTF_8));
+        if (buffer.size() >= MIN_COMPRESSED_LENGTH && this.configuration.isRequestCompressionEnabled()
+            && !this.uncompressedHosts.contains(host)) {
+            httpPost.setEntity(buffer.compress().toEntity());
+            SlackDeliveryStatus status = execute(httpPost);
+            if (status.getStatusCode() != HttpStatus.SC_BAD_REQUEST
+                && status.getStatusCode() != HttpStatus.SC_UNSUPPORTED_MEDIA_TYPE) {
+                return status;
+            }
 
-        try (CloseableHttpClient httpclient = HttpClients.createDefault();
-            CloseableHttpResponse response = httpclient.execute(httpPost)) {
-            // Do nothing.
+            // The endpoint may not understand compressed payloads: check by posting the payload as is.
+            httpPost = new HttpPost(url);
+            httpPost.setEntity(buffer.toEntity());
+            SlackDeliveryStatus uncompressedStatus = execute(httpPost);
+            if (uncompressedStatus.getStatusCode() != status.getStatusCode()) {
+                this.logger.info("[{}] doesn't accept compressed payloads, sending them uncompressed from now on.",
+                    host);
+                this.uncompressedHosts.add(host);
+            }
+            return uncompressedStatus;
+        }
+
+        httpPost.setEntity(buffer.toEntity());
+        return execute(httpPost);
+    }
+
+    private SlackDeliveryStatus execute(HttpPost httpPost) throws IOException
+    {
+        try (CloseableHttpResponse response = this.httpClient.execute(httpPost)) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            String reason;
+            if (response.getEntity() != null) {
+                // Reading the response also releases the connection back to the pool.
+                reason = StringUtils.abbreviate(EntityUtils.toString(response.getEntity(), Consts.UTF_8),
+                    MAX_REASON_LENGTH);
+            } else {
+                reason = response.getStatusLine().getReasonPhrase();
+            }
+            return new SlackDeliveryStatus(statusCode, reason, getRetryAfter(response));
+        }
+    }
+
+    private long getRetryAfter(HttpResponse response)
+    {
+        Header header = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (header != null && StringUtils.isNotBlank(header.getValue())) {
+            String value = header.getValue().trim();
+            if (StringUtils.isNumeric(value)) {
+                try {
+                    return Math.min(MAX_RETRY_AFTER, TimeUnit.SECONDS.toMillis(Long.parseLong(value)));
+                } catch (NumberFormatException e) {
+                    // Too many digits for a long.
+                    return MAX_RETRY_AFTER;
+                }
+            }
+            // The Retry-After header can also hold an HTTP date.
+            Date date = DateUtils.parseDate(value);
+            if (date != null) {
+                return Math.min(MAX_RETRY_AFTER, Math.max(0, date.getTime() - System.currentTimeMillis()));
+            }
         }
+        return 0;
     }
 
     /**
      * Encodes a message to be send to Slack.
      * 
      * @param message the message to be encoded
-     * @return the encoded message
+     * @return the encoded message, the given message itself when there's nothing to encode
      */
     public String encode(String message)
     {
-        return message.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+        return SlackMessageBuilder.encode(message);
     }
 }
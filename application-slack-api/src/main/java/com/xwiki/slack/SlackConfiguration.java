@@ -19,15 +19,19 @@
  */
 package com.xwiki.slack;
 
+import java.util.List;
+
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
-import org.xwiki.bridge.event.DocumentCreatedEvent;
-import org.xwiki.bridge.event.DocumentDeletedEvent;
 import org.xwiki.component.annotation.Component;
 import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.observation.event.Event;
 
+import com.xwiki.slack.internal.SlackConfigurationIndex;
+import com.xwiki.slack.internal.SlackWebhookResolver;
+
 /**
  * The component used to access the Slack configuration.
  * 
@@ -41,6 +45,12 @@ public class SlackConfiguration
     @Named("slack")
     private ConfigurationSource configuration;
 
+    @Inject
+    private SlackWebhookResolver webhookResolver;
+
+    @Inject
+    private SlackConfigurationIndex index;
+
     /**
      * Check if Slack is enabled in XWiki.
      * 
@@ -61,23 +71,42 @@ public class SlackConfiguration
         return configuration.getProperty("channelUrl");
     }
 
+    /**
+     * Retrieve all the Slack channels that should be notified about a change of the given document: the ones
+     * configured on the document space, on its ancestor spaces and on the whole wiki. Each channel is returned once.
+     *
+     * @param documentReference the document that changed
+     * @return the Slack channels, starting with the ones configured closest to the document
+     */
+    public List<SlackWebhook> getWebhooks(DocumentReference documentReference)
+    {
+        return webhookResolver.getWebhooks(documentReference);
+    }
+
+    /**
+     * Resolve at once all the Slack configuration that applies to the given document. Unlike the other methods, which
+     * read the configuration of the current document, this doesn't look at the XWiki context and costs a few map
+     * lookups once the configuration of the document space was resolved.
+     *
+     * @param documentReference a document
+     * @return the Slack configuration that applies to the given document
+     */
+    public SlackConfigurationSnapshot getSnapshot(DocumentReference documentReference)
+    {
+        return index.getSnapshot(documentReference);
+    }
+
     /**
      * Check if the current event type is enabled in XWiki.
      * 
      * @param event the listened event
      * @return true if the current event type is enabled, false otherwise
+     * @deprecated the events are now selected for each Slack channel, see {@link SlackWebhook#isEventEnabled}
      */
+    @Deprecated
     public boolean isEventEnabled(Event event)
     {
-        boolean isEventEnabled;
-        if (event instanceof DocumentCreatedEvent) {
-            isEventEnabled = configuration.getProperty("documentCreated", 1) == 1;
-        } else if (event instanceof DocumentDeletedEvent) {
-            isEventEnabled = configuration.getProperty("documentDeleted", 1) == 1;
-        } else {
-            isEventEnabled = configuration.getProperty("documentUpdated", 1) == 1;
-        }
-        return isEventEnabled;
+        return configuration.getProperty(SlackEventType.fromEvent(event).getValue(), 1) == 1;
     }
 
     /**
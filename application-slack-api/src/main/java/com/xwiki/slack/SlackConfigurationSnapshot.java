@@ -0,0 +1,110 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * The Slack configuration that applies to the documents of a space, resolved once and never modified: a new snapshot
+ * is published when a configuration document changes. Reading it doesn't need the XWiki context.
+ *
+ * @version $Id$
+ */
+public final class SlackConfigurationSnapshot
+{
+    /**
+     * The snapshot of the spaces that no Slack configuration applies to.
+     */
+    public static final SlackConfigurationSnapshot EMPTY = new SlackConfigurationSnapshot(
+        Collections.<DocumentReference>emptyList(), false, null, Collections.<SlackWebhook>emptyList());
+
+    private final List<DocumentReference> configurationReferences;
+
+    private final boolean enabled;
+
+    private final String webhookUrl;
+
+    private final List<SlackWebhook> webhooks;
+
+    /**
+     * Creates a new snapshot.
+     *
+     * @param configurationReferences the documents holding the configurations that apply, closest first
+     * @param enabled whether at least one of the Slack channels is enabled
+     * @param webhookUrl the Webhook URL of the first Slack channel of the closest configuration
+     * @param webhooks the Slack channels to notify, each once, closest first
+     */
+    public SlackConfigurationSnapshot(List<DocumentReference> configurationReferences, boolean enabled,
+        String webhookUrl, List<SlackWebhook> webhooks)
+    {
+        this.configurationReferences = Collections.unmodifiableList(configurationReferences);
+        this.enabled = enabled;
+        this.webhookUrl = webhookUrl;
+        this.webhooks = Collections.unmodifiableList(webhooks);
+    }
+
+    /**
+     * @return {@code true} if at least one Slack configuration applies
+     * @see SlackConfiguration#hasConfigurationSource()
+     */
+    public boolean hasConfigurationSource()
+    {
+        return !this.configurationReferences.isEmpty();
+    }
+
+    /**
+     * @return the documents holding the configurations that apply, starting with the closest one
+     */
+    public List<DocumentReference> getConfigurationReferences()
+    {
+        return this.configurationReferences;
+    }
+
+    /**
+     * @return {@code true} if at least one of the Slack channels is enabled; each channel must still be checked with
+     *         {@link SlackWebhook#isEnabled()}
+     * @see SlackConfiguration#isEnabled()
+     */
+    public boolean isEnabled()
+    {
+        return this.enabled;
+    }
+
+    /**
+     * @return the Webhook URL of the first Slack channel of the closest configuration, {@code null} if there's none
+     * @see SlackConfiguration#getWebhookUrl()
+     */
+    public String getWebhookUrl()
+    {
+        return this.webhookUrl;
+    }
+
+    /**
+     * @return the Slack channels to notify, each once, starting with the ones configured closest to the document
+     * @see SlackConfiguration#getWebhooks(DocumentReference)
+     */
+    public List<SlackWebhook> getWebhooks()
+    {
+        return this.webhooks;
+    }
+}
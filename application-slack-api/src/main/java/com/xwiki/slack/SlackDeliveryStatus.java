@@ -0,0 +1,111 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack;
+
+/**
+ * The outcome of posting a message to Slack.
+ *
+ * @version $Id$
+ */
+public class SlackDeliveryStatus
+{
+    private static final int STATUS_OK_MIN = 200;
+
+    private static final int STATUS_OK_MAX = 299;
+
+    private static final int STATUS_TOO_MANY_REQUESTS = 429;
+
+    private static final int STATUS_SERVER_ERROR = 500;
+
+    private final int statusCode;
+
+    private final String reason;
+
+    private final long retryAfter;
+
+    /**
+     * Creates a new status.
+     *
+     * @param statusCode the HTTP status code returned by Slack
+     * @param reason the explanation returned by Slack (e.g. "invalid_payload"), can be empty
+     * @param retryAfter the number of milliseconds Slack asked us to wait before posting again, 0 if not specified
+     */
+    public SlackDeliveryStatus(int statusCode, String reason, long retryAfter)
+    {
+        this.statusCode = statusCode;
+        this.reason = reason;
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * @return the HTTP status code returned by Slack
+     */
+    public int getStatusCode()
+    {
+        return this.statusCode;
+    }
+
+    /**
+     * @return the explanation returned by Slack (e.g. "invalid_payload"), can be empty
+     */
+    public String getReason()
+    {
+        return this.reason;
+    }
+
+    /**
+     * @return the number of milliseconds Slack asked us to wait before posting again, 0 if not specified
+     */
+    public long getRetryAfter()
+    {
+        return this.retryAfter;
+    }
+
+    /**
+     * @return {@code true} if the message was accepted by Slack
+     */
+    public boolean isSuccess()
+    {
+        return this.statusCode >= STATUS_OK_MIN && this.statusCode <= STATUS_OK_MAX;
+    }
+
+    /**
+     * @return {@code true} if the message was rejected because too many messages were posted recently
+     */
+    public boolean isRateLimited()
+    {
+        return this.statusCode == STATUS_TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * @return {@code true} if the message was rejected because of rate limiting or a server error, in which case
+     *         posting it again later may succeed
+     */
+    public boolean isRetryable()
+    {
+        return this.statusCode == STATUS_TOO_MANY_REQUESTS || this.statusCode >= STATUS_SERVER_ERROR;
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.statusCode + " " + this.reason;
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xwiki.slack.internal.ReferencePatternMatcher;
+
+/**
+ * Selects the document events a Slack channel is notified about: the types of events, the documents and the authors
+ * (include and exclude patterns) and whether minor edits are reported. The patterns are compiled once, when the
+ * configuration is loaded, so that filtering an event costs a few map lookups.
+ *
+ * @version $Id$
+ */
+public class SlackEventFilter
+{
+    /**
+     * The filter accepting all the events.
+     */
+    public static final SlackEventFilter ALL = new SlackEventFilter(SlackEventType.ALL,
+        Collections.<String>emptyList(), Collections.<String>emptyList(), Collections.<String>emptyList(),
+        Collections.<String>emptyList(), false);
+
+    private final int events;
+
+    private final ReferencePatternMatcher includedDocuments;
+
+    private final ReferencePatternMatcher excludedDocuments;
+
+    private final ReferencePatternMatcher includedAuthors;
+
+    private final ReferencePatternMatcher excludedAuthors;
+
+    private final boolean minorEditsExcluded;
+
+    /**
+     * Creates a new filter. See {@link ReferencePatternMatcher} for the syntax of the patterns.
+     *
+     * @param events the bit mask of the {@link SlackEventType}s to accept
+     * @param includedDocuments the patterns of the documents to accept; empty to accept all the documents that are not
+     *            excluded
+     * @param excludedDocuments the patterns of the documents to reject
+     * @param includedAuthors the patterns of the authors whose changes are accepted; empty to accept all the authors
+     *            that are not excluded
+     * @param excludedAuthors the patterns of the authors (e.g. bots) whose changes are rejected
+     * @param minorEditsExcluded {@code true} to reject the minor edits
+     */
+    public SlackEventFilter(int events, Collection<String> includedDocuments, Collection<String> excludedDocuments,
+        Collection<String> includedAuthors, Collection<String> excludedAuthors, boolean minorEditsExcluded)
+    {
+        this.events = events;
+        this.includedDocuments = new ReferencePatternMatcher(includedDocuments);
+        this.excludedDocuments = new ReferencePatternMatcher(excludedDocuments);
+        this.includedAuthors = new ReferencePatternMatcher(includedAuthors);
+        this.excludedAuthors = new ReferencePatternMatcher(excludedAuthors);
+        this.minorEditsExcluded = minorEditsExcluded;
+    }
+
+    /**
+     * @return the bit mask of the {@link SlackEventType}s accepted by this filter
+     */
+    public int getEvents()
+    {
+        return this.events;
+    }
+
+    /**
+     * @param eventType an event type
+     * @return {@code true} if this filter accepts the given type of events
+     */
+    public boolean isEventEnabled(SlackEventType eventType)
+    {
+        return (this.events & eventType.getMask()) != 0;
+    }
+
+    /**
+     * @param eventType the type of the event
+     * @param documentReference the document that changed
+     * @param authorReference the author of the change, {@code null} for the guest user
+     * @param minorEdit {@code true} if the change is a minor edit
+     * @return {@code true} if the channel should be notified about the change
+     */
+    public boolean accept(SlackEventType eventType, DocumentReference documentReference,
+        DocumentReference authorReference, boolean minorEdit)
+    {
+        if (!isEventEnabled(eventType) || (minorEdit && this.minorEditsExcluded)) {
+            return false;
+        }
+        return accept(this.includedDocuments, this.excludedDocuments, documentReference)
+            && accept(this.includedAuthors, this.excludedAuthors, authorReference);
+    }
+
+    private boolean accept(ReferencePatternMatcher included, ReferencePatternMatcher excluded,
+        DocumentReference reference)
+    {
+        if (reference == null) {
+            // Nothing to match (e.g. the guest user): only an include list can reject it.
+            return included.isEmpty();
+        }
+        return (included.isEmpty() || included.matches(reference)) && !excluded.matches(reference);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack;
+
+import java.util.Collection;
+
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.observation.event.Event;
+
+/**
+ * The document events a Slack channel can subscribe to, i.e. the values of the {@code events} property of the
+ * {@code Slack.Code.SlackConfigurationClass} objects. A set of event types is represented as a bit mask, so that
+ * checking whether a channel subscribes to an event is a single bit test.
+ *
+ * @version $Id$
+ */
+public enum SlackEventType
+{
+    /**
+     * A document was created.
+     */
+    DOCUMENT_CREATED("documentCreated", "created"),
+
+    /**
+     * A document was deleted.
+     */
+    DOCUMENT_DELETED("documentDeleted", "deleted"),
+
+    /**
+     * A document was updated.
+     */
+    DOCUMENT_UPDATED("documentUpdated", "modified");
+
+    /**
+     * The bit mask of all the event types.
+     */
+    public static final int ALL = (1 << values().length) - 1;
+
+    private final String value;
+
+    private final String action;
+
+    private final int mask;
+
+    SlackEventType(String value, String action)
+    {
+        this.value = value;
+        this.action = action;
+        this.mask = 1 << ordinal();
+    }
+
+    /**
+     * @return the value of the {@code events} property selecting this event type
+     */
+    public String getValue()
+    {
+        return this.value;
+    }
+
+    /**
+     * @return the action reported in the notification messages (e.g. "created")
+     */
+    public String getAction()
+    {
+        return this.action;
+    }
+
+    /**
+     * @return the bit of this event type in a bit mask
+     */
+    public int getMask()
+    {
+        return this.mask;
+    }
+
+    /**
+     * @param event a document event
+     * @return the type of the given event; events other than creations and deletions are considered updates
+     */
+    public static SlackEventType fromEvent(Event event)
+    {
+        if (event instanceof DocumentCreatedEvent) {
+            return DOCUMENT_CREATED;
+        } else if (event instanceof DocumentDeletedEvent) {
+            return DOCUMENT_DELETED;
+        } else {
+            return DOCUMENT_UPDATED;
+        }
+    }
+
+    /**
+     * @param values values of the {@code events} property
+     * @return the bit mask of the corresponding event types; the unknown values are ignored
+     */
+    public static int toMask(Collection<?> values)
+    {
+        int mask = 0;
+        for (SlackEventType type : values()) {
+            if (values.contains(type.value)) {
+                mask |= type.mask;
+            }
+        }
+        return mask;
+    }
+}
@@ -0,0 +1,46 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack;
+
+import java.util.concurrent.Executor;
+
+import org.xwiki.component.annotation.Role;
+
+/**
+ * Runs the requests posting messages to Slack. Sending a message is blocking I/O, so the requests are taken off the
+ * threads that collect the messages to deliver. The default implementation uses one virtual thread per request when
+ * the JVM supports them and a bounded pool of platform threads otherwise; another implementation can be provided by
+ * registering a component for this role with a higher priority.
+ *
+ * @version $Id$
+ */
+@Role
+public interface SlackSendExecutor extends Executor
+{
+    /**
+     * Runs the given request, usually asynchronously. When too many requests are already running, the implementation
+     * can run it in the calling thread, to slow down the caller.
+     *
+     * @param request the request to run
+     * @throws java.util.concurrent.RejectedExecutionException if the executor was shut down
+     */
+    @Override
+    void execute(Runnable request);
+}
@@ -0,0 +1,143 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack;
+
+import org.xwiki.model.reference.DocumentReference;
+
+/**
+ * A Slack channel configured to receive notifications, i.e. a {@code Slack.Code.SlackConfigurationClass} object.
+ *
+ * @version $Id$
+ */
+public class SlackWebhook
+{
+    private final DocumentReference configurationReference;
+
+    private final String name;
+
+    private final String url;
+
+    private final boolean enabled;
+
+    private final int coalesceWindow;
+
+    private final int digestThreshold;
+
+    private final SlackEventFilter filter;
+
+    /**
+     * Creates a new webhook.
+     *
+     * @param configurationReference the document holding the webhook configuration
+     * @param name the name of the Slack channel
+     * @param url the Webhook URL of the Slack channel
+     * @param enabled whether the notifications are sent to this channel
+     * @param coalesceWindow the number of seconds during which the notifications are collected before being sent
+     * @param digestThreshold the number of notifications collected above which they are sent as a digest
+     * @param filter selects the events the channel is notified about
+     */
+    public SlackWebhook(DocumentReference configurationReference, String name, String url, boolean enabled,
+        int coalesceWindow, int digestThreshold, SlackEventFilter filter)
+    {
+        this.configurationReference = configurationReference;
+        this.name = name;
+        this.url = url;
+        this.enabled = enabled;
+        this.coalesceWindow = coalesceWindow;
+        this.digestThreshold = digestThreshold;
+        this.filter = filter;
+    }
+
+    /**
+     * @return the document holding the webhook configuration
+     */
+    public DocumentReference getConfigurationReference()
+    {
+        return this.configurationReference;
+    }
+
+    /**
+     * @return the name of the Slack channel
+     */
+    public String getName()
+    {
+        return this.name;
+    }
+
+    /**
+     * @return the Webhook URL of the Slack channel
+     */
+    public String getUrl()
+    {
+        return this.url;
+    }
+
+    /**
+     * @return {@code true} if the notifications are sent to this channel
+     */
+    public boolean isEnabled()
+    {
+        return this.enabled;
+    }
+
+    /**
+     * @return the number of seconds during which the notifications for this channel are collected before being sent,
+     *         so that repeated changes of the same document are merged into a single message; 0 to send them right
+     *         away
+     */
+    public int getCoalesceWindow()
+    {
+        return this.coalesceWindow;
+    }
+
+    /**
+     * @return the number of different notifications collected in a coalescing window above which they are sent as a
+     *         single digest message; 0 to never send a digest
+     */
+    public int getDigestThreshold()
+    {
+        return this.digestThreshold;
+    }
+
+    /**
+     * @return the bit mask of the {@link SlackEventType}s the channel subscribes to
+     */
+    public int getEvents()
+    {
+        return this.filter.getEvents();
+    }
+
+    /**
+     * @param eventType an event type
+     * @return {@code true} if the channel subscribes to the given type of events
+     */
+    public boolean isEventEnabled(SlackEventType eventType)
+    {
+        return this.filter.isEventEnabled(eventType);
+    }
+
+    /**
+     * @return selects the events the channel is notified about
+     */
+    public SlackEventFilter getFilter()
+    {
+        return this.filter;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack;
+
+import java.util.Date;
+
+/**
+ * The health of a Slack webhook, as seen from the requests posted to it.
+ *
+ * @version $Id$
+ */
+public class SlackWebhookStatus
+{
+    /**
+     * The state of the circuit breaker of a webhook.
+     */
+    public enum State
+    {
+        /**
+         * The messages are posted normally.
+         */
+        CLOSED,
+
+        /**
+         * The last requests failed: no message is posted until the next probe.
+         */
+        OPEN,
+
+        /**
+         * A request is posted to check whether the webhook works again.
+         */
+        HALF_OPEN
+    }
+
+    private final State state;
+
+    private final int consecutiveFailures;
+
+    private final Date lastSuccess;
+
+    private final Date lastErrorDate;
+
+    private final String lastError;
+
+    /**
+     * Creates a new status.
+     *
+     * @param state the state of the circuit breaker of the webhook
+     * @param consecutiveFailures the number of requests that failed since the last success
+     * @param lastSuccess when a request last succeeded, {@code null} if none did
+     * @param lastErrorDate when a request last failed, {@code null} if none did
+     * @param lastError the last failure, {@code null} if none
+     */
+    public SlackWebhookStatus(State state, int consecutiveFailures, Date lastSuccess, Date lastErrorDate,
+        String lastError)
+    {
+        this.state = state;
+        this.consecutiveFailures = consecutiveFailures;
+        this.lastSuccess = lastSuccess;
+        this.lastErrorDate = lastErrorDate;
+        this.lastError = lastError;
+    }
+
+    /**
+     * @return the state of the circuit breaker of the webhook
+     */
+    public State getState()
+    {
+        return this.state;
+    }
+
+    /**
+     * @return the number of requests that failed since the last success
+     */
+    public int getConsecutiveFailures()
+    {
+        return this.consecutiveFailures;
+    }
+
+    /**
+     * @return when a request last succeeded, {@code null} if none did
+     */
+    public Date getLastSuccess()
+    {
+        return this.lastSuccess;
+    }
+
+    /**
+     * @return when a request last failed, {@code null} if none did
+     */
+    public Date getLastErrorDate()
+    {
+        return this.lastErrorDate;
+    }
+
+    /**
+     * @return the last failure (HTTP status and reason, or network error), {@code null} if none
+     */
+    public String getLastError()
+    {
+        return this.lastError;
+    }
+}
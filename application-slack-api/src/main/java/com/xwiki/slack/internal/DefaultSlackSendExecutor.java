@@ -0,0 +1,164 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+import com.xwiki.slack.SlackSendExecutor;
+
+/**
+ * Default {@link SlackSendExecutor}. On Java 21 and later each request runs in its own virtual thread, which costs
+ * almost nothing while it waits for Slack; the number of requests running at the same time is still limited, so that
+ * they don't time out waiting for a connection to Slack. On older JVMs the requests run in a bounded pool of platform
+ * threads and, when all of them are busy, in the calling thread.
+ *
+ * @version $Id$
+ */
+@Component
+@Singleton
+public class DefaultSlackSendExecutor implements SlackSendExecutor, Initializable, Disposable
+{
+    private static final String THREAD_NAME = "Slack sender ";
+
+    private static final long KEEP_ALIVE = 60L;
+
+    private static final long SHUTDOWN_TIMEOUT = 10L;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private SlackDeliveryConfiguration configuration;
+
+    private ExecutorService executor;
+
+    /**
+     * Limits the number of requests running at the same time in virtual threads, {@code null} when using platform
+     * threads (the size of the pool is the limit).
+     */
+    private Semaphore permits;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int maxConcurrentSends = this.configuration.getMaxConcurrentSends();
+        if (this.configuration.isVirtualThreadsEnabled()) {
+            this.executor = newVirtualThreadExecutor();
+        }
+        if (this.executor != null) {
+            this.permits = new Semaphore(maxConcurrentSends);
+            this.logger.debug("Sending the Slack messages from virtual threads.");
+        } else {
+            AtomicInteger counter = new AtomicInteger();
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(maxConcurrentSends, maxConcurrentSends, KEEP_ALIVE,
+                TimeUnit.SECONDS, new ArrayBlockingQueue<>(maxConcurrentSends), runnable -> {
+                    Thread thread = new Thread(runnable, THREAD_NAME + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, (request, rejectingPool) -> {
+                    // Unlike the CallerRunsPolicy, which silently discards the requests once the pool is shut down,
+                    // let the caller know that the request won't run.
+                    if (rejectingPool.isShutdown()) {
+                        throw new RejectedExecutionException("The Slack send executor was shut down.");
+                    }
+                    request.run();
+                });
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void execute(Runnable request)
+    {
+        if (this.permits == null) {
+            this.executor.execute(request);
+        } else {
+            this.executor.execute(() -> {
+                // Parking a virtual thread is cheap, unlike waiting for a connection, which can time out.
+                this.permits.acquireUninterruptibly();
+                try {
+                    request.run();
+                } finally {
+                    this.permits.release();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return {@code true} if the requests run in virtual threads
+     */
+    public boolean isVirtual()
+    {
+        return this.permits != null;
+    }
+
+    /**
+     * Creates, through reflection so that the application still runs on older JVMs, the equivalent of {@code
+     * Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(THREAD_NAME, 1).factory())}.
+     *
+     * @return the executor, {@code null} if the JVM doesn't support virtual threads
+     */
+    private ExecutorService newVirtualThreadExecutor()
+    {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, THREAD_NAME, 1L);
+            ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) newExecutor.invoke(null, factory);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            this.logger.debug("Virtual threads are not available: [{}].", e.toString());
+            return null;
+        }
+    }
+}
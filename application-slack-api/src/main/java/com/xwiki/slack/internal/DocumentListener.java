@@ -20,8 +20,9 @@
  */
 package com.xwiki.slack.internal;
 
-import java.io.IOException;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
 import javax.inject.Named;
@@ -37,14 +38,15 @@ import org.xwiki.component.annotation.Component;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.observation.AbstractEventListener;
 import org.xwiki.observation.event.Event;
-import org.xwiki.rendering.syntax.Syntax;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
 
 import com.xpn.xwiki.XWikiContext;
-import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xwiki.licensing.Licensor;
-import com.xwiki.slack.SlackClient;
 import com.xwiki.slack.SlackConfiguration;
+import com.xwiki.slack.SlackConfigurationSnapshot;
+import com.xwiki.slack.SlackEventType;
+import com.xwiki.slack.SlackWebhook;
 
 /**
  * Listens to document events and pushes notifications to Slack.
@@ -61,9 +63,15 @@ public class DocumentListener extends AbstractEventListener
      */
     public static final String NAME = "slackDocumentListener";
 
-    private static final String ACTION_VIEW = "view";
+    /**
+     * How long the license verdict is reused before asking the licensor again.
+     */
+    private static final long LICENSE_CHECK_INTERVAL = TimeUnit.MINUTES.toNanos(1);
 
-    private static final String FORMAT_LINK = "<%s|%s>";
+    /**
+     * Longer save comments are shortened, so that the notification stays readable and fits in a Slack block.
+     */
+    private static final int MAX_COMMENT_LENGTH = 300;
 
     @Inject
     private Provider<Licensor> licensorProvider;
@@ -72,11 +80,49 @@ public class DocumentListener extends AbstractEventListener
     private Logger logger;
 
     @Inject
-    private SlackClient slack;
+    private SlackMessageAggregator aggregator;
+
+    @Inject
+    private SlackMetrics metrics;
 
     @Inject
     private Provider<SlackConfiguration> slackConfigurationProvider;
 
+    @Inject
+    private SlackConfigurationIndex configurationIndex;
+
+    @Inject
+    private RemoteObservationManagerContext remoteObservationManagerContext;
+
+    @Inject
+    private SlackDeduplicator deduplicator;
+
+    @Inject
+    private SlackLaneClassifier laneClassifier;
+
+    private volatile LicenseVerdict licenseVerdict;
+
+    /**
+     * Whether the application is licensed, as answered by the licensor at some point.
+     */
+    private static final class LicenseVerdict
+    {
+        private final boolean licensed;
+
+        private final long expiry;
+
+        LicenseVerdict(boolean licensed)
+        {
+            this.licensed = licensed;
+            this.expiry = System.nanoTime() + LICENSE_CHECK_INTERVAL;
+        }
+
+        boolean isExpired()
+        {
+            return System.nanoTime() - this.expiry > 0;
+        }
+    }
+
     /**
      * Default constructor.
      */
@@ -88,160 +134,140 @@ public class DocumentListener extends AbstractEventListener
     @Override
     public void onEvent(Event event, Object source, Object data)
     {
+        // In a cluster the events are replayed on every node: only the node where the change happened notifies
+        // Slack, so that each channel receives the notification once whatever the number of nodes.
+        if (remoteObservationManagerContext.isRemoteState()) {
+            metrics.increment(SlackMetrics.SKIPPED_REMOTE, null, null);
+            return;
+        }
+
         XWikiDocument document = (XWikiDocument) source;
         XWikiContext xcontext = (XWikiContext) data;
+        DocumentReference documentReference = document.getDocumentReference();
+
+        // Skip, as cheaply as possible, the (many) documents that no Slack channel is interested in.
+        if (!configurationIndex.isConfigured(documentReference)) {
+            return;
+        }
+
+        SlackEventType eventType = SlackEventType.fromEvent(event);
 
         // Skip if there is no valid license has expired.
-        DocumentReference mainPageReference =
-            new DocumentReference(xcontext.getMainXWiki(), Arrays.asList("Slack", "Code"), "SlackConfigurationClass");
-        if (!licensorProvider.get().hasLicensure(mainPageReference)) {
+        if (!isLicensed(xcontext)) {
+            metrics.increment(SlackMetrics.SKIPPED_UNLICENSED, eventType.getAction(), null);
             return;
         }
 
-        SlackConfiguration slackConfiguration = slackConfigurationProvider.get();
+        // Resolve the configuration once, from an immutable snapshot.
+        long start = System.nanoTime();
+        SlackConfigurationSnapshot configuration = slackConfigurationProvider.get().getSnapshot(documentReference);
 
         // Skip if there is no configuration source detected.
-        if (!slackConfiguration.hasConfigurationSource()) {
+        if (!configuration.hasConfigurationSource()) {
             return;
         }
 
-        if (slackConfiguration.isEnabled()) {
-            if (slackConfiguration.isEventEnabled(event)) {
-                String message = String.format("%s was %s by %s%s", getNotificationDocument(event, document, xcontext),
-                    getNotificationAction(event), getNotificationAuthor(event, document, xcontext),
-                    slack.encode(getNotificationComment(document)));
-                String webhookURL = slackConfiguration.getWebhookUrl();
-                try {
-                    slack.postMessage(message, webhookURL);
-                } catch (IOException e) {
-                    logger.warn("Faild to post message to Slack.", e);
-                }
-            }
+        if (configuration.isEnabled()) {
+            metrics.record(SlackMetrics.CONFIGURATION_RESOLUTION, eventType.getAction(), null, start);
+            notify(eventType, document, documentReference, xcontext, configuration.getWebhooks());
         } else {
+            metrics.increment(SlackMetrics.SKIPPED_DISABLED, eventType.getAction(), null);
             if (logger.isDebugEnabled()) {
                 logger.debug(
                     "Skipping notification sending for event [{}] by user [{}] on document [{}]. Slack disabled.",
-                    event.getClass().getName(), xcontext.getUserReference(), document.getDocumentReference());
+                    event.getClass().getName(), xcontext.getUserReference(), documentReference);
             }
         }
     }
 
-    private String getNotificationDocument(Event event, XWikiDocument document, XWikiContext xcontext)
+    /**
+     * The licensor is asked at most once per {@link #LICENSE_CHECK_INTERVAL}, so a new license is taken into account
+     * after at most that delay.
+     */
+    private boolean isLicensed(XWikiContext xcontext)
     {
-        String url = getNotificationURL(event, document, xcontext);
-        if (url != null) {
-            String title = document.getRenderedTitle(Syntax.PLAIN_1_0, xcontext);
-            return String.format(FORMAT_LINK, url, slack.encode(title));
-        } else {
-            return document.getDocumentReference().toString();
+        LicenseVerdict verdict = this.licenseVerdict;
+        if (verdict == null || verdict.isExpired()) {
+            DocumentReference mainPageReference = new DocumentReference(xcontext.getMainXWiki(),
+                Arrays.asList("Slack", "Code"), "SlackConfigurationClass");
+            verdict = new LicenseVerdict(licensorProvider.get().hasLicensure(mainPageReference));
+            this.licenseVerdict = verdict;
         }
+        return verdict.licensed;
     }
 
     /**
-     * Get the author name that we want to print in the notification message we send.
-     *
-     * @param event the event that happened. We need it to handle creation & modification differently than deletion
-     * @param document the document that has been modified, created or deleted. We need to extract the author for
-     *            creations and modifications
-     * @param xcontext the XWiki Context from which we extract the current user for deletions
-     * @return the author name
+     * Send the notification to the given Slack channels that subscribe to the event, unless it was sent recently.
+     * Only the cheap parts of the message are computed here, on the thread saving the document; the rest is rendered by
+     * {@link SlackNotificationRenderer} before delivery. Each channel receives the message separately so that a slow
+     * channel doesn't delay the others, in the delivery lane chosen by {@link SlackLaneClassifier}.
      */
-    private String getNotificationAuthor(Event event, XWikiDocument document, XWikiContext xcontext)
+    private void notify(SlackEventType eventType, XWikiDocument document, DocumentReference documentReference,
+        XWikiContext xcontext, List<SlackWebhook> webhooks)
     {
-        String user;
-
-        DocumentReference userReference;
-        if (event instanceof DocumentDeletedEvent) {
-            userReference = xcontext.getUserReference();
-        } else {
-            userReference = document.getAuthorReference();
-        }
-
-        if (userReference != null) {
-            if (xcontext.getURLFactory() != null) {
-                try {
-                    user = String.format(FORMAT_LINK,
-                        xcontext.getWiki().getExternalURL(userReference.toString(), ACTION_VIEW, xcontext),
-                        slack.encode(xcontext.getWiki().getPlainUserName(userReference, xcontext)));
-                } catch (XWikiException e) {
-                    user = slack.encode(userReference.toString());
-                }
-            } else {
-                user = slack.encode(userReference.toString());
+        SlackNotification.Source notificationSource = null;
+        String action = eventType.getAction();
+        DocumentReference author = getNotificationAuthor(eventType, document, xcontext);
+        boolean minorEdit = eventType == SlackEventType.DOCUMENT_UPDATED && document.isMinorEdit();
+        String comment = null;
+        String revision = SlackDeduplicator.getRevision(eventType, document);
+        for (SlackWebhook webhook : webhooks) {
+            if (!webhook.isEnabled() || !webhook.getFilter().accept(eventType, documentReference, author, minorEdit)) {
+                continue;
             }
-        } else {
-            user = "Guest";
+            if (deduplicator.isDuplicate(eventType, documentReference, revision, webhook.getUrl())) {
+                metrics.increment(SlackMetrics.DEDUPLICATED, action, webhook.getUrl());
+                continue;
+            }
+            if (notificationSource == null) {
+                long start = System.nanoTime();
+                // The rendering happens on another thread, once the current request is over.
+                notificationSource = new SlackNotification.Source(documentReference, document, xcontext.clone(),
+                    laneClassifier.getLane(document, author));
+                comment = getNotificationComment(document);
+                metrics.record(SlackMetrics.MESSAGE_BUILDING, action, null, start);
+            }
+            SlackNotification notification =
+                new SlackNotification(notificationSource, action, author, comment, webhook.getUrl());
+            aggregator.add(notification, webhook.getCoalesceWindow(), webhook.getDigestThreshold());
         }
-
-        return user;
     }
 
     /**
-     * Get the action on the page (created, deleted, modified).
+     * Get the author of the action.
      *
-     * @param event the XWiki Document event
-     * @return the action (e.g. "created")
+     * @param eventType the event that happened. We need it to handle creation & modification differently than
+     *            deletion
+     * @param document the document that has been modified, created or deleted. We need to extract the author for
+     *            creations and modifications
+     * @param xcontext the XWiki Context from which we extract the current user for deletions
+     * @return the author, {@code null} for the guest user
      */
-    private String getNotificationAction(Event event)
+    private DocumentReference getNotificationAuthor(SlackEventType eventType, XWikiDocument document,
+        XWikiContext xcontext)
     {
-        String action;
-        if (event instanceof DocumentDeletedEvent) {
-            action = "deleted";
-        } else if (event instanceof DocumentCreatedEvent) {
-            action = "created";
+        if (eventType == SlackEventType.DOCUMENT_DELETED) {
+            return xcontext.getUserReference();
         } else {
-            action = "modified";
+            return document.getAuthorReference();
         }
-        return action;
     }
 
     /**
      * Get a comment part that we want to print in the notification message we send.
      *
      * @param source the source document from the event
-     * @return the comment part
+     * @return the (encoded) comment part
      */
     private String getNotificationComment(XWikiDocument source)
     {
         String comment;
         if (!StringUtils.isEmpty(source.getComment())) {
-            comment = String.format(" (%s)", source.getComment());
+            comment = new SlackMessageBuilder().append(" (")
+                .appendEncoded(StringUtils.abbreviate(source.getComment(), MAX_COMMENT_LENGTH)).append(")").toString();
         } else {
             comment = "";
         }
         return comment;
     }
-
-    /**
-     * Get the URL that we want to print in the notification message we send.
-     *
-     * @param event the XWiki Document event
-     * @param source the source document from the Document event
-     * @param xcontext the XWiki Context that we use to compute the external URL
-     * @return the notification URL
-     * @throws IRCBotException if we cannot access the XWikiContext
-     */
-    private String getNotificationURL(Event event, XWikiDocument source, XWikiContext xcontext)
-    {
-        String url = null;
-        String queryString = null;
-
-        try {
-            if (!(event instanceof DocumentCreatedEvent || event instanceof DocumentDeletedEvent)) {
-                // Return a diff URL since the action done was a modification
-                queryString = String.format("viewer=changes&amp;rev2=%s", source.getVersion());
-            }
-            // Handle the case when no URL Factory is set up yet. This could happen for example when a mandatory class
-            // is created at startup since that's done before the URL Factory is defined.
-            if (xcontext.getURLFactory() != null) {
-                url = source.getExternalURL(ACTION_VIEW, queryString, xcontext);
-            }
-        } catch (Exception e) {
-            // Ensures that an error in computing the URL won't prevent sending a message on the IRC channel
-            logger.warn("Failed to compute URL for document [{}] and query string [{}]", source.getDocumentReference(),
-                queryString, e);
-        }
-
-        return url;
-    }
 }
@@ -0,0 +1,364 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+
+/**
+ * Matches document references against a set of patterns, compiled once. A pattern is a local document reference
+ * ({@code Space.Page}, with {@code \.} for a dot that is part of a name) in which a {@code *} segment stands for:
+ * <ul>
+ * <li>at the end of the pattern, one or more trailing segments: {@code XWiki.*} matches all the documents nested in
+ * the {@code XWiki} space;</li>
+ * <li>at the start of the pattern, one or more leading segments: {@code *.WebPreferences} matches the
+ * {@code WebPreferences} document of every space;</li>
+ * <li>elsewhere, exactly one segment.</li>
+ * </ul>
+ * A {@code *} inside a name (e.g. {@code Sandbox*}) matches any characters, while {@code \*} stands for an asterisk
+ * that is part of the name. Patterns starting with {@code regex:} are regular expressions matched against the whole
+ * local reference; an invalid one is logged and skipped, without affecting the other patterns. The literal patterns
+ * and the patterns with a leading or trailing {@code *} are stored in tries over the reference segments, so that
+ * matching them costs a few map lookups whatever the number of patterns; only the other patterns are evaluated as
+ * regular expressions.
+ *
+ * @version $Id$
+ */
+public final class ReferencePatternMatcher
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReferencePatternMatcher.class);
+
+    private static final String WILDCARD = "*";
+
+    private static final char WILDCARD_CHARACTER = '*';
+
+    private static final String REGEX_PREFIX = "regex:";
+
+    private static final char SEPARATOR = '.';
+
+    private static final char ESCAPE = '\\';
+
+    /**
+     * The literal patterns and the patterns ending with a wildcard, from the first segment to the last.
+     */
+    private final Node prefixes = new Node();
+
+    /**
+     * The patterns starting with a wildcard, from the last segment to the first.
+     */
+    private final Node suffixes = new Node();
+
+    private final List<Pattern> regexes = new ArrayList<>();
+
+    private boolean empty = true;
+
+    /**
+     * A node of a trie over reference segments.
+     */
+    private static final class Node
+    {
+        private final Map<String, Node> children = new HashMap<>();
+
+        /**
+         * A pattern ends on this node.
+         */
+        private boolean terminal;
+
+        /**
+         * A pattern ends on this node with a wildcard, matching one or more additional segments.
+         */
+        private boolean wildcard;
+
+        Node getOrCreate(String segment)
+        {
+            return this.children.computeIfAbsent(segment, key -> new Node());
+        }
+    }
+
+    /**
+     * Compiles the given patterns.
+     *
+     * @param patterns the patterns; blank ones are ignored, invalid ones match nothing
+     */
+    public ReferencePatternMatcher(Collection<String> patterns)
+    {
+        for (String pattern : patterns) {
+            if (StringUtils.isNotBlank(pattern)) {
+                try {
+                    add(pattern.trim());
+                } catch (PatternSyntaxException e) {
+                    LOGGER.warn("Ignoring the invalid Slack document pattern [{}]: {}", pattern.trim(),
+                        e.getMessage());
+                }
+                // An invalid pattern still counts, so that a list of documents to include doesn't end up accepting all
+                // of them.
+                this.empty = false;
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if there are no patterns, i.e. nothing matches
+     */
+    public boolean isEmpty()
+    {
+        return this.empty;
+    }
+
+    /**
+     * @param reference a document reference
+     * @return {@code true} if the given reference matches at least one of the patterns
+     */
+    public boolean matches(DocumentReference reference)
+    {
+        if (this.empty) {
+            return false;
+        }
+        return matchesSuffix(reference) || matchesPrefix(reference) || matchesRegex(reference);
+    }
+
+    private void add(String pattern)
+    {
+        if (pattern.startsWith(REGEX_PREFIX)) {
+            this.regexes.add(Pattern.compile(pattern.substring(REGEX_PREFIX.length())));
+            return;
+        }
+
+        List<String> segments = split(pattern);
+        int last = segments.size() - 1;
+        boolean leadingWildcard = last > 0 && WILDCARD.equals(segments.get(0));
+        boolean trailingWildcard = last > 0 && WILDCARD.equals(segments.get(last));
+        int start = leadingWildcard ? 1 : 0;
+        int end = trailingWildcard ? last - 1 : last;
+        for (int i = start; i <= end; i++) {
+            if (hasWildcard(segments.get(i))) {
+                this.regexes.add(toRegex(segments));
+                return;
+            }
+        }
+
+        if (leadingWildcard && trailingWildcard) {
+            this.regexes.add(toRegex(segments));
+        } else if (leadingWildcard) {
+            Node node = this.suffixes;
+            for (int i = last; i > 0; i--) {
+                node = node.getOrCreate(unescape(segments.get(i)));
+            }
+            node.wildcard = true;
+        } else {
+            Node node = this.prefixes;
+            for (int i = 0; i <= end; i++) {
+                node = node.getOrCreate(unescape(segments.get(i)));
+            }
+            if (trailingWildcard) {
+                node.wildcard = true;
+            } else {
+                node.terminal = true;
+            }
+        }
+    }
+
+    private boolean matchesSuffix(DocumentReference reference)
+    {
+        Node node = this.suffixes;
+        for (EntityReference entity = reference; entity.getType() != EntityType.WIKI; entity = entity.getParent()) {
+            node = node.children.get(entity.getName());
+            if (node == null) {
+                return false;
+            }
+            if (node.wildcard && entity.getParent().getType() != EntityType.WIKI) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesPrefix(DocumentReference reference)
+    {
+        if (this.prefixes.children.isEmpty()) {
+            return false;
+        }
+        List<EntityReference> chain = reference.getReversedReferenceChain();
+        Node node = this.prefixes;
+        // Skip the wiki.
+        for (int i = 1; i < chain.size(); i++) {
+            node = node.children.get(chain.get(i).getName());
+            if (node == null) {
+                return false;
+            }
+            boolean lastSegment = i == chain.size() - 1;
+            if ((node.terminal && lastSegment) || (node.wildcard && !lastSegment)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesRegex(DocumentReference reference)
+    {
+        if (this.regexes.isEmpty()) {
+            return false;
+        }
+        String localReference = toLocalReference(reference);
+        for (Pattern regex : this.regexes) {
+            if (regex.matcher(localReference).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String toLocalReference(DocumentReference reference)
+    {
+        StringBuilder builder = new StringBuilder();
+        for (EntityReference entity : reference.getReversedReferenceChain()) {
+            if (entity.getType() != EntityType.WIKI) {
+                if (builder.length() > 0) {
+                    builder.append(SEPARATOR);
+                }
+                builder.append(StringUtils.replace(entity.getName(), ".", "\\."));
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Converts a pattern to a regular expression matched against the local reference: a {@code *} segment matches one
+     * or more segments at the ends of the pattern (so a lone {@code *} matches everything) and exactly one elsewhere, a
+     * {@code *} inside a name matches any characters and {@code \*} an asterisk.
+     */
+    private static Pattern toRegex(List<String> segments)
+    {
+        String segmentRegex = "(?:[^.\\\\]|\\\\.)";
+        StringBuilder regex = new StringBuilder();
+        int last = segments.size() - 1;
+        for (int i = 0; i <= last; i++) {
+            if (i > 0) {
+                regex.append("\\.");
+            }
+            String segment = segments.get(i);
+            if (WILDCARD.equals(segment)) {
+                if (i == 0 || i == last) {
+                    regex.append(".+");
+                } else {
+                    regex.append(segmentRegex).append('+');
+                }
+            } else {
+                StringBuilder literal = new StringBuilder();
+                for (int j = 0; j < segment.length(); j++) {
+                    char c = segment.charAt(j);
+                    if (c == ESCAPE && j + 1 < segment.length()) {
+                        literal.append(segment.charAt(++j));
+                    } else if (c == WILDCARD_CHARACTER) {
+                        appendQuoted(regex, literal);
+                        regex.append(segmentRegex).append('*');
+                    } else {
+                        literal.append(c);
+                    }
+                }
+                appendQuoted(regex, literal);
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private static void appendQuoted(StringBuilder regex, StringBuilder literal)
+    {
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(StringUtils.replace(literal.toString(), ".", "\\.")));
+            literal.setLength(0);
+        }
+    }
+
+    /**
+     * @return {@code true} if the given segment holds a {@code *} that is not escaped
+     */
+    private static boolean hasWildcard(String segment)
+    {
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c == ESCAPE) {
+                i++;
+            } else if (c == WILDCARD_CHARACTER) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes the escapes kept by {@link #split(String)}.
+     */
+    private static String unescape(String segment)
+    {
+        if (segment.indexOf(ESCAPE) < 0) {
+            return segment;
+        }
+        StringBuilder name = new StringBuilder(segment.length());
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c == ESCAPE && i + 1 < segment.length()) {
+                c = segment.charAt(++i);
+            }
+            name.append(c);
+        }
+        return name.toString();
+    }
+
+    /**
+     * Splits a pattern on the dots that are not escaped. The escapes of {@code *} and {@code \} are kept, so that an
+     * escaped {@code *} is not taken for a wildcard; see {@link #unescape(String)}.
+     */
+    private static List<String> split(String pattern)
+    {
+        List<String> segments = new ArrayList<>();
+        StringBuilder segment = new StringBuilder();
+        int i = 0;
+        while (i < pattern.length()) {
+            char c = pattern.charAt(i++);
+            if (c == ESCAPE && i < pattern.length()) {
+                char escaped = pattern.charAt(i++);
+                if (escaped == WILDCARD_CHARACTER || escaped == ESCAPE) {
+                    segment.append(ESCAPE);
+                }
+                segment.append(escaped);
+            } else if (c == SEPARATOR) {
+                segments.add(segment.toString());
+                segment.setLength(0);
+            } else {
+                segment.append(c);
+            }
+        }
+        segments.add(segment.toString());
+        return segments;
+    }
+}
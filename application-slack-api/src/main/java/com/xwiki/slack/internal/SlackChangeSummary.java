@@ -0,0 +1,347 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+import com.xpn.xwiki.objects.PropertyInterface;
+
+/**
+ * A compact summary of the changes made to a document: the number of lines added to and removed from its content, the
+ * sections where this happened and the object properties that changed. It is meant to be included in the Slack
+ * message so that readers don't have to open the (expensive) diff page to know what changed.
+ * <p>
+ * The line counts come from a linear diff: the common leading and trailing lines are skipped and the remaining lines
+ * are matched as multisets, so a moved line counts as unchanged. Documents with a very large content and comparisons
+ * that exceed a time budget are summarized approximately.
+ *
+ * @version $Id$
+ */
+public final class SlackChangeSummary
+{
+    /**
+     * The maximum length of the content compared line by line.
+     */
+    static final int MAX_CONTENT_LENGTH = 1 << 20;
+
+    private static final long TIME_BUDGET = TimeUnit.MILLISECONDS.toNanos(50);
+
+    /**
+     * How often the time budget is checked, in compared lines.
+     */
+    private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
+    private static final int MAX_NAMES = 3;
+
+    private static final Pattern HEADING = Pattern.compile("^\\s*=+\\s*(.*?)\\s*=*\\s*$");
+
+    private static final String SEPARATOR = ", ";
+
+    private final long deadline;
+
+    private int addedLines;
+
+    private int removedLines;
+
+    private boolean approximate;
+
+    private final Set<String> sections = new LinkedHashSet<>();
+
+    private final Set<String> properties = new LinkedHashSet<>();
+
+    private SlackChangeSummary(long deadline)
+    {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Summarizes the changes made to a document.
+     *
+     * @param before the document before the change
+     * @param after the document after the change
+     * @return the summary of the changes
+     */
+    public static SlackChangeSummary compute(XWikiDocument before, XWikiDocument after)
+    {
+        SlackChangeSummary summary = new SlackChangeSummary(System.nanoTime() + TIME_BUDGET);
+        summary.compareContent(StringUtils.defaultString(before.getContent()),
+            StringUtils.defaultString(after.getContent()));
+        summary.compareObjects(before.getXObjects(), after.getXObjects());
+        return summary;
+    }
+
+    /**
+     * @return the number of lines added to the content
+     */
+    public int getAddedLines()
+    {
+        return this.addedLines;
+    }
+
+    /**
+     * @return the number of lines removed from the content
+     */
+    public int getRemovedLines()
+    {
+        return this.removedLines;
+    }
+
+    /**
+     * @return {@code true} if the line counts are an upper bound rather than exact
+     */
+    public boolean isApproximate()
+    {
+        return this.approximate;
+    }
+
+    /**
+     * @return the titles of the sections where the content changed
+     */
+    public Set<String> getSections()
+    {
+        return Collections.unmodifiableSet(this.sections);
+    }
+
+    /**
+     * @return the object properties that changed, as {@code Class.property}, or just {@code Class} for the objects
+     *         that were added or removed
+     */
+    public Set<String> getProperties()
+    {
+        return Collections.unmodifiableSet(this.properties);
+    }
+
+    /**
+     * @return {@code true} if nothing changed in the content and in the objects
+     */
+    public boolean isEmpty()
+    {
+        return this.addedLines == 0 && this.removedLines == 0 && this.properties.isEmpty();
+    }
+
+    /**
+     * Appends the summary to a message, e.g. " [+12 -3 lines in Installation; changed XWikiUsers.email]".
+     *
+     * @param builder the builder of the message
+     * @return the given builder
+     */
+    public SlackMessageBuilder appendTo(SlackMessageBuilder builder)
+    {
+        if (isEmpty()) {
+            return builder;
+        }
+        builder.append(" [");
+        if (this.addedLines > 0 || this.removedLines > 0) {
+            builder.append(this.approximate ? "~" : "").append("+").append(this.addedLines).append(" -")
+                .append(this.removedLines).append(" lines");
+            if (!this.sections.isEmpty()) {
+                appendNames(builder.append(" in "), this.sections);
+            }
+            if (!this.properties.isEmpty()) {
+                builder.append("; ");
+            }
+        }
+        if (!this.properties.isEmpty()) {
+            appendNames(builder.append("changed "), this.properties);
+        }
+        return builder.append("]");
+    }
+
+    private void appendNames(SlackMessageBuilder builder, Set<String> names)
+    {
+        int count = 0;
+        for (String name : names) {
+            if (count == MAX_NAMES) {
+                builder.append(" and ").append(names.size() - MAX_NAMES).append(" more");
+                break;
+            }
+            if (count > 0) {
+                builder.append(SEPARATOR);
+            }
+            builder.appendEncoded(name);
+            count++;
+        }
+    }
+
+    private void compareContent(String before, String after)
+    {
+        if (before.equals(after)) {
+            return;
+        }
+        if (before.length() > MAX_CONTENT_LENGTH || after.length() > MAX_CONTENT_LENGTH) {
+            // Too large to be compared line by line on every save.
+            this.approximate = true;
+            this.addedLines = countLines(after);
+            this.removedLines = countLines(before);
+            return;
+        }
+
+        String[] beforeLines = StringUtils.splitPreserveAllTokens(before, '\n');
+        String[] afterLines = StringUtils.splitPreserveAllTokens(after, '\n');
+        int start = 0;
+        int minLength = Math.min(beforeLines.length, afterLines.length);
+        while (start < minLength && beforeLines[start].equals(afterLines[start])) {
+            start++;
+        }
+        int beforeEnd = beforeLines.length;
+        int afterEnd = afterLines.length;
+        while (beforeEnd > start && afterEnd > start && beforeLines[beforeEnd - 1].equals(afterLines[afterEnd - 1])) {
+            beforeEnd--;
+            afterEnd--;
+        }
+
+        countChangedLines(beforeLines, afterLines, start, beforeEnd, afterEnd);
+        collectSections(afterLines, start, afterEnd);
+    }
+
+    private void countChangedLines(String[] beforeLines, String[] afterLines, int start, int beforeEnd, int afterEnd)
+    {
+        // Out of time, all the lines that are not matched yet are counted as changed.
+        Map<String, Integer> remaining = new HashMap<>();
+        for (int i = start; i < beforeEnd && !isOutOfTime(i - start); i++) {
+            remaining.merge(beforeLines[i], 1, Integer::sum);
+        }
+        int matched = 0;
+        for (int i = start; i < afterEnd && !isOutOfTime(i - start); i++) {
+            Integer count = remaining.get(afterLines[i]);
+            if (count != null && count > 0) {
+                remaining.put(afterLines[i], count - 1);
+                matched++;
+            }
+        }
+        this.addedLines = afterEnd - start - matched;
+        this.removedLines = beforeEnd - start - matched;
+    }
+
+    private boolean isOutOfTime(int count)
+    {
+        if (!this.approximate && count % DEADLINE_CHECK_INTERVAL == 0 && System.nanoTime() - this.deadline > 0) {
+            this.approximate = true;
+        }
+        return this.approximate;
+    }
+
+    /**
+     * Collects the sections that contain the changed lines: the section where the changes start and the sections
+     * starting among the changed lines.
+     */
+    private void collectSections(String[] lines, int start, int end)
+    {
+        String current = null;
+        for (int i = 0; i < start; i++) {
+            String heading = getHeading(lines[i]);
+            if (heading != null) {
+                current = heading;
+            }
+        }
+        if (current != null) {
+            this.sections.add(current);
+        }
+        for (int i = start; i < end; i++) {
+            String heading = getHeading(lines[i]);
+            if (heading != null) {
+                this.sections.add(heading);
+            }
+        }
+    }
+
+    private String getHeading(String line)
+    {
+        if (!StringUtils.startsWith(line.trim(), "=")) {
+            return null;
+        }
+        Matcher matcher = HEADING.matcher(line);
+        return matcher.matches() && !matcher.group(1).isEmpty() ? matcher.group(1) : null;
+    }
+
+    private void compareObjects(Map<DocumentReference, List<BaseObject>> before,
+        Map<DocumentReference, List<BaseObject>> after)
+    {
+        Set<DocumentReference> classes = new LinkedHashSet<>(after.keySet());
+        classes.addAll(before.keySet());
+        for (DocumentReference classReference : classes) {
+            if (System.nanoTime() - this.deadline > 0) {
+                return;
+            }
+            List<BaseObject> beforeObjects = getObjects(before, classReference);
+            List<BaseObject> afterObjects = getObjects(after, classReference);
+            for (int i = 0; i < Math.max(beforeObjects.size(), afterObjects.size()); i++) {
+                compareObject(classReference.getName(), get(beforeObjects, i), get(afterObjects, i));
+            }
+        }
+    }
+
+    private void compareObject(String className, BaseObject before, BaseObject after)
+    {
+        if (before == null || after == null) {
+            if (before != after) {
+                // Added or removed object.
+                this.properties.add(className);
+            }
+            return;
+        }
+        Set<String> names = new LinkedHashSet<>(after.getPropertyList());
+        names.addAll(before.getPropertyList());
+        for (String name : names) {
+            if (!Objects.equals(getValue(before, name), getValue(after, name))) {
+                this.properties.add(className + '.' + name);
+            }
+        }
+    }
+
+    private Object getValue(BaseObject object, String name)
+    {
+        PropertyInterface property = object.safeget(name);
+        return property instanceof BaseProperty ? ((BaseProperty) property).getValue() : null;
+    }
+
+    private List<BaseObject> getObjects(Map<DocumentReference, List<BaseObject>> objects,
+        DocumentReference classReference)
+    {
+        List<BaseObject> list = objects.get(classReference);
+        return list != null ? list : new ArrayList<BaseObject>();
+    }
+
+    private BaseObject get(List<BaseObject> objects, int index)
+    {
+        return index < objects.size() ? objects.get(index) : null;
+    }
+
+    private static int countLines(String text)
+    {
+        return text.isEmpty() ? 0 : StringUtils.countMatches(text, "\n") + 1;
+    }
+}
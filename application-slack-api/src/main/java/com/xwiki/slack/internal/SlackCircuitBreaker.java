@@ -0,0 +1,202 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+import com.xwiki.slack.SlackWebhookStatus;
+import com.xwiki.slack.SlackWebhookStatus.State;
+
+/**
+ * Stops posting to a Slack webhook that keeps failing, e.g. because its URL was revoked or mistyped. After a number of
+ * consecutive failed requests (error responses other than rate limiting, or network errors) the circuit of the webhook
+ * opens: no request is posted to it until, once the probe interval has elapsed, a single request checks whether it
+ * works again. The circuit closes as soon as a request succeeds.
+ *
+ * @version $Id$
+ */
+@Component(roles = SlackCircuitBreaker.class)
+@Singleton
+public class SlackCircuitBreaker implements Initializable
+{
+    private static final SlackWebhookStatus UNUSED = new SlackWebhookStatus(State.CLOSED, 0, null, null, null);
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private SlackDeliveryConfiguration configuration;
+
+    private final Map<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    private int threshold;
+
+    private long probeInterval;
+
+    /**
+     * The circuit of a webhook.
+     */
+    private final class Circuit
+    {
+        private State state = State.CLOSED;
+
+        private int consecutiveFailures;
+
+        private long lastSuccess;
+
+        private long lastErrorDate;
+
+        private String lastError;
+
+        /**
+         * When the circuit opened, or when the last probe was allowed.
+         */
+        private long openedAt;
+
+        synchronized boolean allowRequest(long now)
+        {
+            if (this.state == State.CLOSED) {
+                return true;
+            }
+            // A probe that never completed (e.g. because its request was postponed) doesn't block the next one.
+            if (now - this.openedAt >= SlackCircuitBreaker.this.probeInterval) {
+                this.state = State.HALF_OPEN;
+                this.openedAt = now;
+                return true;
+            }
+            return false;
+        }
+
+        synchronized void recordSuccess(long now)
+        {
+            this.state = State.CLOSED;
+            this.consecutiveFailures = 0;
+            this.lastSuccess = now;
+        }
+
+        synchronized boolean recordFailure(long now, String error)
+        {
+            this.consecutiveFailures++;
+            this.lastErrorDate = now;
+            this.lastError = error;
+            boolean opening = this.state == State.CLOSED && SlackCircuitBreaker.this.threshold > 0
+                && this.consecutiveFailures >= SlackCircuitBreaker.this.threshold;
+            if (opening || this.state == State.HALF_OPEN) {
+                this.state = State.OPEN;
+                this.openedAt = now;
+            }
+            return opening;
+        }
+
+        synchronized SlackWebhookStatus getStatus()
+        {
+            return new SlackWebhookStatus(this.state, this.consecutiveFailures, toDate(this.lastSuccess),
+                toDate(this.lastErrorDate), this.lastError);
+        }
+
+        private Date toDate(long time)
+        {
+            return time > 0 ? new Date(time) : null;
+        }
+    }
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.threshold = this.configuration.getCircuitBreakerThreshold();
+        this.probeInterval = this.configuration.getCircuitBreakerProbeInterval();
+    }
+
+    /**
+     * @param webhookUrl a webhook
+     * @return {@code true} if a request can be posted to the given webhook, {@code false} if its circuit is open
+     */
+    public boolean allowRequest(String webhookUrl)
+    {
+        if (this.threshold <= 0) {
+            return true;
+        }
+        Circuit circuit = this.circuits.get(webhookUrl);
+        return circuit == null || circuit.allowRequest(System.currentTimeMillis());
+    }
+
+    /**
+     * Record that a request posted to the given webhook succeeded.
+     *
+     * @param webhookUrl a webhook
+     */
+    public void recordSuccess(String webhookUrl)
+    {
+        getCircuit(webhookUrl).recordSuccess(System.currentTimeMillis());
+    }
+
+    /**
+     * Record that a request posted to the given webhook failed.
+     *
+     * @param webhookUrl a webhook
+     * @param error the failure
+     */
+    public void recordFailure(String webhookUrl, String error)
+    {
+        if (getCircuit(webhookUrl).recordFailure(System.currentTimeMillis(), error)) {
+            this.logger.warn("Stopped posting messages to the Slack webhook [{}] after [{}] consecutive failures, "
+                + "the last one being [{}]. It will be checked again in [{}] milliseconds.", webhookUrl,
+                this.threshold, error, this.probeInterval);
+        }
+    }
+
+    /**
+     * @param webhookUrl a webhook
+     * @return the health of the given webhook
+     */
+    public SlackWebhookStatus getStatus(String webhookUrl)
+    {
+        Circuit circuit = this.circuits.get(webhookUrl);
+        return circuit != null ? circuit.getStatus() : UNUSED;
+    }
+
+    /**
+     * @return the health of each webhook a request was posted to, by webhook URL
+     */
+    public Map<String, SlackWebhookStatus> getStatuses()
+    {
+        Map<String, SlackWebhookStatus> statuses = new TreeMap<>();
+        for (Map.Entry<String, Circuit> entry : this.circuits.entrySet()) {
+            statuses.put(entry.getKey(), entry.getValue().getStatus());
+        }
+        return statuses;
+    }
+
+    private Circuit getCircuit(String webhookUrl)
+    {
+        return this.circuits.computeIfAbsent(webhookUrl, url -> new Circuit());
+    }
+}
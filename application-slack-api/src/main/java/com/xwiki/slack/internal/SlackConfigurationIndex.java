@@ -0,0 +1,465 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.EntityType;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryException;
+import org.xwiki.query.QueryManager;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xwiki.slack.SlackConfigurationSnapshot;
+import com.xwiki.slack.SlackEventFilter;
+import com.xwiki.slack.SlackEventType;
+import com.xwiki.slack.SlackWebhook;
+
+/**
+ * In-memory index of the Slack configurations of each wiki, from the document holding the configuration objects to the
+ * webhooks they define. The index of a wiki is built with a single query the first time it is needed and is then kept
+ * up to date by {@link SlackConfigurationIndexListener}, so that finding the configuration of a document doesn't
+ * require loading any document. The configuration that applies to each space (merged from the {@code WebPreferences}
+ * of the space and of its ancestors, and from the wiki preferences) is also remembered, including when there is none,
+ * so that the walk up the space hierarchy is done once per space.
+ * <p>
+ * The index is copy-on-write: a configuration change publishes a new immutable index of the wiki, with an empty memory
+ * of the resolved spaces, so reading the configuration of a document is a volatile read followed by map lookups,
+ * without locks.
+ *
+ * @version $Id$
+ */
+@Component(roles = SlackConfigurationIndex.class)
+@Singleton
+public class SlackConfigurationIndex
+{
+    /**
+     * The name of the document holding the configuration of a space.
+     */
+    static final String WEB_PREFERENCES = "WebPreferences";
+
+    /**
+     * The document holding the configuration of the whole wiki.
+     */
+    static final LocalDocumentReference WIKI_PREFERENCES = new LocalDocumentReference("XWiki", "XWikiPreferences");
+
+    /**
+     * The maximum number of spaces of a wiki for which the applying configuration is remembered.
+     */
+    private static final int MAX_RESOLVED_SPACES = 10000;
+
+    /**
+     * Post each notification right away unless the administrator chose to coalesce them.
+     */
+    private static final int DEFAULT_COALESCE_WINDOW = 0;
+
+    private static final int DEFAULT_DIGEST_THRESHOLD = 10;
+
+    private static final String CHANNEL_URL = "channelUrl";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Provider<XWikiContext> xcontextProvider;
+
+    @Inject
+    private QueryManager queryManager;
+
+    @Inject
+    @Named("current")
+    private DocumentReferenceResolver<String> documentReferenceResolver;
+
+    /**
+     * The index of each wiki, replaced (never modified) when a configuration changes.
+     */
+    private volatile Map<String, WikiIndex> wikis = Collections.emptyMap();
+
+    /**
+     * The Slack configurations of a wiki.
+     */
+    private static final class WikiIndex
+    {
+        /**
+         * The configuration held by each document, never modified.
+         */
+        private final Map<DocumentReference, SlackConfigurationSnapshot> documents;
+
+        /**
+         * The configuration that applies to each space, derived from {@link #documents}.
+         */
+        private final Map<EntityReference, SlackConfigurationSnapshot> spaces = new ConcurrentHashMap<>();
+
+        WikiIndex(Map<DocumentReference, SlackConfigurationSnapshot> documents)
+        {
+            this.documents = documents;
+        }
+    }
+
+    /**
+     * Resolves the Slack configuration that applies to the given document: the channels configured in the {@code
+     * WebPreferences} of its space and of all its ancestor spaces up to the wiki, then in the wiki preferences, each
+     * channel once with the configuration that is the closest to the document. Each channel is enabled or disabled on
+     * its own, so disabling a channel in a space doesn't silence the channels configured for the whole wiki; a channel
+     * disabled in a space is not notified about the documents of that space even if it is enabled further up.
+     *
+     * @param documentReference a document
+     * @return the Slack configuration that applies to the given document, {@link SlackConfigurationSnapshot#EMPTY} if
+     *         there is none
+     */
+    public SlackConfigurationSnapshot getSnapshot(DocumentReference documentReference)
+    {
+        WikiIndex index = getWikiIndex(documentReference.getWikiReference());
+        if (index.documents.isEmpty()) {
+            return SlackConfigurationSnapshot.EMPTY;
+        }
+        EntityReference space = documentReference.getParent();
+        SlackConfigurationSnapshot snapshot = index.spaces.get(space);
+        if (snapshot == null) {
+            // The index of the wiki is immutable: the result can't be outdated by a concurrent change.
+            snapshot = resolveSnapshot(index, documentReference);
+            if (index.spaces.size() >= MAX_RESOLVED_SPACES) {
+                index.spaces.clear();
+            }
+            index.spaces.put(space, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Finds the documents holding the Slack configurations that apply to the given document: the {@code
+     * WebPreferences} of its space and of all its ancestor spaces up to the wiki, then the wiki preferences.
+     *
+     * @param documentReference a document
+     * @return the documents holding the Slack configurations that apply to the given document, starting with the
+     *         closest one; an empty list if there are none
+     */
+    public List<DocumentReference> getConfigurationReferences(DocumentReference documentReference)
+    {
+        return getSnapshot(documentReference).getConfigurationReferences();
+    }
+
+    /**
+     * Checks cheaply whether any Slack configuration applies to the given document, without resolving which ones. This
+     * is meant to discard early the events on documents that no Slack channel is interested in, which are the large
+     * majority: it doesn't create any object and only compares the document with the few configured spaces.
+     *
+     * @param documentReference a document
+     * @return {@code true} if at least one Slack configuration applies to the given document
+     */
+    public boolean isConfigured(DocumentReference documentReference)
+    {
+        WikiIndex index = getWikiIndex(documentReference.getWikiReference());
+        if (index.documents.isEmpty()) {
+            return false;
+        }
+        SlackConfigurationSnapshot snapshot = index.spaces.get(documentReference.getParent());
+        if (snapshot != null) {
+            return snapshot.hasConfigurationSource();
+        }
+        for (DocumentReference configReference : index.documents.keySet()) {
+            if (isWikiConfiguration(configReference) || (WEB_PREFERENCES.equals(configReference.getName())
+                && isInSpace(documentReference, configReference.getParent()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param configReference a document that may hold Slack configuration objects
+     * @return the webhooks configured in the given document, an empty list if there are none
+     */
+    public List<SlackWebhook> getWebhooks(DocumentReference configReference)
+    {
+        SlackConfigurationSnapshot snapshot =
+            getWikiIndex(configReference.getWikiReference()).documents.get(configReference);
+        return snapshot != null ? snapshot.getWebhooks() : Collections.<SlackWebhook>emptyList();
+    }
+
+    /**
+     * @param configReference a document that may hold Slack configuration objects
+     * @return {@code true} if the given document holds at least one Slack configuration object
+     */
+    public boolean hasConfiguration(DocumentReference configReference)
+    {
+        return getWikiIndex(configReference.getWikiReference()).documents.containsKey(configReference);
+    }
+
+    /**
+     * Update the index after a document was saved.
+     *
+     * @param document the saved document
+     */
+    public void update(XWikiDocument document)
+    {
+        DocumentReference configReference = document.getDocumentReference();
+        SlackConfigurationSnapshot snapshot = readSnapshot(document);
+        if (snapshot == null) {
+            remove(configReference);
+            return;
+        }
+        synchronized (this) {
+            WikiIndex index = this.wikis.get(configReference.getWikiName());
+            if (index != null) {
+                Map<DocumentReference, SlackConfigurationSnapshot> documents = new HashMap<>(index.documents);
+                documents.put(configReference, snapshot);
+                publish(configReference.getWikiName(), new WikiIndex(Collections.unmodifiableMap(documents)));
+            }
+        }
+    }
+
+    /**
+     * Update the index after a document was deleted.
+     *
+     * @param configReference the deleted document
+     */
+    public void remove(DocumentReference configReference)
+    {
+        // Most of the saved documents hold no Slack configuration: check without locking first.
+        WikiIndex current = this.wikis.get(configReference.getWikiName());
+        if (current == null || !current.documents.containsKey(configReference)) {
+            return;
+        }
+        synchronized (this) {
+            WikiIndex index = this.wikis.get(configReference.getWikiName());
+            if (index != null && index.documents.containsKey(configReference)) {
+                Map<DocumentReference, SlackConfigurationSnapshot> documents = new HashMap<>(index.documents);
+                documents.remove(configReference);
+                publish(configReference.getWikiName(), new WikiIndex(Collections.unmodifiableMap(documents)));
+            }
+        }
+    }
+
+    /**
+     * Forget the index of a wiki, e.g. because the wiki was deleted. It will be built again if needed.
+     *
+     * @param wikiId the wiki identifier
+     */
+    public synchronized void invalidate(String wikiId)
+    {
+        publish(wikiId, null);
+    }
+
+    private SlackConfigurationSnapshot resolveSnapshot(WikiIndex index, DocumentReference documentReference)
+    {
+        List<SlackConfigurationSnapshot> snapshots = new ArrayList<>();
+        EntityReference space = documentReference.getParent();
+        while (space != null && space.getType() == EntityType.SPACE) {
+            SlackConfigurationSnapshot snapshot =
+                index.documents.get(new DocumentReference(WEB_PREFERENCES, new SpaceReference(space)));
+            if (snapshot != null) {
+                snapshots.add(snapshot);
+            }
+            space = space.getParent();
+        }
+        SlackConfigurationSnapshot wikiSnapshot =
+            index.documents.get(new DocumentReference(WIKI_PREFERENCES, documentReference.getWikiReference()));
+        if (wikiSnapshot != null) {
+            snapshots.add(wikiSnapshot);
+        }
+        if (snapshots.isEmpty()) {
+            return SlackConfigurationSnapshot.EMPTY;
+        }
+
+        // Each channel once, with the configuration closest to the document, even when it disables the channel.
+        List<DocumentReference> configReferences = new ArrayList<>(snapshots.size());
+        Map<String, SlackWebhook> webhooks = new LinkedHashMap<>();
+        for (SlackConfigurationSnapshot snapshot : snapshots) {
+            configReferences.addAll(snapshot.getConfigurationReferences());
+            for (SlackWebhook webhook : snapshot.getWebhooks()) {
+                webhooks.putIfAbsent(webhook.getUrl(), webhook);
+            }
+        }
+        List<SlackWebhook> resolved = new ArrayList<>(webhooks.values());
+        return new SlackConfigurationSnapshot(configReferences, isAnyEnabled(resolved),
+            snapshots.get(0).getWebhookUrl(), resolved);
+    }
+
+    private static boolean isAnyEnabled(List<SlackWebhook> webhooks)
+    {
+        for (SlackWebhook webhook : webhooks) {
+            if (webhook.isEnabled()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWikiConfiguration(DocumentReference configReference)
+    {
+        EntityReference space = configReference.getParent();
+        return WIKI_PREFERENCES.getName().equals(configReference.getName())
+            && WIKI_PREFERENCES.getParent().getName().equals(space.getName())
+            && space.getParent().getType() == EntityType.WIKI;
+    }
+
+    private static boolean isInSpace(DocumentReference documentReference, EntityReference spaceReference)
+    {
+        EntityReference space = documentReference.getParent();
+        while (space != null && space.getType() == EntityType.SPACE) {
+            if (space.equals(spaceReference)) {
+                return true;
+            }
+            space = space.getParent();
+        }
+        return false;
+    }
+
+    /**
+     * Replace the index of a wiki. Must be called while holding the lock of this object.
+     */
+    private void publish(String wikiId, WikiIndex index)
+    {
+        Map<String, WikiIndex> newWikis = new HashMap<>(this.wikis);
+        if (index != null) {
+            newWikis.put(wikiId, index);
+        } else {
+            newWikis.remove(wikiId);
+        }
+        this.wikis = Collections.unmodifiableMap(newWikis);
+    }
+
+    private WikiIndex getWikiIndex(WikiReference wikiReference)
+    {
+        WikiIndex index = this.wikis.get(wikiReference.getName());
+        if (index == null) {
+            synchronized (this) {
+                // Built once, even when several threads need it at the same time.
+                index = this.wikis.get(wikiReference.getName());
+                if (index == null) {
+                    index = buildWikiIndex(wikiReference);
+                    publish(wikiReference.getName(), index);
+                }
+            }
+        }
+        return index;
+    }
+
+    private WikiIndex buildWikiIndex(WikiReference wikiReference)
+    {
+        Map<DocumentReference, SlackConfigurationSnapshot> documents = new HashMap<>();
+        XWikiContext xcontext = this.xcontextProvider.get();
+        try {
+            List<String> results =
+                this.queryManager.createQuery("from doc.object(Slack.Code.SlackConfigurationClass) config", Query.XWQL)
+                    .setWiki(wikiReference.getName()).execute();
+            for (String result : results) {
+                DocumentReference configReference = this.documentReferenceResolver.resolve(result, wikiReference);
+                try {
+                    SlackConfigurationSnapshot snapshot =
+                        readSnapshot(xcontext.getWiki().getDocument(configReference, xcontext));
+                    if (snapshot != null) {
+                        documents.put(configReference, snapshot);
+                    }
+                } catch (XWikiException e) {
+                    this.logger.error("Failed to retrieve the document for the reference [{}].", configReference, e);
+                }
+            }
+        } catch (QueryException e) {
+            this.logger.error("Failed to find the Slack configurations of wiki [{}].", wikiReference.getName(), e);
+        }
+        return new WikiIndex(Collections.unmodifiableMap(documents));
+    }
+
+    /**
+     * @return the configuration held by the given document, {@code null} if it doesn't define any webhook
+     */
+    private SlackConfigurationSnapshot readSnapshot(XWikiDocument configDoc)
+    {
+        List<SlackWebhook> webhooks = getWebhooks(configDoc);
+        if (webhooks.isEmpty()) {
+            return null;
+        }
+        // Like the configuration source, the Webhook URL is read from the first object, but each object enables its
+        // own channel.
+        BaseObject first = null;
+        for (BaseObject object : configDoc.getXObjects(SlackConfigurationSource.CLASS_REFERENCE)) {
+            if (object != null) {
+                first = object;
+                break;
+            }
+        }
+        return new SlackConfigurationSnapshot(Collections.singletonList(configDoc.getDocumentReference()),
+            isAnyEnabled(webhooks), first.getStringValue(CHANNEL_URL), webhooks);
+    }
+
+    private List<SlackWebhook> getWebhooks(XWikiDocument configDoc)
+    {
+        List<SlackWebhook> webhooks = new ArrayList<>();
+        for (BaseObject object : configDoc.getXObjects(SlackConfigurationSource.CLASS_REFERENCE)) {
+            // The list of objects can have holes where objects were deleted.
+            String url = object != null ? object.getStringValue(CHANNEL_URL) : null;
+            if (StringUtils.isNotBlank(url)) {
+                webhooks.add(new SlackWebhook(configDoc.getDocumentReference(), object.getStringValue("channelName"),
+                    url.trim(), object.getIntValue("enabled", 1) == 1,
+                    object.getIntValue("coalesceWindow", DEFAULT_COALESCE_WINDOW),
+                    object.getIntValue("digestThreshold", DEFAULT_DIGEST_THRESHOLD), getFilter(object)));
+            }
+        }
+        return webhooks;
+    }
+
+    private SlackEventFilter getFilter(BaseObject object)
+    {
+        return new SlackEventFilter(getEvents(object), getPatterns(object, "includeDocuments"),
+            getPatterns(object, "excludeDocuments"), getPatterns(object, "includeAuthors"),
+            getPatterns(object, "excludeAuthors"), object.getIntValue("excludeMinorEdits", 0) == 1);
+    }
+
+    private List<String> getPatterns(BaseObject object, String property)
+    {
+        // One pattern per line.
+        String value = object.getLargeStringValue(property);
+        return StringUtils.isBlank(value) ? Collections.<String>emptyList()
+            : Arrays.asList(StringUtils.split(value, "\r\n"));
+    }
+
+    private int getEvents(BaseObject object)
+    {
+        List<?> events = object.getListValue("events");
+        // The channels configured before the events could be selected receive all of them.
+        return events == null || events.isEmpty() ? SlackEventType.ALL : SlackEventType.toMask(events);
+    }
+}
@@ -22,17 +22,15 @@ package com.xwiki.slack.internal;
 import java.util.Arrays;
 import java.util.List;
 
+import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
 import org.xwiki.component.annotation.Component;
 import org.xwiki.configuration.internal.AbstractDocumentConfigurationSource;
-import org.xwiki.model.EntityType;
 import org.xwiki.model.reference.DocumentReference;
 import org.xwiki.model.reference.LocalDocumentReference;
-import org.xwiki.model.reference.SpaceReference;
 import com.xpn.xwiki.XWikiContext;
-import com.xpn.xwiki.XWikiException;
 import com.xpn.xwiki.doc.XWikiDocument;
 
 /**
@@ -45,37 +43,27 @@ import com.xpn.xwiki.doc.XWikiDocument;
 @Singleton
 public class SlackConfigurationSource extends AbstractDocumentConfigurationSource
 {
+    /**
+     * The class of the objects holding the Slack configuration.
+     */
+    static final LocalDocumentReference CLASS_REFERENCE =
+        new LocalDocumentReference(Arrays.asList("Slack", "Code"), "SlackConfigurationClass");
 
-    private static final List<String> SPACE_NAMES = Arrays.asList("Slack", "Code");
-
-    private static final LocalDocumentReference CLASS_REFERENCE =
-        new LocalDocumentReference(SPACE_NAMES, "SlackConfigurationClass");
+    @Inject
+    private SlackConfigurationIndex index;
 
     @Override
     protected DocumentReference getDocumentReference()
     {
         XWikiContext xcontext = xcontextProvider.get();
         XWikiDocument currentDoc = xcontext.getDoc();
-        SpaceReference lastSpaceRef = currentDoc.getDocumentReference().getLastSpaceReference();
-
-        while (lastSpaceRef.getType() == EntityType.SPACE) {
-            DocumentReference localConfigDocRef = new DocumentReference("WebPreferences", lastSpaceRef);
-            try {
-                XWikiDocument localConfigDoc = xcontext.getWiki().getDocument(localConfigDocRef, xcontext);
-                if (localConfigDoc != null && localConfigDoc.getXObject(CLASS_REFERENCE) != null) {
-                    return localConfigDocRef;
-                }
-            } catch (XWikiException e) {
-                logger.error("Failed to retrieve the document for the reference [{}].", localConfigDocRef, e);
-                return null;
-            }
-            if (lastSpaceRef.getParent().getType() == EntityType.SPACE) {
-                lastSpaceRef = new SpaceReference(lastSpaceRef.getParent());
-            }
-            break;
+        if (currentDoc == null) {
+            return null;
         }
 
-        return null;
+        // The closest configuration, looking up the space hierarchy up to the wiki preferences.
+        List<DocumentReference> configReferences = index.getConfigurationReferences(currentDoc.getDocumentReference());
+        return configReferences.isEmpty() ? null : configReferences.get(0);
     }
 
     @Override
@@ -0,0 +1,235 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.EntityReference;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.slack.SlackEventType;
+
+/**
+ * Drops the notifications that were already sent recently, e.g. because an event was replayed or a listener was
+ * registered twice. Each notification is identified by a 64-bit hash of the event type, the document reference, the
+ * document revision (see {@link #getRevision(SlackEventType, XWikiDocument)}) and the webhook URL. The hashes are
+ * kept in two generations of primitive hash sets: a hash is a duplicate if it is in one of them, and the older
+ * generation is discarded each time the window elapses or the current generation is full. A repeat is thus detected
+ * at least during one window (less under heavy load, to bound the memory), with two fixed arrays of longs. Checking a
+ * notification allocates nothing; only the revision is built as a short string, once per event whatever the number
+ * of channels notified.
+ *
+ * @version $Id$
+ */
+@Component(roles = SlackDeduplicator.class)
+@Singleton
+public class SlackDeduplicator implements Initializable
+{
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    @Inject
+    private SlackDeliveryConfiguration configuration;
+
+    private long window;
+
+    private int capacity;
+
+    private LongHashSet current;
+
+    private LongHashSet previous;
+
+    private long rotation;
+
+    /**
+     * A set of non-zero longs with open addressing and linear probing.
+     */
+    private static final class LongHashSet
+    {
+        private final long[] table;
+
+        private final int mask;
+
+        private int size;
+
+        LongHashSet(int capacity)
+        {
+            // Keep the load factor at or below 0.5.
+            this.table = new long[Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1];
+            this.mask = this.table.length - 1;
+        }
+
+        boolean contains(long key)
+        {
+            int index = index(key);
+            while (this.table[index] != 0) {
+                if (this.table[index] == key) {
+                    return true;
+                }
+                index = (index + 1) & this.mask;
+            }
+            return false;
+        }
+
+        boolean add(long key)
+        {
+            int index = index(key);
+            while (this.table[index] != 0) {
+                if (this.table[index] == key) {
+                    return false;
+                }
+                index = (index + 1) & this.mask;
+            }
+            this.table[index] = key;
+            this.size++;
+            return true;
+        }
+
+        int size()
+        {
+            return this.size;
+        }
+
+        void clear()
+        {
+            Arrays.fill(this.table, 0L);
+            this.size = 0;
+        }
+
+        private int index(long key)
+        {
+            // The key is already a hash: fold it.
+            return (int) (key ^ (key >>> Integer.SIZE)) & this.mask;
+        }
+    }
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.window = TimeUnit.MILLISECONDS.toNanos(this.configuration.getDeduplicationWindow());
+        this.capacity = this.configuration.getDeduplicationCapacity();
+        if (this.window > 0) {
+            this.current = new LongHashSet(this.capacity);
+            this.previous = new LongHashSet(this.capacity);
+            this.rotation = System.nanoTime() + this.window;
+        }
+    }
+
+    /**
+     * Identifies the change a notification is about, so that the notifications about two distinct changes are never
+     * taken for duplicates. The version alone is not enough: a created document is always at version 1.1, as is the
+     * (blank) document of a deletion event. The version is thus completed with the date of the change, taken from the
+     * deleted document for a deletion and from the creation date for a creation.
+     *
+     * @param eventType the type of event notified
+     * @param document the document of the event
+     * @return the revision of the document concerned by the event
+     */
+    public static String getRevision(SlackEventType eventType, XWikiDocument document)
+    {
+        XWikiDocument changed = document;
+        if (eventType == SlackEventType.DOCUMENT_DELETED && document.getOriginalDocument() != null) {
+            changed = document.getOriginalDocument();
+        }
+        Date date = eventType == SlackEventType.DOCUMENT_CREATED ? changed.getCreationDate() : changed.getDate();
+        return date != null ? changed.getVersion() + '@' + date.getTime() : changed.getVersion();
+    }
+
+    /**
+     * Checks whether the given notification was already sent recently and remembers it otherwise.
+     *
+     * @param eventType the type of event notified
+     * @param documentReference the document the event is about
+     * @param revision the revision of the document, see {@link #getRevision(SlackEventType, XWikiDocument)}
+     * @param webhookUrl where the notification is sent
+     * @return {@code true} if the same notification was already sent recently, in which case it shouldn't be sent
+     *         again
+     */
+    public boolean isDuplicate(SlackEventType eventType, DocumentReference documentReference, String revision,
+        String webhookUrl)
+    {
+        if (this.window <= 0) {
+            return false;
+        }
+        long key = getKey(eventType, documentReference, revision, webhookUrl);
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (now - this.rotation >= 0 || this.current.size() >= this.capacity) {
+                LongHashSet oldest = this.previous;
+                oldest.clear();
+                this.previous = this.current;
+                this.current = oldest;
+                this.rotation = now + this.window;
+            }
+            return this.previous.contains(key) || !this.current.add(key);
+        }
+    }
+
+    /**
+     * @param eventType the type of event notified
+     * @param documentReference the document the event is about
+     * @param revision the revision of the document
+     * @param webhookUrl where the notification is sent
+     * @return the 64-bit FNV-1a hash identifying the notification, never 0
+     */
+    static long getKey(SlackEventType eventType, DocumentReference documentReference, String revision,
+        String webhookUrl)
+    {
+        long hash = hash(FNV_OFFSET_BASIS, eventType.ordinal());
+        for (EntityReference reference = documentReference; reference != null; reference = reference.getParent()) {
+            hash = hash(hash, reference.getType().ordinal());
+            hash = hash(hash, reference.getName());
+        }
+        if (documentReference.getLocale() != null) {
+            hash = hash(hash, documentReference.getLocale().toString());
+        }
+        hash = hash(hash, revision);
+        hash = hash(hash, webhookUrl);
+        // 0 marks the free slots of the hash sets.
+        return hash != 0 ? hash : 1;
+    }
+
+    private static long hash(long hash, String value)
+    {
+        long result = hash;
+        if (value != null) {
+            for (int i = 0; i < value.length(); i++) {
+                result = hash(result, value.charAt(i));
+            }
+        }
+        // Separate the values so that ("ab", "c") and ("a", "bc") differ.
+        return hash(result, -1);
+    }
+
+    private static long hash(long hash, int value)
+    {
+        return (hash ^ value) * FNV_PRIME;
+    }
+}
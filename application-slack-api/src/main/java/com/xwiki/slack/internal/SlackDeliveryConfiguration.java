@@ -0,0 +1,391 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.configuration.ConfigurationSource;
+
+import com.xwiki.slack.SlackClient;
+import com.xwiki.slack.internal.SlackDeliveryQueue.OverflowPolicy;
+
+/**
+ * Instance wide settings of the Slack delivery pipeline, read from {@code xwiki.properties}.
+ *
+ * @version $Id$
+ */
+@Component(roles = SlackDeliveryConfiguration.class)
+@Singleton
+public class SlackDeliveryConfiguration
+{
+    private static final String PREFIX = "slack.delivery.";
+
+    private static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    private static final int DEFAULT_WORKER_COUNT = 2;
+
+    private static final long DEFAULT_BLOCK_TIMEOUT = 5000L;
+
+    private static final double DEFAULT_RATE_LIMIT = 1.0;
+
+    private static final int DEFAULT_RATE_LIMIT_BURST = 3;
+
+    private static final int DEFAULT_MAX_RETRIES = 5;
+
+    private static final long DEFAULT_RETRY_DELAY = 1000L;
+
+    private static final long DEFAULT_MAX_RETRY_DELAY = 60000L;
+
+    private static final int DEFAULT_BATCH_SIZE = 10;
+
+    private static final long DEFAULT_BATCH_LATENCY = 0L;
+
+    private static final long DEFAULT_DEDUPLICATION_WINDOW = 60000L;
+
+    private static final int DEFAULT_DEDUPLICATION_CAPACITY = 10000;
+
+    private static final int DEFAULT_CIRCUIT_BREAKER_THRESHOLD = 5;
+
+    private static final long DEFAULT_CIRCUIT_BREAKER_PROBE_INTERVAL = 60000L;
+
+    private static final String LANES_PREFIX = PREFIX + "lanes.";
+
+    private static final String OUTBOX_PREFIX = "slack.outbox.";
+
+    private static final int DEFAULT_OUTBOX_MAX_SIZE = 10000;
+
+    private static final long DEFAULT_OUTBOX_REPLAY_INTERVAL = 30000L;
+
+    private static final String HTTP_PREFIX = "slack.http.";
+
+    private static final int DEFAULT_MAX_CONNECTIONS = 20;
+
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 5;
+
+    private static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+
+    private static final int DEFAULT_SOCKET_TIMEOUT = 10000;
+
+    private static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = 5000;
+
+    private static final long DEFAULT_KEEP_ALIVE = 60000L;
+
+    @Inject
+    @Named("xwikiproperties")
+    private ConfigurationSource configuration;
+
+    /**
+     * @return the maximum number of messages waiting to be delivered
+     */
+    public int getQueueCapacity()
+    {
+        return Math.max(1, this.configuration.getProperty(PREFIX + "queueCapacity", DEFAULT_QUEUE_CAPACITY));
+    }
+
+    /**
+     * @return the number of threads delivering the queued messages
+     */
+    public int getWorkerCount()
+    {
+        return Math.max(1, this.configuration.getProperty(PREFIX + "workers", DEFAULT_WORKER_COUNT));
+    }
+
+    /**
+     * @param lane a delivery lane
+     * @return the maximum number of messages of the given lane waiting to be delivered
+     */
+    public int getQueueCapacity(SlackLane lane)
+    {
+        if (lane == SlackLane.INTERACTIVE) {
+            return getQueueCapacity();
+        }
+        return Math.max(1, this.configuration.getProperty(getLanePrefix(lane) + "queueCapacity", getQueueCapacity()));
+    }
+
+    /**
+     * @param lane a delivery lane
+     * @return the number of threads delivering the queued messages of the given lane
+     */
+    public int getWorkerCount(SlackLane lane)
+    {
+        if (lane == SlackLane.INTERACTIVE) {
+            return getWorkerCount();
+        }
+        return Math.max(1, this.configuration.getProperty(getLanePrefix(lane) + "workers", 1));
+    }
+
+    /**
+     * @param lane a delivery lane
+     * @return the maximum number of messages of the given lane posted per second to the same webhook
+     */
+    public double getRateLimit(SlackLane lane)
+    {
+        double defaultRateLimit = getRateLimit() * lane.getDefaultRateShare();
+        if (lane == SlackLane.INTERACTIVE) {
+            return defaultRateLimit;
+        }
+        double rateLimit = this.configuration.getProperty(getLanePrefix(lane) + "rateLimit", defaultRateLimit);
+        return rateLimit > 0 ? rateLimit : defaultRateLimit;
+    }
+
+    /**
+     * @return the patterns matching the users whose changes are delivered in the {@link SlackLane#BULK bulk} lane,
+     *         e.g. the user running the imports
+     */
+    public List<String> getBulkAuthors()
+    {
+        List<String> authors = new ArrayList<>();
+        String value = this.configuration.getProperty(LANES_PREFIX + "bulk.authors", "");
+        for (String author : StringUtils.split(value, ',')) {
+            if (StringUtils.isNotBlank(author)) {
+                authors.add(author.trim());
+            }
+        }
+        return authors;
+    }
+
+    /**
+     * @return what to do with a new message when the delivery queue is full
+     */
+    public OverflowPolicy getOverflowPolicy()
+    {
+        return this.configuration.getProperty(PREFIX + "overflowPolicy", OverflowPolicy.DROP);
+    }
+
+    /**
+     * @return the maximum number of milliseconds to wait for room in the queue when the overflow policy is
+     *         {@link OverflowPolicy#BLOCK}
+     */
+    public long getBlockTimeout()
+    {
+        return this.configuration.getProperty(PREFIX + "blockTimeout", DEFAULT_BLOCK_TIMEOUT);
+    }
+
+    /**
+     * @return the maximum number of messages posted per second to the same webhook
+     */
+    public double getRateLimit()
+    {
+        double rateLimit = this.configuration.getProperty(PREFIX + "rateLimit", DEFAULT_RATE_LIMIT);
+        return rateLimit > 0 ? rateLimit : DEFAULT_RATE_LIMIT;
+    }
+
+    /**
+     * @return the number of messages that can be posted at once to the same webhook, before the rate limit applies
+     */
+    public int getRateLimitBurst()
+    {
+        return this.configuration.getProperty(PREFIX + "rateLimitBurst", DEFAULT_RATE_LIMIT_BURST);
+    }
+
+    /**
+     * @return the maximum number of times a message is posted again after Slack failed to accept it
+     */
+    public int getMaxRetries()
+    {
+        return this.configuration.getProperty(PREFIX + "maxRetries", DEFAULT_MAX_RETRIES);
+    }
+
+    /**
+     * @return the number of milliseconds to wait before the first retry; the delay doubles with each retry
+     */
+    public long getRetryDelay()
+    {
+        return this.configuration.getProperty(PREFIX + "retryDelay", DEFAULT_RETRY_DELAY);
+    }
+
+    /**
+     * @return the maximum number of milliseconds to wait between two retries
+     */
+    public long getMaxRetryDelay()
+    {
+        return this.configuration.getProperty(PREFIX + "maxRetryDelay", DEFAULT_MAX_RETRY_DELAY);
+    }
+
+    /**
+     * @return the maximum number of messages for the same webhook posted with a single request, between 1 (no
+     *         batching) and {@link SlackClient#MAX_BLOCKS}
+     */
+    public int getBatchSize()
+    {
+        int batchSize = this.configuration.getProperty(PREFIX + "batchSize", DEFAULT_BATCH_SIZE);
+        return Math.max(1, Math.min(SlackClient.MAX_BLOCKS, batchSize));
+    }
+
+    /**
+     * @return the maximum number of milliseconds a message waits for other messages to be posted with; 0 to only
+     *         batch the messages that are already queued
+     */
+    public long getBatchLatency()
+    {
+        return Math.max(0, this.configuration.getProperty(PREFIX + "batchLatency", DEFAULT_BATCH_LATENCY));
+    }
+
+    /**
+     * @return the number of milliseconds during which the same notification (same event, document version and
+     *         channel) is not sent again; 0 to disable the deduplication
+     */
+    public long getDeduplicationWindow()
+    {
+        return Math.max(0, this.configuration.getProperty(PREFIX + "deduplicationWindow",
+            DEFAULT_DEDUPLICATION_WINDOW));
+    }
+
+    /**
+     * @return the maximum number of notifications remembered for the deduplication during a window
+     */
+    public int getDeduplicationCapacity()
+    {
+        return Math.max(1, this.configuration.getProperty(PREFIX + "deduplicationCapacity",
+            DEFAULT_DEDUPLICATION_CAPACITY));
+    }
+
+    /**
+     * @return the number of consecutive failed requests after which no more messages are posted to a webhook until
+     *         the next probe; 0 to always post
+     */
+    public int getCircuitBreakerThreshold()
+    {
+        return Math.max(0, this.configuration.getProperty(PREFIX + "circuitBreakerThreshold",
+            DEFAULT_CIRCUIT_BREAKER_THRESHOLD));
+    }
+
+    /**
+     * @return the number of milliseconds after which a webhook that kept failing is checked again
+     */
+    public long getCircuitBreakerProbeInterval()
+    {
+        return Math.max(1L, this.configuration.getProperty(PREFIX + "circuitBreakerProbeInterval",
+            DEFAULT_CIRCUIT_BREAKER_PROBE_INTERVAL));
+    }
+
+    /**
+     * @return {@code true} if the requests to Slack are sent from virtual threads when the JVM supports them (Java 21
+     *         and later)
+     */
+    public boolean isVirtualThreadsEnabled()
+    {
+        return this.configuration.getProperty(PREFIX + "virtualThreads", Boolean.TRUE);
+    }
+
+    /**
+     * @return the maximum number of requests sent to Slack at the same time, by default the maximum number of
+     *         connections kept open to Slack
+     */
+    public int getMaxConcurrentSends()
+    {
+        return Math.max(1, this.configuration.getProperty(PREFIX + "maxConcurrentSends", getMaxConnections()));
+    }
+
+    /**
+     * @return {@code true} if the messages that could not be delivered are stored on the disk to be posted again later
+     */
+    public boolean isOutboxEnabled()
+    {
+        return this.configuration.getProperty(OUTBOX_PREFIX + "enabled", Boolean.TRUE);
+    }
+
+    /**
+     * @return the maximum number of messages stored in the outbox
+     */
+    public int getOutboxMaxSize()
+    {
+        return this.configuration.getProperty(OUTBOX_PREFIX + "maxSize", DEFAULT_OUTBOX_MAX_SIZE);
+    }
+
+    /**
+     * @return the number of milliseconds between two attempts to post the messages stored in the outbox
+     */
+    public long getOutboxReplayInterval()
+    {
+        return Math.max(1L, this.configuration.getProperty(OUTBOX_PREFIX + "replayInterval",
+            DEFAULT_OUTBOX_REPLAY_INTERVAL));
+    }
+
+    /**
+     * @return the maximum number of connections kept open to Slack
+     */
+    public int getMaxConnections()
+    {
+        return Math.max(1, this.configuration.getProperty(HTTP_PREFIX + "maxConnections", DEFAULT_MAX_CONNECTIONS));
+    }
+
+    /**
+     * @return the maximum number of connections kept open to the same host
+     */
+    public int getMaxConnectionsPerRoute()
+    {
+        return Math.max(1,
+            this.configuration.getProperty(HTTP_PREFIX + "maxConnectionsPerRoute", DEFAULT_MAX_CONNECTIONS_PER_ROUTE));
+    }
+
+    /**
+     * @return the number of milliseconds to wait for a connection to Slack to be established
+     */
+    public int getConnectTimeout()
+    {
+        return this.configuration.getProperty(HTTP_PREFIX + "connectTimeout", DEFAULT_CONNECT_TIMEOUT);
+    }
+
+    /**
+     * @return the number of milliseconds to wait for data from Slack once connected
+     */
+    public int getSocketTimeout()
+    {
+        return this.configuration.getProperty(HTTP_PREFIX + "socketTimeout", DEFAULT_SOCKET_TIMEOUT);
+    }
+
+    /**
+     * @return the number of milliseconds to wait for a free connection in the pool
+     */
+    public int getConnectionRequestTimeout()
+    {
+        return this.configuration.getProperty(HTTP_PREFIX + "connectionRequestTimeout",
+            DEFAULT_CONNECTION_REQUEST_TIMEOUT);
+    }
+
+    /**
+     * @return the maximum number of milliseconds an idle connection is kept open, when Slack doesn't say otherwise
+     */
+    public long getKeepAlive()
+    {
+        return this.configuration.getProperty(HTTP_PREFIX + "keepAlive", DEFAULT_KEEP_ALIVE);
+    }
+
+    /**
+     * @return {@code true} if the large payloads should be compressed with gzip, for the webhooks that accept it
+     */
+    public boolean isRequestCompressionEnabled()
+    {
+        return this.configuration.getProperty(HTTP_PREFIX + "compressRequests", Boolean.FALSE);
+    }
+
+    private String getLanePrefix(SlackLane lane)
+    {
+        return LANES_PREFIX + lane.getId() + '.';
+    }
+}
@@ -0,0 +1,585 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.DisposePriority;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+import com.xwiki.slack.SlackClient;
+import com.xwiki.slack.SlackDeliveryStatus;
+import com.xwiki.slack.SlackSendExecutor;
+
+/**
+ * Bounded in-memory queue of messages waiting to be posted to Slack. The messages are delivered by dedicated worker
+ * threads so that saving a document never waits for Slack. The workers respect the rate limit of each webhook and
+ * post again, with an exponential backoff, the messages that Slack failed to accept. The messages that still can't be
+ * delivered are stored in the {@link SlackOutbox}. Messages queued for the same webhook are posted together, as a
+ * single Block Kit message, to save requests (and rate limit). The requests themselves run on the
+ * {@link SlackSendExecutor}, so that a worker can collect the next messages while Slack answers. Each
+ * {@link SlackLane delivery lane} has its own queue and workers, so that a burst of bulk messages doesn't hold up the
+ * interactive ones.
+ *
+ * @version $Id$
+ */
+@Component(roles = SlackDeliveryQueue.class)
+@Singleton
+// Disposed before the send executor and the outbox, which receive the messages that were not delivered.
+@DisposePriority(SlackDeliveryQueue.DISPOSE_PRIORITY)
+public class SlackDeliveryQueue implements Initializable, Disposable
+{
+    /**
+     * What to do with a new message when the delivery queue is full.
+     */
+    public enum OverflowPolicy
+    {
+        /**
+         * Discard the new message.
+         */
+        DROP,
+
+        /**
+         * Wait (a limited amount of time) for room in the queue, then discard the new message.
+         */
+        BLOCK,
+
+        /**
+         * Store the new message in the {@link SlackOutbox}, from where it is posted later.
+         */
+        SPILL
+    }
+
+    /**
+     * Lower than the default priority ({@code 1000}), which the send executor and the HTTP client have.
+     */
+    static final int DISPOSE_PRIORITY = 800;
+
+    private static final long POLL_TIMEOUT = 500L;
+
+    private static final long SHUTDOWN_TIMEOUT = 10L;
+
+    private static final int MAX_BACKOFF_SHIFT = 20;
+
+    /**
+     * The maximum total length of the messages posted with a single request.
+     */
+    private static final int MAX_BATCH_LENGTH = 40000;
+
+    /**
+     * The event type used in the metrics of the requests posting several messages.
+     */
+    private static final String BATCH = "batch";
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private SlackClient slack;
+
+    @Inject
+    private SlackSendExecutor sendExecutor;
+
+    @Inject
+    private SlackDeliveryConfiguration configuration;
+
+    @Inject
+    private SlackRateLimiter rateLimiter;
+
+    @Inject
+    private SlackCircuitBreaker circuitBreaker;
+
+    @Inject
+    private SlackOutbox outbox;
+
+    @Inject
+    private SlackMetrics metrics;
+
+    private final Map<SlackLane, BlockingQueue<SlackMessage>> queues = new EnumMap<>(SlackLane.class);
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * The deliveries waiting for a retry or for the rate limit, stored in the outbox if they are still waiting at
+     * shutdown.
+     */
+    private final Set<DelayedDelivery> delayed = ConcurrentHashMap.newKeySet();
+
+    private OverflowPolicy overflowPolicy;
+
+    private long blockTimeout;
+
+    private int batchSize;
+
+    private long batchLatency;
+
+    private ExecutorService workers;
+
+    private ScheduledExecutorService retryScheduler;
+
+    private volatile boolean running;
+
+    /**
+     * Messages waiting for a retry or for the rate limit. The delivery is done either by the retry scheduler, when the
+     * delay elapses, or by {@link SlackDeliveryQueue#dispose()}, whichever takes it first from the delayed deliveries.
+     */
+    private final class DelayedDelivery implements Runnable
+    {
+        private final List<SlackMessage> messages;
+
+        private final Runnable task;
+
+        DelayedDelivery(List<SlackMessage> messages, Runnable task)
+        {
+            this.messages = messages;
+            this.task = task;
+        }
+
+        @Override
+        public void run()
+        {
+            if (delayed.remove(this)) {
+                if (running) {
+                    this.task.run();
+                } else {
+                    store(this.messages);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        int workerCount = 0;
+        for (SlackLane lane : SlackLane.values()) {
+            this.queues.put(lane, new ArrayBlockingQueue<>(this.configuration.getQueueCapacity(lane)));
+            workerCount += this.configuration.getWorkerCount(lane);
+        }
+        this.overflowPolicy = this.configuration.getOverflowPolicy();
+        this.blockTimeout = this.configuration.getBlockTimeout();
+        this.batchSize = this.configuration.getBatchSize();
+        this.batchLatency = this.configuration.getBatchLatency();
+
+        this.workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory()
+        {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "Slack delivery worker " + this.counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Slack delivery retry scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.running = true;
+        for (SlackLane lane : SlackLane.values()) {
+            BlockingQueue<SlackMessage> queue = this.queues.get(lane);
+            for (int i = 0; i < this.configuration.getWorkerCount(lane); i++) {
+                this.workers.execute(() -> work(queue));
+            }
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.running = false;
+        // The scheduled tasks returned by shutdownNow() are cancelled and would do nothing if run: the delayed messages
+        // are taken from the delayed deliveries below instead.
+        this.retryScheduler.shutdownNow();
+        this.workers.shutdown();
+        try {
+            this.workers.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+            this.retryScheduler.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Keep the messages that were not delivered for the next start, including the delayed ones (waiting for a
+        // retry or for the rate limit).
+        List<SlackMessage> remaining = new ArrayList<>();
+        for (DelayedDelivery delivery : this.delayed) {
+            if (this.delayed.remove(delivery)) {
+                remaining.addAll(delivery.messages);
+            }
+        }
+        for (BlockingQueue<SlackMessage> queue : this.queues.values()) {
+            queue.drainTo(remaining);
+        }
+        int lost = 0;
+        for (SlackMessage message : remaining) {
+            if (!this.outbox.store(message)) {
+                lost++;
+            }
+        }
+        if (lost > 0) {
+            this.logger.warn("[{}] Slack messages were not delivered before shutdown.", lost);
+        }
+    }
+
+    /**
+     * Queue a message for delivery. This method doesn't wait for the message to be posted.
+     *
+     * @param message the message to deliver
+     * @return {@code true} if the message was accepted, {@code false} if it was dropped because the queue is full
+     */
+    public boolean enqueue(SlackMessage message)
+    {
+        BlockingQueue<SlackMessage> queue = this.queues.get(message.getLane());
+        if (queue.offer(message)) {
+            return true;
+        }
+
+        if (this.overflowPolicy == OverflowPolicy.SPILL) {
+            if (this.outbox.store(message)) {
+                return true;
+            }
+        } else if (this.overflowPolicy == OverflowPolicy.BLOCK) {
+            try {
+                if (queue.offer(message, this.blockTimeout, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        this.droppedCount.incrementAndGet();
+        this.logger.warn("The Slack delivery queue is full. Dropping message [{}].", message.getText());
+        return false;
+    }
+
+    /**
+     * @return the number of messages waiting in the queue to be delivered
+     */
+    public int getQueueSize()
+    {
+        int size = 0;
+        for (BlockingQueue<SlackMessage> queue : this.queues.values()) {
+            size += queue.size();
+        }
+        return size;
+    }
+
+    /**
+     * @param lane a delivery lane
+     * @return the number of messages of the given lane waiting in the queue to be delivered
+     */
+    public int getQueueSize(SlackLane lane)
+    {
+        return this.queues.get(lane).size();
+    }
+
+    /**
+     * @return the number of messages that can still be queued before the overflow policy applies
+     */
+    public int getRemainingCapacity()
+    {
+        int capacity = 0;
+        for (BlockingQueue<SlackMessage> queue : this.queues.values()) {
+            capacity += queue.remainingCapacity();
+        }
+        return capacity;
+    }
+
+    /**
+     * @return the number of messages dropped because the queue was full
+     */
+    public long getDroppedCount()
+    {
+        return this.droppedCount.get();
+    }
+
+    private void work(BlockingQueue<SlackMessage> queue)
+    {
+        List<SlackMessage> batch = new ArrayList<>();
+        while (this.running) {
+            try {
+                SlackMessage message = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (message != null) {
+                    batch.add(message);
+                    collect(queue, batch);
+                    deliver(batch);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Take from the queue the messages to deliver along with the first one: the messages already queued and, if a
+     * batch latency is configured, the ones queued during that time, until the batch is full.
+     */
+    private void collect(BlockingQueue<SlackMessage> queue, List<SlackMessage> batch) throws InterruptedException
+    {
+        queue.drainTo(batch, this.batchSize - batch.size());
+        if (this.batchLatency > 0) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.batchLatency);
+            while (batch.size() < this.batchSize) {
+                long remaining = deadline - System.nanoTime();
+                SlackMessage message = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                if (message == null) {
+                    break;
+                }
+                batch.add(message);
+                queue.drainTo(batch, this.batchSize - batch.size());
+            }
+        }
+    }
+
+    /**
+     * Deliver the collected messages, packing the messages for the same webhook in as few requests as the Slack limits
+     * allow.
+     */
+    private void deliver(List<SlackMessage> batch)
+    {
+        if (batch.size() == 1) {
+            // The batch list is reused by the worker while the request runs on another thread.
+            SlackMessage message = batch.get(0);
+            deliver(message.getWebhookUrl(), Collections.singletonList(message), false);
+            return;
+        }
+
+        Map<String, List<SlackMessage>> messagesByWebhook = new LinkedHashMap<>();
+        for (SlackMessage message : batch) {
+            messagesByWebhook.computeIfAbsent(message.getWebhookUrl(), url -> new ArrayList<>()).add(message);
+        }
+        for (Map.Entry<String, List<SlackMessage>> entry : messagesByWebhook.entrySet()) {
+            List<SlackMessage> request = new ArrayList<>();
+            int length = 0;
+            for (SlackMessage message : entry.getValue()) {
+                int messageLength = SlackMessageBuilder.getBlockTextLength(message.getText());
+                if (messageLength > SlackClient.MAX_BLOCK_TEXT_LENGTH) {
+                    // Too long for a block, post it on its own.
+                    deliver(entry.getKey(), Collections.singletonList(message), false);
+                    continue;
+                }
+                if (!request.isEmpty() && length + messageLength > MAX_BATCH_LENGTH) {
+                    deliver(entry.getKey(), request, false);
+                    request = new ArrayList<>();
+                    length = 0;
+                }
+                request.add(message);
+                length += messageLength;
+            }
+            if (!request.isEmpty()) {
+                deliver(entry.getKey(), request, false);
+            }
+        }
+    }
+
+    /**
+     * Post the given messages with a single request, once the rate limit of the webhook allows it.
+     *
+     * @param reserved {@code true} if the messages come back after waiting for the slot they reserved
+     */
+    private void deliver(String webhookUrl, List<SlackMessage> messages, boolean reserved)
+    {
+        if (!this.circuitBreaker.allowRequest(webhookUrl)) {
+            // The webhook keeps failing: keep the messages in the outbox until it works again.
+            for (SlackMessage message : messages) {
+                this.metrics.increment(SlackMetrics.CIRCUIT_OPEN, message.getEventType(), webhookUrl);
+                if (!this.outbox.store(message)) {
+                    this.logger.debug("Dropping message [{}] for the failing Slack webhook [{}].", message.getText(),
+                        webhookUrl);
+                }
+            }
+            return;
+        }
+
+        // The rate limit applies to requests: a batch counts as one. The messages of a batch share the same lane.
+        SlackLane lane = messages.get(0).getLane();
+        long delay = reserved ? this.rateLimiter.acquire(webhookUrl, lane) : this.rateLimiter.reserve(webhookUrl, lane);
+        if (delay > 0) {
+            // Come back when the rate limit of the webhook allows it, without holding the worker. The batch comes
+            // back as a whole since it holds a single reservation.
+            schedule(messages, delay, () -> deliver(webhookUrl, messages, true));
+            return;
+        }
+
+        try {
+            this.sendExecutor.execute(() -> send(webhookUrl, messages));
+        } catch (RejectedExecutionException e) {
+            // The executor is shutting down.
+            send(webhookUrl, messages);
+        }
+    }
+
+    private void send(String webhookUrl, List<SlackMessage> messages)
+    {
+        SlackDeliveryStatus status;
+        String eventType = BATCH;
+        long start = System.nanoTime();
+        try {
+            if (messages.size() > 1) {
+                List<String> texts = new ArrayList<>(messages.size());
+                for (SlackMessage message : messages) {
+                    texts.add(message.getText());
+                }
+                status = this.slack.postMessages(texts, webhookUrl);
+            } else {
+                SlackMessage message = messages.get(0);
+                eventType = message.getEventType();
+                status = this.slack.postMessage(message.getText(), webhookUrl);
+            }
+            this.metrics.record(SlackMetrics.HTTP, eventType, webhookUrl, start);
+        } catch (IOException e) {
+            this.circuitBreaker.recordFailure(webhookUrl, e.toString());
+            for (SlackMessage message : messages) {
+                this.metrics.increment(SlackMetrics.FAILED, message.getEventType(), webhookUrl);
+                retry(message, 0, e.getMessage());
+            }
+            return;
+        } catch (RuntimeException e) {
+            // Make sure the sending thread survives unexpected failures, without losing the messages.
+            this.logger.error("Unexpected failure while posting message to Slack.", e);
+            for (SlackMessage message : messages) {
+                retry(message, 0, e);
+            }
+            return;
+        }
+
+        if (status.isSuccess()) {
+            this.circuitBreaker.recordSuccess(webhookUrl);
+        } else if (!status.isRateLimited()) {
+            this.circuitBreaker.recordFailure(webhookUrl, status.toString());
+        }
+        if (status.getRetryAfter() > 0) {
+            this.rateLimiter.pause(webhookUrl, status.getRetryAfter());
+        }
+        for (SlackMessage message : messages) {
+            this.metrics.increment(status.isSuccess() ? SlackMetrics.SENT : SlackMetrics.FAILED,
+                message.getEventType(), webhookUrl);
+            if (status.isRetryable()) {
+                retry(message, status.getRetryAfter(), status);
+            } else if (!status.isSuccess()) {
+                this.logger.warn("Slack rejected the message [{}] with status [{}].", message.getText(), status);
+            }
+        }
+    }
+
+    private void retry(SlackMessage message, long minDelay, Object failure)
+    {
+        int attempts = message.incrementAttempts();
+        if (attempts > this.configuration.getMaxRetries()) {
+            if (this.outbox.store(message)) {
+                this.logger.info("Failed to post message to Slack after [{}] attempts ([{}]). "
+                    + "The message was stored in the outbox to be posted later.", attempts, failure);
+            } else {
+                this.logger.warn("Failed to post message [{}] to Slack after [{}] attempts. Last failure: [{}].",
+                    message.getText(), attempts, failure);
+            }
+        } else {
+            this.logger.debug("Failed to post message to Slack ([{}]). Retrying, attempt [{}].", failure, attempts);
+            schedule(message, Math.max(minDelay, getBackoff(attempts)));
+        }
+    }
+
+    /**
+     * Exponential backoff with jitter: a random delay between half and the whole of the exponential delay, so that the
+     * retries of messages that failed together are spread in time.
+     */
+    private long getBackoff(int attempts)
+    {
+        long delay = Math.min(this.configuration.getMaxRetryDelay(),
+            this.configuration.getRetryDelay() << Math.min(attempts - 1, MAX_BACKOFF_SHIFT));
+        long half = delay / 2;
+        return half + ThreadLocalRandom.current().nextLong(half + 1);
+    }
+
+    private void schedule(SlackMessage message, long delay)
+    {
+        schedule(Collections.singletonList(message), delay, () -> requeue(message));
+    }
+
+    private void schedule(List<SlackMessage> messages, long delay, Runnable task)
+    {
+        if (this.running) {
+            DelayedDelivery delivery = new DelayedDelivery(messages, task);
+            this.delayed.add(delivery);
+            try {
+                this.retryScheduler.schedule(delivery, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Stopped in the meantime: the delivery is stored with the other delayed ones, unless already done.
+                delivery.run();
+            }
+        } else {
+            // A request that was still running at shutdown failed.
+            store(messages);
+        }
+    }
+
+    private void store(List<SlackMessage> messages)
+    {
+        for (SlackMessage message : messages) {
+            if (!this.outbox.store(message)) {
+                this.logger.warn("Failed to post message [{}] to Slack before shutdown.", message.getText());
+            }
+        }
+    }
+
+    /**
+     * Put back in the queue a message that was already accepted, without applying the overflow policy.
+     */
+    private void requeue(SlackMessage message)
+    {
+        if (!this.queues.get(message.getLane()).offer(message)) {
+            // The queue is full: post the message on its own.
+            deliver(message.getWebhookUrl(), Collections.singletonList(message), false);
+        }
+    }
+}
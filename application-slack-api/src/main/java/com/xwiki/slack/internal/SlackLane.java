@@ -0,0 +1,80 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+/**
+ * The delivery lanes of the Slack messages. Each lane has its own queue, workers and rate budget, so that the bursts of
+ * events produced by imports, extension installs or scheduler jobs don't delay the notifications about the edits made
+ * by people.
+ *
+ * @version $Id$
+ */
+public enum SlackLane
+{
+    /**
+     * The changes made by users, e.g. by saving a page from the editor. They get the whole rate of the webhooks.
+     */
+    INTERACTIVE("interactive", 1.0),
+
+    /**
+     * The changes made by jobs, e.g. extension installs or imports, or by the configured bulk authors.
+     */
+    BULK("bulk", 0.5),
+
+    /**
+     * The changes of the hidden (technical) documents.
+     */
+    SYSTEM("system", 0.2);
+
+    private final String id;
+
+    private final double defaultRateShare;
+
+    SlackLane(String id, double defaultRateShare)
+    {
+        this.id = id;
+        this.defaultRateShare = defaultRateShare;
+    }
+
+    /**
+     * @return the identifier of the lane, used in the configuration properties
+     */
+    public String getId()
+    {
+        return this.id;
+    }
+
+    /**
+     * @return the part of the webhook rate limit the lane can use by default
+     */
+    public double getDefaultRateShare()
+    {
+        return this.defaultRateShare;
+    }
+
+    /**
+     * @param other another lane
+     * @return the lane of this one and the other one whose messages are delivered first
+     */
+    public SlackLane max(SlackLane other)
+    {
+        return other != null && other.ordinal() < ordinal() ? other : this;
+    }
+}
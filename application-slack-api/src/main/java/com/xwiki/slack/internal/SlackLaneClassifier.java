@@ -0,0 +1,79 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.job.JobContext;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Chooses the {@link SlackLane delivery lane} of the notifications about a document change:
+ * <ul>
+ * <li>the changes of hidden (technical) documents go to the {@link SlackLane#SYSTEM system} lane;</li>
+ * <li>the changes made by a job (extension install, import, refactoring...) or by one of the configured bulk authors
+ * go to the {@link SlackLane#BULK bulk} lane;</li>
+ * <li>the other changes, made by people, go to the {@link SlackLane#INTERACTIVE interactive} lane.</li>
+ * </ul>
+ * It runs on the thread saving the document, so it only looks at what is already at hand.
+ *
+ * @version $Id$
+ */
+@Component(roles = SlackLaneClassifier.class)
+@Singleton
+public class SlackLaneClassifier implements Initializable
+{
+    @Inject
+    private JobContext jobContext;
+
+    @Inject
+    private SlackDeliveryConfiguration configuration;
+
+    private ReferencePatternMatcher bulkAuthors;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.bulkAuthors = new ReferencePatternMatcher(this.configuration.getBulkAuthors());
+    }
+
+    /**
+     * @param document the document that changed
+     * @param author the author of the change, {@code null} for the guest user
+     * @return the delivery lane of the notifications about the change
+     */
+    public SlackLane getLane(XWikiDocument document, DocumentReference author)
+    {
+        if (Boolean.TRUE.equals(document.isHidden())) {
+            return SlackLane.SYSTEM;
+        }
+        if (this.jobContext.getCurrentJob() != null
+            || (author != null && !this.bulkAuthors.isEmpty() && this.bulkAuthors.matches(author))) {
+            return SlackLane.BULK;
+        }
+        return SlackLane.INTERACTIVE;
+    }
+}
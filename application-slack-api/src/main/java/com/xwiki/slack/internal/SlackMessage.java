@@ -0,0 +1,129 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+/**
+ * A message waiting to be delivered to a Slack channel.
+ *
+ * @version $Id$
+ */
+public class SlackMessage
+{
+    private final String text;
+
+    private final String webhookUrl;
+
+    private final String eventType;
+
+    private final SlackLane lane;
+
+    private int attempts;
+
+    /**
+     * Creates a new message.
+     *
+     * @param text the (already encoded) text of the message
+     * @param webhookUrl the Webhook URL of the Slack channel where the message is posted
+     */
+    public SlackMessage(String text, String webhookUrl)
+    {
+        this(text, webhookUrl, null);
+    }
+
+    /**
+     * Creates a new message.
+     *
+     * @param text the (already encoded) text of the message
+     * @param webhookUrl the Webhook URL of the Slack channel where the message is posted
+     * @param eventType the kind of event the message is about (e.g. "created"), used to tag the metrics; {@code null}
+     *            if unknown
+     */
+    public SlackMessage(String text, String webhookUrl, String eventType)
+    {
+        this(text, webhookUrl, eventType, SlackLane.INTERACTIVE);
+    }
+
+    /**
+     * Creates a new message.
+     *
+     * @param text the (already encoded) text of the message
+     * @param webhookUrl the Webhook URL of the Slack channel where the message is posted
+     * @param eventType the kind of event the message is about (e.g. "created"), used to tag the metrics; {@code null}
+     *            if unknown
+     * @param lane the delivery lane of the message, {@code null} for {@link SlackLane#INTERACTIVE}
+     */
+    public SlackMessage(String text, String webhookUrl, String eventType, SlackLane lane)
+    {
+        this.text = text;
+        this.webhookUrl = webhookUrl;
+        this.eventType = eventType;
+        this.lane = lane != null ? lane : SlackLane.INTERACTIVE;
+    }
+
+    /**
+     * @return the (already encoded) text of the message
+     */
+    public String getText()
+    {
+        return this.text;
+    }
+
+    /**
+     * @return the Webhook URL of the Slack channel where the message is posted
+     */
+    public String getWebhookUrl()
+    {
+        return this.webhookUrl;
+    }
+
+    /**
+     * @return the kind of event the message is about (e.g. "created"), {@code null} if unknown
+     */
+    public String getEventType()
+    {
+        return this.eventType;
+    }
+
+    /**
+     * @return the delivery lane of the message
+     */
+    public SlackLane getLane()
+    {
+        return this.lane;
+    }
+
+    /**
+     * @return the number of times posting this message failed
+     */
+    public int getAttempts()
+    {
+        return this.attempts;
+    }
+
+    /**
+     * Records a failed attempt to post this message.
+     *
+     * @return the number of times posting this message failed
+     */
+    public int incrementAttempts()
+    {
+        return ++this.attempts;
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.DisposePriority;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+/**
+ * Holds the notifications for a Slack channel during a time window, merging the repeated notifications about the same
+ * document and rolling large bursts into a single digest message. A window keeps at most
+ * {@link #MAX_WINDOW_NOTIFICATIONS} notifications: once it is sure to end as a digest, or once it is full, the
+ * following ones are only counted, without retaining the documents they are about. Only the notifications displayed
+ * by the digest are rendered.
+ *
+ * @version $Id$
+ */
+@Component(roles = SlackMessageAggregator.class)
+@Singleton
+// Disposed before the delivery queue, which receives the notifications still waiting in the windows.
+@DisposePriority(SlackMessageAggregator.DISPOSE_PRIORITY)
+public class SlackMessageAggregator implements Initializable, Disposable
+{
+    /**
+     * Lower than the priority of the delivery queue.
+     */
+    static final int DISPOSE_PRIORITY = 700;
+
+    private static final int DIGEST_MAX_LINES = 20;
+
+    /**
+     * Posting more messages than this in a row would keep the channel busy for minutes, see {@link SlackRateLimiter}:
+     * larger bursts are delivered as a digest even when the channel doesn't use one.
+     */
+    private static final int MAX_WINDOW_NOTIFICATIONS = 100;
+
+    private static final String NEW_LINE = "\n";
+
+    /**
+     * The number of seconds to wait at shutdown for the notification being rendered.
+     */
+    private static final long SHUTDOWN_TIMEOUT = 10;
+
+    @Inject
+    private SlackDeliveryQueue deliveryQueue;
+
+    @Inject
+    private SlackNotificationRenderer renderer;
+
+    private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    /**
+     * The notifications to deliver right away, waiting to be rendered by the scheduler.
+     */
+    private final Queue<SlackNotification> pending = new ConcurrentLinkedQueue<>();
+
+    private ScheduledThreadPoolExecutor scheduler;
+
+    private volatile boolean disposed;
+
+    /**
+     * The notifications collected for a Slack channel during a time window.
+     */
+    private static final class Window
+    {
+        private final Map<String, SlackNotification> notifications = new LinkedHashMap<>();
+
+        private final int digestThreshold;
+
+        /**
+         * The number of notifications kept in {@link #notifications}, the next ones are only counted.
+         */
+        private final int capacity;
+
+        /**
+         * The number of notifications that were counted but not kept. A notification about a document that is not
+         * kept can't be merged, so a document changed several times can be counted more than once.
+         */
+        private int collapsed;
+
+        private SlackLane lane = SlackLane.SYSTEM;
+
+        private boolean closed;
+
+        Window(int digestThreshold)
+        {
+            this.digestThreshold = digestThreshold;
+            // Once the window holds more notifications than the threshold it ends as a digest, which displays only the
+            // first ones.
+            this.capacity = digestThreshold > 0
+                ? Math.min(Math.max(digestThreshold + 1, DIGEST_MAX_LINES), MAX_WINDOW_NOTIFICATIONS)
+                : MAX_WINDOW_NOTIFICATIONS;
+        }
+
+        void add(String key, SlackNotification notification)
+        {
+            this.lane = this.lane.max(notification.getLane());
+            SlackNotification previous = this.notifications.get(key);
+            if (previous != null) {
+                previous.merge(notification);
+            } else if (this.notifications.size() < this.capacity) {
+                this.notifications.put(key, notification);
+            } else {
+                this.collapsed++;
+            }
+        }
+
+        boolean isDigest()
+        {
+            return this.collapsed > 0 || (this.digestThreshold > 0 && this.notifications.size() > this.digestThreshold);
+        }
+    }
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "Slack message aggregator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // The windows are flushed by dispose() rather than when they end.
+        this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.disposed = true;
+        this.scheduler.shutdown();
+        try {
+            this.scheduler.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Deliver the notifications that are still waiting to be rendered, and the open windows.
+        deliverPending();
+        for (String webhookUrl : new ArrayList<>(this.windows.keySet())) {
+            flush(webhookUrl);
+        }
+    }
+
+    /**
+     * Add a notification to the current window of its Slack channel.
+     *
+     * @param notification the notification to deliver
+     * @param window how many seconds to wait for other notifications before delivering; 0 or less to deliver right
+     *            away
+     * @param digestThreshold the number of different notifications in a window above which they are delivered as a
+     *            single digest message; 0 or less to never use a digest
+     */
+    public void add(SlackNotification notification, long window, int digestThreshold)
+    {
+        if (this.disposed) {
+            // Late change during shutdown: deliver it on its own, from the calling thread.
+            deliver(notification);
+        } else if (window <= 0) {
+            if (notification.isRendered()) {
+                this.deliveryQueue.enqueue(notification.toMessage());
+            } else {
+                // Don't render the message on the thread saving the document.
+                this.pending.add(notification);
+                try {
+                    this.scheduler.execute(this::deliverPending);
+                } catch (RejectedExecutionException e) {
+                    // Disposed in the meantime.
+                    deliverPending();
+                }
+            }
+        } else {
+            addToWindow(notification, window, digestThreshold);
+        }
+    }
+
+    private void addToWindow(SlackNotification notification, long window, int digestThreshold)
+    {
+        String webhookUrl = notification.getWebhookUrl();
+        String key = notification.getAction() + ':' + notification.getDocumentReference();
+        while (true) {
+            Window current = this.windows.computeIfAbsent(webhookUrl, url -> {
+                try {
+                    this.scheduler.schedule(() -> flush(url), window, TimeUnit.SECONDS);
+                } catch (RejectedExecutionException e) {
+                    // Disposed in the meantime: the window is flushed below.
+                }
+                return new Window(digestThreshold);
+            });
+            synchronized (current) {
+                // The window may have been flushed between the lookup and the lock.
+                if (!current.closed) {
+                    current.add(key, notification);
+                    break;
+                }
+            }
+        }
+        if (this.disposed) {
+            flush(webhookUrl);
+        }
+    }
+
+    private void deliverPending()
+    {
+        SlackNotification notification = this.pending.poll();
+        while (notification != null) {
+            deliver(notification);
+            notification = this.pending.poll();
+        }
+    }
+
+    private void deliver(SlackNotification notification)
+    {
+        if (!notification.isRendered()) {
+            this.renderer.render(Collections.singletonList(notification));
+        }
+        this.deliveryQueue.enqueue(notification.toMessage());
+    }
+
+    private void flush(String webhookUrl)
+    {
+        Window window = this.windows.remove(webhookUrl);
+        if (window == null) {
+            return;
+        }
+
+        synchronized (window) {
+            window.closed = true;
+        }
+        Collection<SlackNotification> notifications = window.notifications.values();
+
+        if (window.isDigest()) {
+            // Render (and summarize the changes of) only the notifications that the digest displays.
+            List<SlackNotification> displayed = new ArrayList<>(DIGEST_MAX_LINES);
+            for (SlackNotification notification : notifications) {
+                if (displayed.size() == DIGEST_MAX_LINES) {
+                    break;
+                }
+                displayed.add(notification);
+            }
+            this.renderer.render(displayed);
+            String digest = getDigest(displayed, notifications.size() + window.collapsed);
+            this.deliveryQueue.enqueue(new SlackMessage(digest, webhookUrl, "digest", window.lane));
+        } else {
+            this.renderer.render(notifications);
+            for (SlackNotification notification : notifications) {
+                this.deliveryQueue.enqueue(notification.toMessage());
+            }
+        }
+    }
+
+    private String getDigest(List<SlackNotification> displayed, int count)
+    {
+        SlackMessageBuilder builder = new SlackMessageBuilder();
+        builder.append(count).append(" pages were changed:");
+        for (SlackNotification notification : displayed) {
+            notification.appendText(builder.append(NEW_LINE).append("• "));
+        }
+        if (count > displayed.size()) {
+            builder.append(NEW_LINE).append("and ").append(count - displayed.size()).append(" more.");
+        }
+        return builder.toString();
+    }
+}
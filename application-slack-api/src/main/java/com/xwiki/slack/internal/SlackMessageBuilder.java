@@ -0,0 +1,393 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.List;
+
+/**
+ * Builds the text of the Slack messages and their JSON payload. The special characters are escaped in a single pass
+ * while appending, so that building a message doesn't create more garbage than the resulting string. This matters
+ * when many documents are saved at once, e.g. during an import.
+ * <p>
+ * The buffers are not reused: the messages are built and posted on virtual threads, which would each keep their own
+ * copy of a per-thread buffer. Instead, the buffers of the static methods are sized from the text they receive.
+ *
+ * @version $Id$
+ */
+public final class SlackMessageBuilder
+{
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Room left for the characters added while escaping, so that a few of them don't make the buffer grow.
+     */
+    private static final int ESCAPING_MARGIN = 32;
+
+    /**
+     * Marks the place where a too long text was cut.
+     */
+    private static final String ELLIPSIS = "\u2026";
+
+    private static final String PAYLOAD_START = "{\"text\":\"";
+
+    private static final String PAYLOAD_END = "\",\"mrkdwn\":false}";
+
+    private static final String BLOCK_START = "{\"type\":\"section\",\"text\":{\"type\":\"mrkdwn\",\"text\":\"";
+
+    private static final String BLOCK_END = "\"}}";
+
+    /**
+     * The characters that Slack interprets as formatting in the {@code mrkdwn} texts of the blocks.
+     */
+    private static final String FORMATTING_CHARACTERS = "*_~`";
+
+    /**
+     * Surrounds the formatting characters of the block texts, so that Slack doesn't see them as the bounds of a
+     * formatted text.
+     */
+    private static final char ZERO_WIDTH_SPACE = '\u200B';
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final StringBuilder buffer = new StringBuilder(INITIAL_CAPACITY);
+
+    /**
+     * Creates a new, empty, builder.
+     */
+    public SlackMessageBuilder()
+    {
+        // Nothing to do.
+    }
+
+    /**
+     * Appends some text as is, i.e. without escaping it.
+     *
+     * @param text the text to append
+     * @return this builder
+     */
+    public SlackMessageBuilder append(String text)
+    {
+        this.buffer.append(text);
+        return this;
+    }
+
+    /**
+     * @param number the number to append
+     * @return this builder
+     */
+    public SlackMessageBuilder append(int number)
+    {
+        this.buffer.append(number);
+        return this;
+    }
+
+    /**
+     * Appends some text, escaping the characters that have a special meaning for Slack ({@code &}, {@code <} and
+     * {@code >}).
+     *
+     * @param text the text to append, nothing is appended if {@code null}
+     * @return this builder
+     */
+    public SlackMessageBuilder appendEncoded(String text)
+    {
+        appendEncoded(this.buffer, text, 0);
+        return this;
+    }
+
+    /**
+     * Appends a link, i.e. {@code <url|label>}.
+     *
+     * @param url the (already encoded) target of the link
+     * @param label the label of the link, escaped while appending; {@code null} for an empty label
+     * @return this builder
+     */
+    public SlackMessageBuilder appendLink(String url, String label)
+    {
+        this.buffer.append('<').append(url).append('|');
+        appendEncoded(this.buffer, label, 0);
+        this.buffer.append('>');
+        return this;
+    }
+
+    /**
+     * @return the number of characters appended so far
+     */
+    public int length()
+    {
+        return this.buffer.length();
+    }
+
+    @Override
+    public String toString()
+    {
+        return this.buffer.toString();
+    }
+
+    /**
+     * Escapes the characters that have a special meaning for Slack ({@code &}, {@code <} and {@code >}).
+     *
+     * @param text the text to escape, {@code null} standing for an empty text
+     * @return the escaped text, the given text itself when there's nothing to escape
+     */
+    public static String encode(String text)
+    {
+        if (text == null) {
+            return "";
+        }
+        int start = indexOfSpecialCharacter(text);
+        if (start < 0) {
+            return text;
+        }
+
+        StringBuilder encoded = new StringBuilder(text.length() + ESCAPING_MARGIN);
+        encoded.append(text, 0, start);
+        appendEncoded(encoded, text, start);
+        return encoded.toString();
+    }
+
+    /**
+     * Shortens a message to respect a Slack limit, marking the cut with an ellipsis. The message is cut before a link
+     * ({@code <url|label>}) or an entity ({@code &amp;}) that would not fit entirely, so that Slack still displays the
+     * rest of the message properly.
+     *
+     * @param text the (already encoded) message
+     * @param maxLength the maximum length of the message
+     * @return the shortened message, the given message itself when it is short enough
+     */
+    public static String truncate(String text, int maxLength)
+    {
+        if (text.length() <= maxLength) {
+            return text;
+        }
+
+        int end = Math.max(0, maxLength - ELLIPSIS.length());
+        if (end > 0 && Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        int linkStart = text.lastIndexOf('<', end - 1);
+        if (linkStart >= 0 && text.lastIndexOf('>', end - 1) < linkStart) {
+            end = linkStart;
+        }
+        int entityStart = text.lastIndexOf('&', end - 1);
+        if (entityStart >= 0 && text.lastIndexOf(';', end - 1) < entityStart) {
+            end = entityStart;
+        }
+        return new StringBuilder(end + ELLIPSIS.length()).append(text, 0, end).append(ELLIPSIS).toString();
+    }
+
+    /**
+     * Serializes a message to the JSON payload expected by the Slack incoming webhooks, {@code {"text":"...",
+     * "mrkdwn":false}}.
+     *
+     * @param text the (already encoded) message
+     * @return the JSON payload
+     */
+    public static String toPayload(String text)
+    {
+        return buildPayload(text).toString();
+    }
+
+    /**
+     * Same as {@link #toPayload(String)} but without creating a string: the payload is returned in the buffer used to
+     * serialize it, e.g. to be encoded straight to bytes.
+     *
+     * @param text the (already encoded) message
+     * @return the JSON payload
+     */
+    public static CharSequence buildPayload(String text)
+    {
+        StringBuilder payload =
+            new StringBuilder(PAYLOAD_START.length() + text.length() + PAYLOAD_END.length() + ESCAPING_MARGIN);
+        payload.append(PAYLOAD_START);
+        appendJson(payload, text, false);
+        payload.append(PAYLOAD_END);
+        return payload;
+    }
+
+    /**
+     * Serializes several messages to a single <a href="https://api.slack.com/block-kit">Block Kit</a> payload, with
+     * one section block per message. The first message is also used as the notification text, which Slack shows where
+     * blocks can't be displayed. The text of a section is always formatted by Slack, while the single messages are
+     * posted with {@code "mrkdwn":false}: the formatting characters ({@code *}, {@code _}, {@code ~} and the backtick)
+     * are surrounded by zero width spaces, except in the targets of the links, so that the messages look the same in
+     * both cases. The caller is responsible for respecting the Slack limits (number of blocks and length of a block
+     * text, see {@link #getBlockTextLength(String)}).
+     *
+     * @param texts the (already encoded) messages, at least one
+     * @return the JSON payload
+     */
+    public static String toBlocksPayload(List<String> texts)
+    {
+        return buildBlocksPayload(texts).toString();
+    }
+
+    /**
+     * Same as {@link #toBlocksPayload(List)} but without creating a string: the payload is returned in the buffer used
+     * to serialize it, e.g. to be encoded straight to bytes.
+     *
+     * @param texts the (already encoded) messages, at least one
+     * @return the JSON payload
+     */
+    public static CharSequence buildBlocksPayload(List<String> texts)
+    {
+        // The first message is serialized twice, as the notification text and as the first block.
+        int capacity = PAYLOAD_START.length() + texts.get(0).length() + ESCAPING_MARGIN;
+        for (String text : texts) {
+            capacity += BLOCK_START.length() + text.length() + BLOCK_END.length() + 1 + ESCAPING_MARGIN;
+        }
+        StringBuilder payload = new StringBuilder(capacity);
+        payload.append(PAYLOAD_START);
+        appendJson(payload, texts.get(0), false);
+        if (texts.size() > 1) {
+            payload.append("\\nand ").append(texts.size() - 1).append(" more.");
+        }
+        payload.append("\",\"blocks\":[");
+        for (int i = 0; i < texts.size(); i++) {
+            if (i > 0) {
+                payload.append(',');
+            }
+            payload.append(BLOCK_START);
+            appendJson(payload, texts.get(i), true);
+            payload.append(BLOCK_END);
+        }
+        payload.append("]}");
+        return payload;
+    }
+
+    /**
+     * Computes the length of a message once serialized as the text of a block, i.e. with its formatting characters
+     * surrounded by zero width spaces (see {@link #toBlocksPayload(List)}), to compare it with the Slack limits.
+     *
+     * @param text the (already encoded) message
+     * @return the length of the text of the block displaying the message
+     */
+    public static int getBlockTextLength(String text)
+    {
+        int length = text.length();
+        boolean linkTarget = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            linkTarget = isLinkTarget(c, linkTarget);
+            if (!linkTarget && FORMATTING_CHARACTERS.indexOf(c) >= 0) {
+                length += 2;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Tells whether a character is part of the target of a link ({@code <url|label>}, {@code <@user>}, etc.), where
+     * Slack doesn't apply any formatting.
+     *
+     * @param c the current character
+     * @param linkTarget whether the previous character was part of the target of a link
+     * @return whether the current character is part of the target of a link
+     */
+    private static boolean isLinkTarget(char c, boolean linkTarget)
+    {
+        if (c == '<') {
+            return true;
+        }
+        return linkTarget && c != '|' && c != '>';
+    }
+
+    private static int indexOfSpecialCharacter(String text)
+    {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '&' || c == '<' || c == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void appendEncoded(StringBuilder buffer, String text, int start)
+    {
+        if (text == null) {
+            return;
+        }
+        int length = text.length();
+        // Copy the runs of regular characters at once.
+        int runStart = start;
+        for (int i = start; i < length; i++) {
+            String entity;
+            switch (text.charAt(i)) {
+                case '&':
+                    entity = "&amp;";
+                    break;
+                case '<':
+                    entity = "&lt;";
+                    break;
+                case '>':
+                    entity = "&gt;";
+                    break;
+                default:
+                    continue;
+            }
+            buffer.append(text, runStart, i).append(entity);
+            runStart = i + 1;
+        }
+        buffer.append(text, runStart, length);
+    }
+
+    private static void appendJson(StringBuilder buffer, String text, boolean blockText)
+    {
+        int length = text.length();
+        int runStart = 0;
+        boolean linkTarget = false;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= ' ' && c != '"' && c != '\\') {
+                if (blockText) {
+                    linkTarget = isLinkTarget(c, linkTarget);
+                    if (!linkTarget && FORMATTING_CHARACTERS.indexOf(c) >= 0) {
+                        buffer.append(text, runStart, i).append(ZERO_WIDTH_SPACE).append(c).append(ZERO_WIDTH_SPACE);
+                        runStart = i + 1;
+                    }
+                }
+                continue;
+            }
+            buffer.append(text, runStart, i);
+            runStart = i + 1;
+            switch (c) {
+                case '"':
+                    buffer.append("\\\"");
+                    break;
+                case '\\':
+                    buffer.append("\\\\");
+                    break;
+                case '\n':
+                    buffer.append("\\n");
+                    break;
+                case '\r':
+                    buffer.append("\\r");
+                    break;
+                case '\t':
+                    buffer.append("\\t");
+                    break;
+                default:
+                    buffer.append("\\u00").append(HEX_DIGITS[c / HEX_DIGITS.length])
+                        .append(HEX_DIGITS[c % HEX_DIGITS.length]);
+            }
+        }
+        buffer.append(text, runStart, length);
+    }
+}
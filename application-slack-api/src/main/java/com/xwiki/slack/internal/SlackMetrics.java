@@ -0,0 +1,347 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+/**
+ * Counters and latency timers of the Slack notification pipeline, tagged by event type and webhook. They are exposed
+ * through JMX (as {@code com.xwiki.slack:type=Metrics}) and through the {@code slack} script service.
+ *
+ * @version $Id$
+ */
+@Component(roles = SlackMetrics.class)
+@Singleton
+public class SlackMetrics implements SlackMetricsMXBean, Initializable, Disposable
+{
+    /**
+     * Counter of the messages accepted by Slack.
+     */
+    public static final String SENT = "sent";
+
+    /**
+     * Counter of the failed attempts to post a message to Slack.
+     */
+    public static final String FAILED = "failed";
+
+    /**
+     * Counter of the document events ignored because Slack notifications are disabled.
+     */
+    public static final String SKIPPED_DISABLED = "skipped.disabled";
+
+    /**
+     * Counter of the document events ignored because there is no valid license.
+     */
+    public static final String SKIPPED_UNLICENSED = "skipped.unlicensed";
+
+    /**
+     * Counter of the document events ignored because they were replayed from another cluster node.
+     */
+    public static final String SKIPPED_REMOTE = "skipped.remote";
+
+    /**
+     * Counter of the notifications not sent because the same notification was sent recently.
+     */
+    public static final String DEDUPLICATED = "deduplicated";
+
+    /**
+     * Counter of the messages not posted because the circuit of their webhook is open.
+     */
+    public static final String CIRCUIT_OPEN = "circuit.open";
+
+    /**
+     * Timer of the resolution of the Slack configuration that applies to a document.
+     */
+    public static final String CONFIGURATION_RESOLUTION = "configuration.resolution";
+
+    /**
+     * Timer of the construction of a notification message.
+     */
+    public static final String MESSAGE_BUILDING = "message.building";
+
+    /**
+     * Timer of the rendering of the parts of a notification message left out on the thread saving the document.
+     */
+    public static final String MESSAGE_RENDERING = "message.rendering";
+
+    /**
+     * Timer of the HTTP requests to Slack.
+     */
+    public static final String HTTP = "http";
+
+    private static final String OBJECT_NAME = "com.xwiki.slack:type=Metrics";
+
+    private static final double[] PERCENTILES = {0.5, 0.95, 0.99};
+
+    @Inject
+    private Logger logger;
+
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    private final Map<String, LongAdder> totals = new ConcurrentHashMap<>();
+
+    private final Map<String, Histogram> timers = new ConcurrentHashMap<>();
+
+    private ObjectName objectName;
+
+    /**
+     * Latency histogram with fixed, roughly exponential, buckets.
+     */
+    private static final class Histogram
+    {
+        /**
+         * The upper bounds of the buckets, in microseconds. The last bucket has no upper bound.
+         */
+        private static final long[] BOUNDS = {100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000,
+            500000, 1000000, 2500000, 5000000, 10000000, 30000000};
+
+        private static final double MICROS_PER_MILLI = 1000.0;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder sum = new LongAdder();
+
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        void record(long micros)
+        {
+            int bucket = 0;
+            while (bucket < BOUNDS.length && micros > BOUNDS[bucket]) {
+                bucket++;
+            }
+            this.buckets.incrementAndGet(bucket);
+            this.count.increment();
+            this.sum.add(micros);
+            this.max.accumulate(micros);
+        }
+
+        /**
+         * @return the upper bound, in microseconds, of the bucket holding the given percentile
+         */
+        long getPercentile(double percentile)
+        {
+            if (this.count.sum() == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(percentile * this.count.sum());
+            long cumulated = 0;
+            for (int i = 0; i < BOUNDS.length; i++) {
+                cumulated += this.buckets.get(i);
+                if (cumulated >= target) {
+                    return BOUNDS[i];
+                }
+            }
+            return this.max.get();
+        }
+
+        @Override
+        public String toString()
+        {
+            long samples = this.count.sum();
+            StringBuilder summary = new StringBuilder();
+            summary.append("count=").append(samples);
+            summary.append(String.format(" mean=%.3fms", samples > 0 ? this.sum.sum() / MICROS_PER_MILLI / samples
+                : 0.0));
+            for (double percentile : PERCENTILES) {
+                summary.append(String.format(" p%d<=%.3fms", Math.round(percentile * 100),
+                    getPercentile(percentile) / MICROS_PER_MILLI));
+            }
+            summary.append(String.format(" max=%.3fms", this.max.get() / MICROS_PER_MILLI));
+            return summary.toString();
+        }
+    }
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            this.objectName = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(this.objectName)) {
+                // Registered by another instance, which is responsible for unregistering it.
+                this.objectName = null;
+            } else {
+                server.registerMBean(this, this.objectName);
+            }
+        } catch (JMException e) {
+            this.logger.warn("Failed to register the Slack metrics in JMX: [{}].", e.getMessage());
+            this.objectName = null;
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (this.objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.objectName);
+            } catch (JMException e) {
+                this.logger.debug("Failed to unregister the Slack metrics from JMX.", e);
+            }
+        }
+    }
+
+    /**
+     * Increment a counter.
+     *
+     * @param name the counter name
+     * @param eventType the event type tag, {@code null} if not relevant
+     * @param webhookUrl the webhook tag, {@code null} if not relevant
+     */
+    public void increment(String name, String eventType, String webhookUrl)
+    {
+        this.counters.computeIfAbsent(getKey(name, eventType, webhookUrl), key -> new LongAdder()).increment();
+        this.totals.computeIfAbsent(name, key -> new LongAdder()).increment();
+    }
+
+    /**
+     * Record a duration in a timer.
+     *
+     * @param name the timer name
+     * @param eventType the event type tag, {@code null} if not relevant
+     * @param webhookUrl the webhook tag, {@code null} if not relevant
+     * @param startNanos the start of the measured operation, as returned by {@link System#nanoTime()}
+     */
+    public void record(String name, String eventType, String webhookUrl, long startNanos)
+    {
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        this.timers.computeIfAbsent(getKey(name, eventType, webhookUrl), key -> new Histogram()).record(micros);
+    }
+
+    /**
+     * @param name a counter name
+     * @return the total of the counter, for all tags
+     */
+    public long getTotal(String name)
+    {
+        LongAdder total = this.totals.get(name);
+        return total != null ? total.sum() : 0;
+    }
+
+    @Override
+    public long getSentCount()
+    {
+        return getTotal(SENT);
+    }
+
+    @Override
+    public long getFailedCount()
+    {
+        return getTotal(FAILED);
+    }
+
+    @Override
+    public long getSkippedDisabledCount()
+    {
+        return getTotal(SKIPPED_DISABLED);
+    }
+
+    @Override
+    public long getSkippedUnlicensedCount()
+    {
+        return getTotal(SKIPPED_UNLICENSED);
+    }
+
+    @Override
+    public long getSkippedRemoteCount()
+    {
+        return getTotal(SKIPPED_REMOTE);
+    }
+
+    @Override
+    public long getDeduplicatedCount()
+    {
+        return getTotal(DEDUPLICATED);
+    }
+
+    @Override
+    public Map<String, Long> getCounters()
+    {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : this.counters.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().sum());
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, String> getTimers()
+    {
+        Map<String, String> values = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : this.timers.entrySet()) {
+            values.put(entry.getKey(), entry.getValue().toString());
+        }
+        return values;
+    }
+
+    /**
+     * The webhook URLs are secrets, the last part being the token that grants the right to post: only the host and a
+     * hash of the URL are used in the tags.
+     *
+     * @param webhookUrl a webhook URL
+     * @return a label identifying the webhook without disclosing any part of its path
+     */
+    static String getWebhookLabel(String webhookUrl)
+    {
+        String host = StringUtils.substringBefore(StringUtils.substringAfter(webhookUrl, "://"), "/");
+        return host + "/#" + Integer.toHexString(webhookUrl.hashCode());
+    }
+
+    private String getKey(String name, String eventType, String webhookUrl)
+    {
+        if (eventType == null && webhookUrl == null) {
+            return name;
+        }
+        StringBuilder key = new StringBuilder(name).append('{');
+        if (eventType != null) {
+            key.append("event=").append(eventType);
+        }
+        if (webhookUrl != null) {
+            if (eventType != null) {
+                key.append(',');
+            }
+            key.append("webhook=").append(getWebhookLabel(webhookUrl));
+        }
+        return key.append('}').toString();
+    }
+}
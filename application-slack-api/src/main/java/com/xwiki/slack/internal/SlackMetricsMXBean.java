@@ -0,0 +1,70 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link SlackMetrics}.
+ *
+ * @version $Id$
+ */
+public interface SlackMetricsMXBean
+{
+    /**
+     * @return the number of messages accepted by Slack
+     */
+    long getSentCount();
+
+    /**
+     * @return the number of failed attempts to post a message to Slack
+     */
+    long getFailedCount();
+
+    /**
+     * @return the number of document events ignored because Slack notifications are disabled
+     */
+    long getSkippedDisabledCount();
+
+    /**
+     * @return the number of document events ignored because there is no valid license
+     */
+    long getSkippedUnlicensedCount();
+
+    /**
+     * @return the number of document events ignored because they were replayed from another cluster node
+     */
+    long getSkippedRemoteCount();
+
+    /**
+     * @return the number of notifications not sent because the same notification was sent recently
+     */
+    long getDeduplicatedCount();
+
+    /**
+     * @return the value of each counter, by name and tags (event type and webhook)
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * @return a summary (count, mean, percentiles and maximum, in milliseconds) of each timer, by name and tags
+     */
+    Map<String, String> getTimers();
+}
@@ -0,0 +1,389 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * A notification about a document change, waiting to be posted to a Slack channel. Notifications about the same
+ * document can be merged while they wait.
+ * <p>
+ * The parts of the message that are expensive to compute (the rendered document title, the user names and the URLs)
+ * can be left out when the notification is created, on the thread saving the document, and filled in later by
+ * {@link SlackNotificationRenderer}, once the notification is about to be delivered.
+ *
+ * @version $Id$
+ */
+public class SlackNotification
+{
+    private final DocumentReference documentReference;
+
+    private String document;
+
+    private final String action;
+
+    private final Set<String> authors = new LinkedHashSet<>();
+
+    /**
+     * The authors that still need to be rendered, {@code null} standing for the guest user.
+     */
+    private final Set<DocumentReference> authorReferences = new LinkedHashSet<>();
+
+    private final String comment;
+
+    private final String webhookUrl;
+
+    private int count = 1;
+
+    private String changes = "";
+
+    private SlackLane lane;
+
+    /**
+     * The last document change merged into this notification.
+     */
+    private Source source;
+
+    /**
+     * The document before the first change merged into this notification, {@code null} if unknown.
+     */
+    private XWikiDocument originalDocument;
+
+    /**
+     * The document change a notification is about, shared by the notifications sent to the different Slack channels
+     * so that the document part of the message is rendered only once.
+     */
+    public static final class Source
+    {
+        private final DocumentReference documentReference;
+
+        private final XWikiDocument document;
+
+        private final XWikiDocument originalDocument;
+
+        private final XWikiContext xcontext;
+
+        private final SlackLane lane;
+
+        private String rendered;
+
+        private String changes;
+
+        /**
+         * @param documentReference the reference of the document that changed
+         * @param document the document that changed
+         * @param xcontext the XWiki context to use for rendering the message, must not be shared with a request
+         */
+        public Source(DocumentReference documentReference, XWikiDocument document, XWikiContext xcontext)
+        {
+            this(documentReference, document, xcontext, SlackLane.INTERACTIVE);
+        }
+
+        /**
+         * @param documentReference the reference of the document that changed
+         * @param document the document that changed
+         * @param xcontext the XWiki context to use for rendering the message, must not be shared with a request
+         * @param lane the delivery lane of the notifications about the change
+         */
+        public Source(DocumentReference documentReference, XWikiDocument document, XWikiContext xcontext,
+            SlackLane lane)
+        {
+            this.documentReference = documentReference;
+            this.document = document;
+            this.originalDocument = document.getOriginalDocument();
+            this.xcontext = xcontext;
+            this.lane = lane;
+        }
+
+        /**
+         * @return the reference of the document that changed
+         */
+        public DocumentReference getDocumentReference()
+        {
+            return this.documentReference;
+        }
+
+        /**
+         * @return the document that changed
+         */
+        public XWikiDocument getDocument()
+        {
+            return this.document;
+        }
+
+        /**
+         * @return the document before the change, {@code null} if unknown
+         */
+        public XWikiDocument getOriginalDocument()
+        {
+            return this.originalDocument;
+        }
+
+        /**
+         * @return the XWiki context to use for rendering the message
+         */
+        public XWikiContext getXWikiContext()
+        {
+            return this.xcontext;
+        }
+
+        /**
+         * @return the delivery lane of the notifications about the change
+         */
+        public SlackLane getLane()
+        {
+            return this.lane;
+        }
+
+        String getRendered()
+        {
+            return this.rendered;
+        }
+
+        void setRendered(String rendered)
+        {
+            this.rendered = rendered;
+        }
+
+        String getChanges()
+        {
+            return this.changes;
+        }
+
+        void setChanges(String changes)
+        {
+            this.changes = changes;
+        }
+    }
+
+    /**
+     * Creates a new notification.
+     *
+     * @param documentReference the reference of the document that changed
+     * @param document the (encoded) document part of the message, usually a link to the document
+     * @param action the action done on the document (e.g. "created")
+     * @param author the (encoded) author part of the message, usually a link to the user profile
+     * @param comment the (encoded) comment part of the message, can be empty
+     * @param webhookUrl the Webhook URL of the Slack channel where the notification is posted
+     */
+    public SlackNotification(DocumentReference documentReference, String document, String action, String author,
+        String comment, String webhookUrl)
+    {
+        this.documentReference = documentReference;
+        this.document = document;
+        this.action = action;
+        this.authors.add(author);
+        this.comment = comment;
+        this.webhookUrl = webhookUrl;
+        this.lane = SlackLane.INTERACTIVE;
+    }
+
+    /**
+     * Creates a new notification whose document and author parts are rendered later, with
+     * {@link #render(SlackNotificationRenderer)}.
+     *
+     * @param source the document change
+     * @param action the action done on the document (e.g. "created")
+     * @param authorReference the author of the action, {@code null} for the guest user
+     * @param comment the (encoded) comment part of the message, can be empty
+     * @param webhookUrl the Webhook URL of the Slack channel where the notification is posted
+     */
+    public SlackNotification(Source source, String action, DocumentReference authorReference, String comment,
+        String webhookUrl)
+    {
+        this.documentReference = source.getDocumentReference();
+        this.source = source;
+        this.action = action;
+        this.authorReferences.add(authorReference);
+        this.comment = comment;
+        this.webhookUrl = webhookUrl;
+        this.lane = source.getLane() != null ? source.getLane() : SlackLane.INTERACTIVE;
+        this.originalDocument = source.getOriginalDocument();
+    }
+
+    /**
+     * @return the reference of the document that changed
+     */
+    public DocumentReference getDocumentReference()
+    {
+        return this.documentReference;
+    }
+
+    /**
+     * @return the action done on the document (e.g. "created")
+     */
+    public String getAction()
+    {
+        return this.action;
+    }
+
+    /**
+     * @return the Webhook URL of the Slack channel where the notification is posted
+     */
+    public String getWebhookUrl()
+    {
+        return this.webhookUrl;
+    }
+
+    /**
+     * @return the delivery lane of the notification
+     */
+    public SlackLane getLane()
+    {
+        return this.lane;
+    }
+
+    /**
+     * @return how many times the action was done on the document
+     */
+    public int getCount()
+    {
+        return this.count;
+    }
+
+    /**
+     * @return the (encoded) authors of the action
+     */
+    public Collection<String> getAuthors()
+    {
+        return this.authors;
+    }
+
+    /**
+     * Merges a later notification about the same document and action into this one. The merged notification links to
+     * the last change and summarizes all the changes, from the document before the first one.
+     *
+     * @param other the notification to merge
+     */
+    public void merge(SlackNotification other)
+    {
+        this.count += other.count;
+        this.authors.addAll(other.authors);
+        this.authorReferences.addAll(other.authorReferences);
+        this.lane = this.lane.max(other.lane);
+        if (other.source != null) {
+            if (this.source == null) {
+                this.originalDocument = other.originalDocument;
+            }
+            this.source = other.source;
+        }
+    }
+
+    /**
+     * @return {@code true} if all the parts of the message are known, {@code false} if some still need to be
+     *         rendered
+     */
+    public boolean isRendered()
+    {
+        return this.source == null;
+    }
+
+    /**
+     * @return the document change this notification is about, {@code null} once the notification is rendered
+     */
+    public Source getSource()
+    {
+        return this.source;
+    }
+
+    /**
+     * Renders the parts of the message that were left out when the notification was created.
+     *
+     * @param renderer the renderer to use
+     */
+    public void render(SlackNotificationRenderer renderer)
+    {
+        if (this.source != null) {
+            if (this.document == null) {
+                this.document = renderer.getDocument(this.source, this.action);
+            }
+            if (this.count == 1) {
+                this.changes = renderer.getChanges(this.source, this.action);
+            } else {
+                this.changes = renderer.getChanges(this.originalDocument, this.source, this.action);
+            }
+            for (DocumentReference authorReference : this.authorReferences) {
+                this.authors.add(renderer.getAuthor(authorReference, this.source.getXWikiContext()));
+            }
+            this.authorReferences.clear();
+            this.source = null;
+            this.originalDocument = null;
+        }
+    }
+
+    /**
+     * @return the (encoded) document part of the message, usually a link to the document
+     */
+    public String getDocument()
+    {
+        return this.document;
+    }
+
+    /**
+     * @return the text of the message to post, e.g. "X was modified 7 times by A, B"
+     */
+    public String getText()
+    {
+        return appendText(new SlackMessageBuilder()).toString();
+    }
+
+    /**
+     * Appends the text of the message to post to the given builder.
+     *
+     * @param builder the builder to append to
+     * @return the given builder
+     */
+    public SlackMessageBuilder appendText(SlackMessageBuilder builder)
+    {
+        builder.append(this.document).append(" was ").append(this.action);
+        if (this.count > 1) {
+            builder.append(" ").append(this.count).append(" times");
+        }
+        builder.append(" by ");
+        boolean first = true;
+        for (String author : this.authors) {
+            if (!first) {
+                builder.append(", ");
+            }
+            builder.append(author);
+            first = false;
+        }
+        if (this.count == 1) {
+            // The comment is about a single change.
+            builder.append(this.comment);
+        }
+        return builder.append(this.changes);
+    }
+
+    /**
+     * @return the message to deliver for this notification
+     */
+    public SlackMessage toMessage()
+    {
+        return new SlackMessage(getText(), this.webhookUrl, this.action, this.lane);
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.Collection;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheException;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.LRUCacheConfiguration;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextException;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.rendering.syntax.Syntax;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.XWikiException;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.slack.SlackClient;
+import com.xwiki.slack.SlackEventType;
+
+/**
+ * Renders the parts of the notification messages that are expensive to compute: the document title, which goes
+ * through the rendering, the user names, which require loading the user profiles, and the URLs. This is done outside
+ * of the thread saving the document, right before the notifications are delivered. The rendered user names are kept
+ * in a bounded cache, updated by {@link SlackUserListener} when the user profiles change, so that a batch of changes
+ * done by the same user loads the profile of that user only once.
+ *
+ * @version $Id$
+ */
+@Component(roles = SlackNotificationRenderer.class)
+@Singleton
+public class SlackNotificationRenderer implements Initializable, Disposable
+{
+    private static final String ACTION_VIEW = "view";
+
+    private static final String GUEST = "Guest";
+
+    private static final int USER_CACHE_SIZE = 1000;
+
+    /**
+     * Longer titles are shortened, so that the notification fits in a Slack block.
+     */
+    private static final int MAX_TITLE_LENGTH = 200;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private SlackClient slack;
+
+    @Inject
+    private SlackMetrics metrics;
+
+    @Inject
+    private CacheManager cacheManager;
+
+    @Inject
+    private Execution execution;
+
+    @Inject
+    private ExecutionContextManager executionContextManager;
+
+    private Cache<String> users;
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        try {
+            this.users = this.cacheManager.createNewCache(new LRUCacheConfiguration("slack.users", USER_CACHE_SIZE));
+        } catch (CacheException e) {
+            throw new InitializationException("Failed to create the Slack user name cache.", e);
+        }
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        this.users.dispose();
+    }
+
+    /**
+     * Renders the notifications that still need it. When called from a thread that has no execution context (e.g.
+     * the thread delivering the notifications) one is created for the time of the rendering.
+     *
+     * @param notifications the notifications to render
+     */
+    public void render(Collection<SlackNotification> notifications)
+    {
+        boolean ownContext = false;
+        try {
+            for (SlackNotification notification : notifications) {
+                SlackNotification.Source source = notification.getSource();
+                if (source != null) {
+                    if (!ownContext && this.execution.getContext() == null) {
+                        this.executionContextManager.initialize(new ExecutionContext());
+                        ownContext = true;
+                    }
+                    if (ownContext) {
+                        source.getXWikiContext().declareInExecutionContext(this.execution.getContext());
+                    }
+                    long start = System.nanoTime();
+                    notification.render(this);
+                    this.metrics.record(SlackMetrics.MESSAGE_RENDERING, notification.getAction(), null, start);
+                }
+            }
+        } catch (ExecutionContextException e) {
+            this.logger.error("Failed to initialize the execution context for rendering the Slack notifications.", e);
+        } finally {
+            if (ownContext) {
+                this.execution.removeContext();
+            }
+        }
+    }
+
+    /**
+     * Get the document part of the message, i.e. a link to the document (or to the changes, for a modification) with
+     * the document title as label. It is computed once per document change.
+     *
+     * @param source the document change
+     * @param action the action done on the document
+     * @return the (encoded) document part of the message
+     */
+    public String getDocument(SlackNotification.Source source, String action)
+    {
+        synchronized (source) {
+            if (source.getRendered() == null) {
+                XWikiDocument document = source.getDocument();
+                XWikiContext xcontext = source.getXWikiContext();
+                String url = getURL(document, action, xcontext);
+                if (url != null) {
+                    String title = StringUtils.abbreviate(document.getRenderedTitle(Syntax.PLAIN_1_0, xcontext),
+                        MAX_TITLE_LENGTH);
+                    source.setRendered(new SlackMessageBuilder().appendLink(url, title).toString());
+                } else {
+                    source.setRendered(source.getDocumentReference().toString());
+                }
+            }
+            return source.getRendered();
+        }
+    }
+
+    /**
+     * Get the summary of the changes made to the document, e.g. " [+12 -3 lines in Installation]". It is computed
+     * once per document change, and only for modifications.
+     *
+     * @param source the document change
+     * @param action the action done on the document
+     * @return the (encoded) summary of the changes, empty if there's nothing to summarize
+     */
+    public String getChanges(SlackNotification.Source source, String action)
+    {
+        if (!SlackEventType.DOCUMENT_UPDATED.getAction().equals(action) || source.getOriginalDocument() == null) {
+            return "";
+        }
+        synchronized (source) {
+            if (source.getChanges() == null) {
+                source.setChanges(summarize(source.getOriginalDocument(), source));
+            }
+            return source.getChanges();
+        }
+    }
+
+    /**
+     * Get the summary of several changes made to the document, from the document before the first change to the
+     * document after the last one. Unlike {@link #getChanges(SlackNotification.Source, String)}, it is not shared by
+     * the notifications sent to the different Slack channels, because each channel can merge different changes.
+     *
+     * @param originalDocument the document before the first change, {@code null} if unknown
+     * @param source the last change
+     * @param action the action done on the document
+     * @return the (encoded) summary of the changes, empty if there's nothing to summarize
+     */
+    public String getChanges(XWikiDocument originalDocument, SlackNotification.Source source, String action)
+    {
+        if (!SlackEventType.DOCUMENT_UPDATED.getAction().equals(action) || originalDocument == null) {
+            return "";
+        }
+        return summarize(originalDocument, source);
+    }
+
+    private String summarize(XWikiDocument originalDocument, SlackNotification.Source source)
+    {
+        try {
+            SlackChangeSummary summary = SlackChangeSummary.compute(originalDocument, source.getDocument());
+            return summary.appendTo(new SlackMessageBuilder()).toString();
+        } catch (Exception e) {
+            // Ensures that an error in summarizing the changes won't prevent sending the message.
+            this.logger.warn("Failed to summarize the changes of document [{}]", source.getDocumentReference(), e);
+            return "";
+        }
+    }
+
+    /**
+     * Get the author part of the message, i.e. a link to the user profile with the user name as label.
+     *
+     * @param userReference the user, {@code null} for the guest user
+     * @param xcontext the XWiki context to use for computing the user name and the profile URL
+     * @return the (encoded) author part of the message
+     */
+    public String getAuthor(DocumentReference userReference, XWikiContext xcontext)
+    {
+        if (userReference == null) {
+            return GUEST;
+        }
+
+        String key = userReference.toString();
+        String user = this.users.get(key);
+        if (user == null) {
+            // Handle the case when no URL Factory is set up yet. This could happen for example when a mandatory class
+            // is created at startup since that's done before the URL Factory is defined.
+            if (xcontext.getURLFactory() != null) {
+                try {
+                    user = new SlackMessageBuilder()
+                        .appendLink(xcontext.getWiki().getExternalURL(key, ACTION_VIEW, xcontext),
+                            xcontext.getWiki().getPlainUserName(userReference, xcontext))
+                        .toString();
+                    this.users.set(key, user);
+                } catch (XWikiException e) {
+                    user = this.slack.encode(key);
+                }
+            } else {
+                user = this.slack.encode(key);
+            }
+        }
+        return user;
+    }
+
+    /**
+     * Forget what was rendered for a user, e.g. because the user profile changed.
+     *
+     * @param userReference the user
+     */
+    public void invalidate(DocumentReference userReference)
+    {
+        this.users.remove(userReference.toString());
+    }
+
+    private String getURL(XWikiDocument document, String action, XWikiContext xcontext)
+    {
+        String url = null;
+        String queryString = null;
+
+        try {
+            if (SlackEventType.DOCUMENT_UPDATED.getAction().equals(action)) {
+                // Return a diff URL since the action done was a modification
+                queryString = "viewer=changes&amp;rev2=" + document.getVersion();
+            }
+            // Handle the case when no URL Factory is set up yet. This could happen for example when a mandatory class
+            // is created at startup since that's done before the URL Factory is defined.
+            if (xcontext.getURLFactory() != null) {
+                url = document.getExternalURL(ACTION_VIEW, queryString, xcontext);
+            }
+        } catch (Exception e) {
+            // Ensures that an error in computing the URL won't prevent sending the message.
+            this.logger.warn("Failed to compute URL for document [{}] and query string [{}]",
+                document.getDocumentReference(), queryString, e);
+        }
+
+        return url;
+    }
+}
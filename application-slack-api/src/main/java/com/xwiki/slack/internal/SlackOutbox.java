@@ -0,0 +1,536 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.annotation.DisposePriority;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.component.phase.Disposable;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+import org.xwiki.environment.Environment;
+
+import com.xwiki.slack.SlackClient;
+import com.xwiki.slack.SlackDeliveryStatus;
+
+/**
+ * Durable store of the messages that could not be delivered to Slack, so that they survive restarts and Slack
+ * outages. The messages are appended to a journal file in the permanent directory; the writes are batched and synced
+ * to the disk together. A background thread posts the stored messages again, in order, once their webhook recovers,
+ * and has the journal compacted to drop the delivered messages.
+ * <p>
+ * Each record of the journal is framed with its length and a CRC, so that a record that was not completely written
+ * (e.g. because of a crash) or got corrupted ends the journal when it is loaded instead of garbling the next ones. Only
+ * the writer thread touches the journal file: the compaction is queued like any other record, so that it never runs
+ * in the middle of an append. When a write fails, the journal is rewritten from the messages held in memory.
+ *
+ * @version $Id$
+ */
+@Component(roles = SlackOutbox.class)
+@Singleton
+// Disposed after the delivery queue and the send executor, which store here the messages they could not deliver.
+@DisposePriority(SlackOutbox.DISPOSE_PRIORITY)
+public class SlackOutbox implements Initializable, Disposable
+{
+    /**
+     * Higher than the default priority ({@code 1000}), which the send executor has.
+     */
+    static final int DISPOSE_PRIORITY = 2000;
+
+    private static final byte TYPE_MESSAGE = 1;
+
+    private static final byte TYPE_DELIVERED = 2;
+
+    /**
+     * Not written to the journal: asks the writer to compact the journal once the records queued before are written.
+     */
+    private static final byte TYPE_COMPACT = 3;
+
+    private static final Record COMPACT = new Record(TYPE_COMPACT, 0, null);
+
+    /**
+     * The length of the record type and message identifier.
+     */
+    private static final int MIN_RECORD_LENGTH = Byte.BYTES + Long.BYTES;
+
+    /**
+     * Larger than any message (Slack accepts at most 40000 characters), to detect a corrupt record length before
+     * allocating it.
+     */
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+
+    private static final int MAX_WRITE_BATCH = 256;
+
+    private static final long POLL_TIMEOUT = 500L;
+
+    private static final int COMPACTION_THRESHOLD = 1000;
+
+    private static final long SHUTDOWN_TIMEOUT = 10000L;
+
+    @Inject
+    private Logger logger;
+
+    @Inject
+    private Environment environment;
+
+    @Inject
+    private SlackClient slack;
+
+    @Inject
+    private SlackRateLimiter rateLimiter;
+
+    @Inject
+    private SlackCircuitBreaker circuitBreaker;
+
+    @Inject
+    private SlackDeliveryConfiguration configuration;
+
+    @Inject
+    private SlackMetrics metrics;
+
+    /**
+     * The messages waiting to be delivered, in the order they were stored.
+     */
+    private final NavigableMap<Long, SlackMessage> pending = new ConcurrentSkipListMap<>();
+
+    /**
+     * The size of {@link #pending}, which the map itself can only count by walking through it.
+     */
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    private final BlockingQueue<Record> writes = new LinkedBlockingQueue<>();
+
+    private final AtomicLong lastId = new AtomicLong();
+
+    private final Object journalLock = new Object();
+
+    private final CRC32 checksum = new CRC32();
+
+    private File journal;
+
+    private FileOutputStream journalFile;
+
+    private DataOutputStream journalOutput;
+
+    /**
+     * Only used by the replayer thread.
+     */
+    private int deliveredSinceCompaction;
+
+    private Thread writer;
+
+    private Thread replayer;
+
+    private volatile boolean running;
+
+    /**
+     * A journal record: a stored message, or the notice that a stored message was delivered.
+     */
+    private static final class Record
+    {
+        private final byte type;
+
+        private final long id;
+
+        private final SlackMessage message;
+
+        Record(byte type, long id, SlackMessage message)
+        {
+            this.type = type;
+            this.id = id;
+            this.message = message;
+        }
+
+        byte[] toBytes() throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream output = new DataOutputStream(bytes);
+            output.writeByte(this.type);
+            output.writeLong(this.id);
+            if (this.type == TYPE_MESSAGE) {
+                output.writeUTF(this.message.getWebhookUrl());
+                output.writeUTF(StringUtils.defaultString(this.message.getEventType()));
+                byte[] text = this.message.getText().getBytes(StandardCharsets.UTF_8);
+                output.writeInt(text.length);
+                output.write(text);
+            }
+            output.flush();
+            return bytes.toByteArray();
+        }
+    }
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        if (!this.configuration.isOutboxEnabled()) {
+            return;
+        }
+
+        File directory = new File(this.environment.getPermanentDirectory(), "slack");
+        this.journal = new File(directory, "outbox.journal");
+        try {
+            Files.createDirectories(directory.toPath());
+            load();
+            this.pendingCount.set(this.pending.size());
+            // Start from a clean journal, without delivered messages and without a truncated or corrupt end.
+            compact();
+        } catch (IOException e) {
+            throw new InitializationException("Failed to open the Slack outbox [" + this.journal + "].", e);
+        }
+        if (!this.pending.isEmpty()) {
+            this.logger.info("[{}] undelivered Slack messages were found in the outbox.", this.pendingCount.get());
+        }
+
+        this.running = true;
+        this.writer = startThread(this::write, "Slack outbox writer");
+        this.replayer = startThread(this::replay, "Slack outbox replayer");
+    }
+
+    @Override
+    public void dispose() throws ComponentLifecycleException
+    {
+        if (!this.running) {
+            return;
+        }
+        this.running = false;
+        this.replayer.interrupt();
+        try {
+            // Let the writer flush the remaining records.
+            this.writer.join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this.journalLock) {
+            try {
+                this.journalOutput.close();
+            } catch (IOException e) {
+                throw new ComponentLifecycleException("Failed to close the Slack outbox.", e);
+            }
+        }
+    }
+
+    /**
+     * Store a message that could not be delivered. The message is written to the disk asynchronously, shortly after
+     * this method returns.
+     *
+     * @param message the message to store
+     * @return {@code true} if the message was stored, {@code false} if the outbox is disabled or full
+     */
+    public boolean store(SlackMessage message)
+    {
+        if (!this.running) {
+            return false;
+        }
+        if (this.pendingCount.incrementAndGet() > this.configuration.getOutboxMaxSize()) {
+            this.pendingCount.decrementAndGet();
+            return false;
+        }
+        long id = this.lastId.incrementAndGet();
+        this.pending.put(id, message);
+        this.writes.add(new Record(TYPE_MESSAGE, id, message));
+        return true;
+    }
+
+    /**
+     * @return the number of messages waiting in the outbox
+     */
+    public int getSize()
+    {
+        return this.pendingCount.get();
+    }
+
+    private Thread startThread(Runnable runnable, String name)
+    {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private void write()
+    {
+        List<Record> batch = new ArrayList<>();
+        while (this.running || !this.writes.isEmpty()) {
+            try {
+                Record first = this.writes.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    this.writes.drainTo(batch, MAX_WRITE_BATCH);
+                    writeBatch(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void writeBatch(List<Record> batch)
+    {
+        synchronized (this.journalLock) {
+            boolean compactionRequested = false;
+            try {
+                for (Record record : batch) {
+                    if (record == COMPACT) {
+                        compactionRequested = true;
+                    } else {
+                        writeRecord(this.journalOutput, record);
+                    }
+                }
+                this.journalOutput.flush();
+                // A single sync to the disk for the whole batch.
+                this.journalFile.getFD().sync();
+            } catch (IOException e) {
+                // The journal may end with a partial record: rewrite it from the messages held in memory.
+                this.logger.error("Failed to write [{}] records to the Slack outbox.", batch.size(), e);
+                compactionRequested = true;
+            }
+            if (compactionRequested) {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    this.logger.error("Failed to compact the Slack outbox.", e);
+                }
+            }
+        }
+    }
+
+    private void writeRecord(DataOutputStream output, Record record) throws IOException
+    {
+        byte[] bytes = record.toBytes();
+        this.checksum.reset();
+        this.checksum.update(bytes, 0, bytes.length);
+        output.writeInt(bytes.length);
+        output.writeInt((int) this.checksum.getValue());
+        output.write(bytes);
+    }
+
+    private void replay()
+    {
+        long interval = this.configuration.getOutboxReplayInterval();
+        while (this.running) {
+            try {
+                Thread.sleep(interval);
+                replayPending();
+                if (this.deliveredSinceCompaction >= COMPACTION_THRESHOLD
+                    || (this.pending.isEmpty() && this.deliveredSinceCompaction > 0)) {
+                    this.deliveredSinceCompaction = 0;
+                    this.writes.add(COMPACT);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void replayPending() throws InterruptedException
+    {
+        // The webhooks that are still failing: their remaining messages wait for the next round, to keep the order.
+        Set<String> failingWebhooks = new HashSet<>();
+        for (Map.Entry<Long, SlackMessage> entry : this.pending.entrySet()) {
+            SlackMessage message = entry.getValue();
+            if (!this.running) {
+                return;
+            }
+            if (!failingWebhooks.contains(message.getWebhookUrl())) {
+                if (deliver(message)) {
+                    this.pending.remove(entry.getKey());
+                    this.pendingCount.decrementAndGet();
+                    this.writes.add(new Record(TYPE_DELIVERED, entry.getKey(), null));
+                    this.deliveredSinceCompaction++;
+                } else {
+                    failingWebhooks.add(message.getWebhookUrl());
+                }
+            }
+        }
+    }
+
+    private boolean deliver(SlackMessage message) throws InterruptedException
+    {
+        if (!this.circuitBreaker.allowRequest(message.getWebhookUrl())) {
+            return false;
+        }
+        long delay = this.rateLimiter.reserve(message.getWebhookUrl());
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+        long start = System.nanoTime();
+        try {
+            SlackDeliveryStatus status = this.slack.postMessage(message.getText(), message.getWebhookUrl());
+            this.metrics.record(SlackMetrics.HTTP, message.getEventType(), message.getWebhookUrl(), start);
+            this.metrics.increment(status.isSuccess() ? SlackMetrics.SENT : SlackMetrics.FAILED,
+                message.getEventType(), message.getWebhookUrl());
+            if (status.isSuccess()) {
+                this.circuitBreaker.recordSuccess(message.getWebhookUrl());
+            } else if (!status.isRateLimited()) {
+                this.circuitBreaker.recordFailure(message.getWebhookUrl(), status.toString());
+            }
+            if (status.getRetryAfter() > 0) {
+                this.rateLimiter.pause(message.getWebhookUrl(), status.getRetryAfter());
+            }
+            if (!status.isSuccess() && !status.isRetryable()) {
+                // Slack will never accept this message: posting it again is pointless.
+                this.logger.warn("Slack rejected the stored message [{}] with status [{}].", message.getText(),
+                    status);
+                return true;
+            }
+            return status.isSuccess();
+        } catch (IOException e) {
+            this.circuitBreaker.recordFailure(message.getWebhookUrl(), e.toString());
+            this.metrics.increment(SlackMetrics.FAILED, message.getEventType(), message.getWebhookUrl());
+            this.logger.debug("Slack is still unreachable: [{}].", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Load the messages of the journal, up to the first record that is incomplete or corrupt.
+     */
+    private void load() throws IOException
+    {
+        if (!this.journal.exists()) {
+            return;
+        }
+        int count = 0;
+        try (DataInputStream input =
+            new DataInputStream(new BufferedInputStream(new FileInputStream(this.journal)))) {
+            byte[] record = readRecord(input);
+            while (record != null) {
+                loadRecord(record);
+                count++;
+                record = readRecord(input);
+            }
+        } catch (EOFException e) {
+            // The last record was not completely written.
+            this.logger.warn("Ignoring the incomplete end of the Slack outbox [{}] after [{}] records.", this.journal,
+                count);
+        } catch (IOException e) {
+            this.logger.warn("Ignoring the corrupt end of the Slack outbox [{}] after [{}] records: [{}].",
+                this.journal, count, e.getMessage());
+        }
+    }
+
+    /**
+     * @return the content of the next record, {@code null} at the end of the journal
+     */
+    private byte[] readRecord(DataInputStream input) throws IOException
+    {
+        int length;
+        try {
+            length = input.readInt();
+        } catch (EOFException e) {
+            // The journal ends between two records.
+            return null;
+        }
+        if (length < MIN_RECORD_LENGTH || length > MAX_RECORD_LENGTH) {
+            throw new IOException("Invalid record length [" + length + "]");
+        }
+        int expectedChecksum = input.readInt();
+        byte[] record = new byte[length];
+        input.readFully(record);
+        this.checksum.reset();
+        this.checksum.update(record, 0, length);
+        if ((int) this.checksum.getValue() != expectedChecksum) {
+            throw new IOException("Invalid record checksum");
+        }
+        return record;
+    }
+
+    private void loadRecord(byte[] record) throws IOException
+    {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+        byte type = input.readByte();
+        long id = input.readLong();
+        if (type == TYPE_MESSAGE) {
+            String webhookUrl = input.readUTF();
+            String eventType = StringUtils.defaultIfEmpty(input.readUTF(), null);
+            int length = input.readInt();
+            if (length < 0 || length > input.available()) {
+                throw new IOException("Invalid message length [" + length + "]");
+            }
+            byte[] text = new byte[length];
+            input.readFully(text);
+            this.pending.put(id, new SlackMessage(new String(text, StandardCharsets.UTF_8), webhookUrl, eventType));
+        } else {
+            this.pending.remove(id);
+        }
+        this.lastId.set(Math.max(this.lastId.get(), id));
+    }
+
+    /**
+     * Rewrite the journal with the pending messages. Called by the writer thread, or before it starts.
+     */
+    private void compact() throws IOException
+    {
+        synchronized (this.journalLock) {
+            if (this.journalOutput != null) {
+                this.journalOutput.close();
+            }
+            File compacted = new File(this.journal.getPath() + ".tmp");
+            try (FileOutputStream file = new FileOutputStream(compacted);
+                DataOutputStream output = new DataOutputStream(new BufferedOutputStream(file))) {
+                for (Map.Entry<Long, SlackMessage> entry : this.pending.entrySet()) {
+                    writeRecord(output, new Record(TYPE_MESSAGE, entry.getKey(), entry.getValue()));
+                }
+                output.flush();
+                file.getFD().sync();
+            }
+            Files.move(compacted.toPath(), this.journal.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            this.journalFile = new FileOutputStream(this.journal, true);
+            this.journalOutput = new DataOutputStream(new BufferedOutputStream(this.journalFile));
+        }
+    }
+}
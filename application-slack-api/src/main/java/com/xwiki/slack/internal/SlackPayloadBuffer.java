@@ -0,0 +1,129 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+
+/**
+ * Holds the UTF-8 bytes of a JSON payload sent to Slack. The payload is encoded straight from the builder that
+ * serialized it, into a buffer sized from its length, so that posting a message doesn't create a string and a byte
+ * array copied from it. The buffers are not reused per thread since the messages are posted from virtual threads.
+ *
+ * @version $Id$
+ */
+public final class SlackPayloadBuffer extends ByteArrayOutputStream
+{
+    /**
+     * The size of the buffer of the compressor.
+     */
+    private static final int DEFLATER_BUFFER_SIZE = 512;
+
+    /**
+     * The JSON payloads usually shrink to less than a fourth when compressed.
+     */
+    private static final int COMPRESSION_RATIO = 4;
+
+    /**
+     * The encoding of the content, {@code null} when it is not compressed.
+     */
+    private final String contentEncoding;
+
+    private SlackPayloadBuffer(String contentEncoding, int capacity)
+    {
+        super(capacity);
+        this.contentEncoding = contentEncoding;
+    }
+
+    /**
+     * @param payload a JSON payload
+     * @return a new buffer holding the UTF-8 encoding of the given payload
+     */
+    public static SlackPayloadBuffer of(CharSequence payload)
+    {
+        // The array is allocated while encoding, once the size is known.
+        return new SlackPayloadBuffer(null, 0).writeUtf8(payload);
+    }
+
+    /**
+     * Compresses the content of this buffer with gzip.
+     *
+     * @return a new buffer holding the compressed content
+     * @throws IOException if the compression fails
+     */
+    public SlackPayloadBuffer compress() throws IOException
+    {
+        // The buffer grows if the payload doesn't compress that well.
+        SlackPayloadBuffer compressed = new SlackPayloadBuffer("gzip", this.count / COMPRESSION_RATIO);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed, DEFLATER_BUFFER_SIZE)) {
+            gzip.write(this.buf, 0, this.count);
+        }
+        return compressed;
+    }
+
+    /**
+     * @return a JSON entity backed by this buffer, without copying it
+     */
+    public HttpEntity toEntity()
+    {
+        ByteArrayEntity entity = new ByteArrayEntity(this.buf, 0, this.count, ContentType.APPLICATION_JSON);
+        entity.setContentEncoding(this.contentEncoding);
+        return entity;
+    }
+
+    private SlackPayloadBuffer writeUtf8(CharSequence text)
+    {
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer input = CharBuffer.wrap(text);
+        ensureCapacity(this.count + (int) Math.ceil(text.length() * encoder.averageBytesPerChar()));
+        ByteBuffer output = ByteBuffer.wrap(this.buf, this.count, this.buf.length - this.count);
+        CoderResult result = encoder.encode(input, output, true);
+        while (result.isOverflow()) {
+            this.count = output.position();
+            ensureCapacity(this.count + (int) Math.ceil(input.remaining() * encoder.maxBytesPerChar()));
+            output = ByteBuffer.wrap(this.buf, this.count, this.buf.length - this.count);
+            result = encoder.encode(input, output, true);
+        }
+        // UTF-8 has no state left to flush.
+        encoder.flush(output);
+        this.count = output.position();
+        return this;
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+        if (capacity > this.buf.length) {
+            this.buf = Arrays.copyOf(this.buf, Math.max(this.buf.length * 2, capacity));
+        }
+    }
+}
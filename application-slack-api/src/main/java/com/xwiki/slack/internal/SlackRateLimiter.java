@@ -0,0 +1,217 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.component.phase.Initializable;
+import org.xwiki.component.phase.InitializationException;
+
+/**
+ * Limits the rate at which messages are posted to each Slack webhook, using one token bucket per webhook URL. Slack
+ * accepts roughly one message per second per webhook, with short bursts. The messages of the lower priority
+ * {@link SlackLane lanes} also have their own, smaller, rate budget and only use the tokens of the webhook that are
+ * available right away: they never take the place of the interactive messages already waiting for the webhook.
+ *
+ * @version $Id$
+ */
+@Component(roles = SlackRateLimiter.class)
+@Singleton
+public class SlackRateLimiter implements Initializable
+{
+    private static final double MILLIS_PER_SECOND = 1000.0;
+
+    @Inject
+    private SlackDeliveryConfiguration configuration;
+
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * The number of tokens added to each webhook bucket per millisecond.
+     */
+    private double rate;
+
+    /**
+     * The maximum number of tokens a webhook bucket can hold, i.e. the size of the bursts.
+     */
+    private double capacity;
+
+    /**
+     * The number of tokens added to the buckets of each lane per millisecond.
+     */
+    private final Map<SlackLane, Double> laneRates = new EnumMap<>(SlackLane.class);
+
+    /**
+     * A token bucket. The number of tokens can go below zero: each missing token is a reservation for a message that
+     * will be posted later.
+     */
+    private static final class Bucket
+    {
+        private final double rate;
+
+        private final double capacity;
+
+        private double tokens;
+
+        private long lastRefill = System.currentTimeMillis();
+
+        private long pausedUntil;
+
+        Bucket(double rate, double capacity)
+        {
+            this.rate = rate;
+            this.capacity = capacity;
+            this.tokens = capacity;
+        }
+
+        synchronized long reserve(long now)
+        {
+            refill(now);
+            this.tokens--;
+            long wait = this.tokens >= 0 ? 0 : (long) Math.ceil(-this.tokens / this.rate);
+            return Math.max(wait, this.pausedUntil - now);
+        }
+
+        synchronized long tryAcquire(long now)
+        {
+            refill(now);
+            if (this.pausedUntil > now) {
+                return this.pausedUntil - now;
+            }
+            if (this.tokens >= 1) {
+                this.tokens--;
+                return 0;
+            }
+            return Math.max(1, (long) Math.ceil((1 - this.tokens) / this.rate));
+        }
+
+        synchronized long getRemainingPause(long now)
+        {
+            return Math.max(0, this.pausedUntil - now);
+        }
+
+        synchronized void pause(long until)
+        {
+            this.pausedUntil = Math.max(this.pausedUntil, until);
+        }
+
+        private void refill(long now)
+        {
+            // The time can be read before the bucket is created, or the clock can go back: don't take tokens then.
+            if (now > this.lastRefill) {
+                this.tokens = Math.min(this.capacity, this.tokens + (now - this.lastRefill) * this.rate);
+                this.lastRefill = now;
+            }
+        }
+    }
+
+    @Override
+    public void initialize() throws InitializationException
+    {
+        this.rate = this.configuration.getRateLimit() / MILLIS_PER_SECOND;
+        this.capacity = Math.max(1, this.configuration.getRateLimitBurst());
+        for (SlackLane lane : SlackLane.values()) {
+            this.laneRates.put(lane, this.configuration.getRateLimit(lane) / MILLIS_PER_SECOND);
+        }
+    }
+
+    /**
+     * Reserve the right to post a message to the given webhook.
+     *
+     * @param webhookUrl the webhook URL
+     * @return the number of milliseconds to wait before posting the message, 0 to post it right away
+     */
+    public long reserve(String webhookUrl)
+    {
+        return getBucket(webhookUrl).reserve(System.currentTimeMillis());
+    }
+
+    /**
+     * Reserve the right to post a message of the given lane to the given webhook. When a wait is returned, the message
+     * holds its slot of the lane budget and must call {@link #acquire(String, SlackLane)} when it comes back.
+     *
+     * @param webhookUrl the webhook URL
+     * @param lane the delivery lane of the message
+     * @return the number of milliseconds to wait before posting the message, 0 to post it right away
+     */
+    public long reserve(String webhookUrl, SlackLane lane)
+    {
+        if (lane == SlackLane.INTERACTIVE) {
+            return reserve(webhookUrl);
+        }
+        long now = System.currentTimeMillis();
+        long wait = getLaneBucket(webhookUrl, lane).reserve(now);
+        return wait > 0 ? wait : getBucket(webhookUrl).tryAcquire(now);
+    }
+
+    /**
+     * Take the right to post a message that already reserved its slot with {@link #reserve(String, SlackLane)}.
+     *
+     * @param webhookUrl the webhook URL
+     * @param lane the delivery lane of the message
+     * @return the number of milliseconds to wait before trying again, 0 to post the message right away
+     */
+    public long acquire(String webhookUrl, SlackLane lane)
+    {
+        if (lane == SlackLane.INTERACTIVE) {
+            return getRemainingPause(webhookUrl);
+        }
+        return getBucket(webhookUrl).tryAcquire(System.currentTimeMillis());
+    }
+
+    /**
+     * @param webhookUrl the webhook URL
+     * @return the number of milliseconds to wait before posting to the given webhook, because Slack asked us to slow
+     *         down; 0 if we can post right away
+     */
+    public long getRemainingPause(String webhookUrl)
+    {
+        return getBucket(webhookUrl).getRemainingPause(System.currentTimeMillis());
+    }
+
+    /**
+     * Stop posting to the given webhook for a while, usually because Slack answered with a {@code Retry-After}
+     * header.
+     *
+     * @param webhookUrl the webhook URL
+     * @param duration the number of milliseconds to wait before posting again
+     */
+    public void pause(String webhookUrl, long duration)
+    {
+        getBucket(webhookUrl).pause(System.currentTimeMillis() + duration);
+    }
+
+    private Bucket getBucket(String webhookUrl)
+    {
+        return this.buckets.computeIfAbsent(webhookUrl, url -> new Bucket(this.rate, this.capacity));
+    }
+
+    private Bucket getLaneBucket(String webhookUrl, SlackLane lane)
+    {
+        return this.buckets.computeIfAbsent(lane.getId() + ' ' + webhookUrl,
+            key -> new Bucket(this.laneRates.get(lane), 1));
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.Arrays;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.annotation.Component;
+import org.xwiki.observation.AbstractEventListener;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+/**
+ * Makes sure the user names rendered by {@link SlackNotificationRenderer} are rendered again when the user profiles
+ * change.
+ *
+ * @version $Id$
+ */
+@Component
+@Named(SlackUserListener.NAME)
+@Singleton
+public class SlackUserListener extends AbstractEventListener
+{
+    /**
+     * The event listener name.
+     */
+    public static final String NAME = "slackUserListener";
+
+    @Inject
+    private SlackNotificationRenderer renderer;
+
+    /**
+     * Default constructor.
+     */
+    public SlackUserListener()
+    {
+        super(NAME, Arrays.asList(new DocumentUpdatedEvent(), new DocumentDeletedEvent()));
+    }
+
+    @Override
+    public void onEvent(Event event, Object source, Object data)
+    {
+        // Removing a document that is not a cached user profile is cheap, no need to check the user object.
+        this.renderer.invalidate(((XWikiDocument) source).getDocumentReference());
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.List;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xwiki.slack.SlackWebhook;
+
+/**
+ * Finds all the Slack channels that should be notified about a change of a document: the ones configured on the
+ * document space, on its ancestor spaces and on the whole wiki. The configurations are read from the
+ * {@link SlackConfigurationIndex}.
+ *
+ * @version $Id$
+ */
+@Component(roles = SlackWebhookResolver.class)
+@Singleton
+public class SlackWebhookResolver
+{
+    @Inject
+    private SlackConfigurationIndex index;
+
+    /**
+     * Finds the Slack channels that should be notified about a change of the given document. A channel configured in
+     * multiple places is returned only once, with the configuration that is the closest to the document.
+     *
+     * @param documentReference the document that changed
+     * @return the Slack channels, starting with the ones configured closest to the document
+     */
+    public List<SlackWebhook> getWebhooks(DocumentReference documentReference)
+    {
+        return this.index.getSnapshot(documentReference).getWebhooks();
+    }
+}
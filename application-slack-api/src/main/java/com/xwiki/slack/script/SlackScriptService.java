@@ -0,0 +1,132 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.script;
+
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import org.xwiki.component.annotation.Component;
+import org.xwiki.script.service.ScriptService;
+
+import com.xwiki.slack.SlackWebhookStatus;
+import com.xwiki.slack.internal.SlackCircuitBreaker;
+import com.xwiki.slack.internal.SlackDeliveryQueue;
+import com.xwiki.slack.internal.SlackLane;
+import com.xwiki.slack.internal.SlackMetrics;
+import com.xwiki.slack.internal.SlackOutbox;
+
+/**
+ * Exposes the state of the Slack integration to scripts.
+ *
+ * @version $Id$
+ */
+@Component
+@Named("slack")
+@Singleton
+public class SlackScriptService implements ScriptService
+{
+    @Inject
+    private SlackDeliveryQueue deliveryQueue;
+
+    @Inject
+    private SlackOutbox outbox;
+
+    @Inject
+    private SlackMetrics metrics;
+
+    @Inject
+    private SlackCircuitBreaker circuitBreaker;
+
+    /**
+     * @return the number of messages waiting to be posted to Slack
+     */
+    public int getQueueSize()
+    {
+        return this.deliveryQueue.getQueueSize();
+    }
+
+    /**
+     * @param lane the identifier of a delivery lane: {@code interactive}, {@code bulk} or {@code system}
+     * @return the number of messages of the given lane waiting to be posted to Slack, 0 for an unknown lane
+     */
+    public int getQueueSize(String lane)
+    {
+        for (SlackLane value : SlackLane.values()) {
+            if (value.getId().equals(lane)) {
+                return this.deliveryQueue.getQueueSize(value);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the number of messages that can still be queued before the overflow policy applies
+     */
+    public int getQueueRemainingCapacity()
+    {
+        return this.deliveryQueue.getRemainingCapacity();
+    }
+
+    /**
+     * @return the number of messages dropped because the delivery queue was full
+     */
+    public long getDroppedCount()
+    {
+        return this.deliveryQueue.getDroppedCount();
+    }
+
+    /**
+     * @return the number of messages that could not be delivered and are stored in the outbox to be posted later
+     */
+    public int getOutboxSize()
+    {
+        return this.outbox.getSize();
+    }
+
+    /**
+     * @param webhookUrl the URL of a Slack webhook
+     * @return the health of the given webhook: whether messages are posted to it, when it last succeeded and failed
+     */
+    public SlackWebhookStatus getWebhookStatus(String webhookUrl)
+    {
+        return this.circuitBreaker.getStatus(webhookUrl);
+    }
+
+    /**
+     * @return the value of each counter of the notification pipeline (sent, failed, skipped), by name, event type and
+     *         webhook
+     */
+    public Map<String, Long> getCounters()
+    {
+        return this.metrics.getCounters();
+    }
+
+    /**
+     * @return a summary of each latency timer of the notification pipeline (configuration resolution, message
+     *         building, HTTP requests), by name, event type and webhook
+     */
+    public Map<String, String> getTimers()
+    {
+        return this.metrics.getTimers();
+    }
+}
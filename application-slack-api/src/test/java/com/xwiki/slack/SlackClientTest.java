@@ -0,0 +1,246 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.xwiki.slack.internal.SlackDeliveryConfiguration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link SlackClient}, against a local HTTP server standing for Slack.
+ *
+ * @version $Id$
+ */
+public class SlackClientTest
+{
+    private static final int TIMEOUT = 500;
+
+    @Rule
+    public final MockitoComponentMockingRule<SlackClient> mocker =
+        new MockitoComponentMockingRule<>(SlackClient.class);
+
+    private SlackDeliveryConfiguration configuration;
+
+    private HttpServer server;
+
+    private ExecutorService serverThreads = Executors.newCachedThreadPool();
+
+    private ExecutorService requestThreads = Executors.newCachedThreadPool();
+
+    /**
+     * The client port of each request received by the server, i.e. the connection it came from.
+     */
+    private List<Integer> connections = new CopyOnWriteArrayList<>();
+
+    /**
+     * Released to answer the requests, which wait for it when {@link #blocking} is set.
+     */
+    private CountDownLatch answer = new CountDownLatch(1);
+
+    private volatile boolean blocking;
+
+    /**
+     * The value of the Retry-After header of the answers, none if {@code null}.
+     */
+    private volatile String retryAfter;
+
+    private String webhookUrl;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.configuration = this.mocker.getInstance(SlackDeliveryConfiguration.class);
+        when(this.configuration.getMaxConnections()).thenReturn(10);
+        when(this.configuration.getMaxConnectionsPerRoute()).thenReturn(2);
+        when(this.configuration.getConnectTimeout()).thenReturn(TIMEOUT);
+        when(this.configuration.getSocketTimeout()).thenReturn(TIMEOUT);
+        when(this.configuration.getConnectionRequestTimeout()).thenReturn(TIMEOUT);
+        when(this.configuration.getKeepAlive()).thenReturn(60000L);
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.setExecutor(this.serverThreads);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+        this.webhookUrl = "http://127.0.0.1:" + this.server.getAddress().getPort() + "/services/T/B/X";
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        this.answer.countDown();
+        this.requestThreads.shutdownNow();
+        this.server.stop(0);
+        this.serverThreads.shutdownNow();
+    }
+
+    @Test
+    public void reuseTheConnection() throws Exception
+    {
+        SlackClient client = this.mocker.getComponentUnderTest();
+
+        for (int i = 0; i < 5; i++) {
+            SlackDeliveryStatus status = client.postMessage("Message " + i, this.webhookUrl);
+            assertEquals(200, status.getStatusCode());
+            assertEquals("ok", status.getReason());
+        }
+
+        // The messages were posted one after the other on the same connection.
+        assertEquals(5, this.connections.size());
+        assertEquals(1, this.connections.stream().distinct().count());
+    }
+
+    @Test
+    public void waitForAFreeConnection() throws Exception
+    {
+        // Slack answers slowly but in time.
+        when(this.configuration.getSocketTimeout()).thenReturn(10 * TIMEOUT);
+        SlackClient client = this.mocker.getComponentUnderTest();
+        this.blocking = true;
+
+        // Both connections of the route are taken by the requests waiting for Slack.
+        Future<SlackDeliveryStatus> first = this.requestThreads.submit(() -> client.postMessage("1", this.webhookUrl));
+        Future<SlackDeliveryStatus> second = this.requestThreads.submit(() -> client.postMessage("2", this.webhookUrl));
+        waitForConnections(2);
+
+        long start = System.nanoTime();
+        try {
+            client.postMessage("3", this.webhookUrl);
+            fail("The third request should not get a connection.");
+        } catch (ConnectionPoolTimeoutException e) {
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5 * TIMEOUT);
+        }
+
+        this.blocking = false;
+        this.answer.countDown();
+        assertEquals(200, first.get(5, TimeUnit.SECONDS).getStatusCode());
+        assertEquals(200, second.get(5, TimeUnit.SECONDS).getStatusCode());
+        // The connections are released once the answers are read.
+        assertEquals(200, client.postMessage("3", this.webhookUrl).getStatusCode());
+        assertEquals(2, this.connections.stream().distinct().count());
+    }
+
+    @Test
+    public void giveUpOnASlowAnswer() throws Exception
+    {
+        SlackClient client = this.mocker.getComponentUnderTest();
+        this.blocking = true;
+
+        long start = System.nanoTime();
+        try {
+            client.postMessage("Message", this.webhookUrl);
+            fail("The request should time out.");
+        } catch (SocketTimeoutException e) {
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue(elapsed >= TIMEOUT && elapsed < 5 * TIMEOUT);
+        }
+    }
+
+    @Test
+    public void closeTheClientOnDispose() throws Exception
+    {
+        SlackClient client = this.mocker.getComponentUnderTest();
+        assertEquals(200, client.postMessage("Message", this.webhookUrl).getStatusCode());
+
+        client.dispose();
+
+        try {
+            client.postMessage("Message", this.webhookUrl);
+            fail("The client should be closed.");
+        } catch (IllegalStateException e) {
+            // The connection pool was shut down.
+        }
+    }
+
+    @Test
+    public void readTheRetryAfterHeader() throws Exception
+    {
+        SlackClient client = this.mocker.getComponentUnderTest();
+
+        this.retryAfter = "30";
+        assertEquals(30000L, client.postMessage("Message", this.webhookUrl).getRetryAfter());
+
+        // An oversized value must not fail the request, and is capped to a reasonable wait.
+        this.retryAfter = "99999999999999999999";
+        assertEquals(3600000L, client.postMessage("Message", this.webhookUrl).getRetryAfter());
+        this.retryAfter = String.valueOf(Long.MAX_VALUE);
+        assertEquals(3600000L, client.postMessage("Message", this.webhookUrl).getRetryAfter());
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        this.connections.add(exchange.getRemoteAddress().getPort());
+        try (InputStream input = exchange.getRequestBody()) {
+            while (input.read() >= 0) {
+                // Read the whole request.
+            }
+        }
+        if (this.blocking) {
+            try {
+                this.answer.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (this.retryAfter != null) {
+            exchange.getResponseHeaders().add("Retry-After", this.retryAfter);
+        }
+        byte[] body = "ok".getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    private void waitForConnections(int count) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (this.connections.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, this.connections.size());
+    }
+}
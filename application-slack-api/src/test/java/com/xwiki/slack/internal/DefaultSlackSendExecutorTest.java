@@ -0,0 +1,137 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link DefaultSlackSendExecutor}.
+ *
+ * @version $Id$
+ */
+public class DefaultSlackSendExecutorTest
+{
+    @Rule
+    public final MockitoComponentMockingRule<DefaultSlackSendExecutor> mocker =
+        new MockitoComponentMockingRule<>(DefaultSlackSendExecutor.class);
+
+    @Test
+    public void platformThreads() throws Exception
+    {
+        SlackDeliveryConfiguration configuration = this.mocker.getInstance(SlackDeliveryConfiguration.class);
+        when(configuration.isVirtualThreadsEnabled()).thenReturn(false);
+        when(configuration.getMaxConcurrentSends()).thenReturn(1);
+        DefaultSlackSendExecutor executor = this.mocker.getComponentUnderTest();
+        assertFalse(executor.isVirtual());
+
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        Thread[] threads = new Thread[3];
+        for (int i = 0; i < threads.length; i++) {
+            int index = i;
+            executor.execute(() -> {
+                threads[index] = Thread.currentThread();
+                if (index == 0) {
+                    awaitQuietly(blocker);
+                }
+                done.countDown();
+            });
+        }
+        // The first request occupies the only thread and the second one the only queue slot, so the third one runs
+        // in the calling thread.
+        assertSame(Thread.currentThread(), threads[2]);
+        blocker.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNotSame(Thread.currentThread(), threads[0]);
+    }
+
+    @Test
+    public void virtualThreadsWhenAvailable() throws Exception
+    {
+        SlackDeliveryConfiguration configuration = this.mocker.getInstance(SlackDeliveryConfiguration.class);
+        when(configuration.isVirtualThreadsEnabled()).thenReturn(true);
+        when(configuration.getMaxConcurrentSends()).thenReturn(2);
+        DefaultSlackSendExecutor executor = this.mocker.getComponentUnderTest();
+
+        // The requests run in virtual threads or in the fallback pool, depending on the JVM.
+        CountDownLatch done = new CountDownLatch(10);
+        for (int i = 0; i < 10; i++) {
+            executor.execute(done::countDown);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void rejectPlatformThreadRequestsAfterDispose() throws Exception
+    {
+        SlackDeliveryConfiguration configuration = this.mocker.getInstance(SlackDeliveryConfiguration.class);
+        when(configuration.isVirtualThreadsEnabled()).thenReturn(false);
+        when(configuration.getMaxConcurrentSends()).thenReturn(1);
+
+        assertRejectedAfterDispose(this.mocker.getComponentUnderTest());
+    }
+
+    @Test
+    public void rejectVirtualThreadRequestsAfterDispose() throws Exception
+    {
+        SlackDeliveryConfiguration configuration = this.mocker.getInstance(SlackDeliveryConfiguration.class);
+        when(configuration.isVirtualThreadsEnabled()).thenReturn(true);
+        when(configuration.getMaxConcurrentSends()).thenReturn(1);
+
+        assertRejectedAfterDispose(this.mocker.getComponentUnderTest());
+    }
+
+    private void assertRejectedAfterDispose(DefaultSlackSendExecutor executor) throws Exception
+    {
+        executor.dispose();
+
+        // The delivery queue relies on the exception to post the message itself.
+        CountDownLatch done = new CountDownLatch(1);
+        try {
+            executor.execute(done::countDown);
+            fail("The request should be rejected.");
+        } catch (RejectedExecutionException e) {
+            assertEquals(1, done.getCount());
+        }
+    }
+
+    private void awaitQuietly(CountDownLatch latch)
+    {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
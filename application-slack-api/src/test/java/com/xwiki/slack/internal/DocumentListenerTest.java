@@ -21,25 +21,41 @@
 package com.xwiki.slack.internal;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import javax.inject.Provider;
 
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.slf4j.Logger;
 import org.xwiki.bridge.event.DocumentUpdatingEvent;
 import org.xwiki.component.manager.ComponentLookupException;
 import org.xwiki.component.util.DefaultParameterizedType;
 import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
 import org.xwiki.test.mockito.MockitoComponentMockingRule;
 
 import com.xpn.xwiki.XWikiContext;
 import com.xpn.xwiki.doc.XWikiDocument;
 import com.xwiki.licensing.Licensor;
 import com.xwiki.slack.SlackConfiguration;
-
+import com.xwiki.slack.SlackConfigurationSnapshot;
+import com.xwiki.slack.SlackEventFilter;
+import com.xwiki.slack.SlackEventType;
+import com.xwiki.slack.SlackWebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -74,17 +90,30 @@ public class DocumentListenerTest
 
     private DocumentReference userReference;
 
+    private Provider<SlackConfiguration> slackConfigProvider;
+
+    private SlackConfigurationIndex configurationIndex;
+
     @Before
     public void setUp() throws ComponentLookupException
     {
-        Provider<SlackConfiguration> slackConfigProvider =
+        slackConfigProvider =
             mocker.getInstance(new DefaultParameterizedType(null, Provider.class, SlackConfiguration.class));
         when(slackConfigProvider.get()).thenReturn(this.configuration);
+        // The snapshot reflects the configuration set up by each test.
+        when(this.configuration.getSnapshot(any(DocumentReference.class))).thenAnswer(
+            invocation -> this.configuration.hasConfigurationSource() ? new SlackConfigurationSnapshot(
+                Collections.singletonList(new DocumentReference("wiki", "Space", "WebPreferences")),
+                this.configuration.isEnabled(), null, Collections.<SlackWebhook>emptyList())
+                : SlackConfigurationSnapshot.EMPTY);
 
         doc = mock(XWikiDocument.class);
         docReference = new DocumentReference("wiki", "Space", "Page");
         when(doc.getDocumentReference()).thenReturn(docReference);
 
+        configurationIndex = mocker.getInstance(SlackConfigurationIndex.class);
+        when(configurationIndex.isConfigured(docReference)).thenReturn(true);
+
         event = spy(new DocumentUpdatingEvent());
 
         listener = mocker.getComponentUnderTest();
@@ -116,4 +145,98 @@ public class DocumentListenerTest
 
         verify(doc, times(1)).getDocumentReference();
     }
+
+    @Test
+    public void remoteEvent() throws Exception
+    {
+        RemoteObservationManagerContext remoteContext = mocker.getInstance(RemoteObservationManagerContext.class);
+        when(remoteContext.isRemoteState()).thenReturn(true);
+
+        listener.onEvent(event, doc, context);
+
+        verify(configurationIndex, never()).isConfigured(any(DocumentReference.class));
+        verify(licensor, never()).hasLicensure(any(DocumentReference.class));
+    }
+
+    @Test
+    public void documentWithoutConfiguration()
+    {
+        when(configurationIndex.isConfigured(docReference)).thenReturn(false);
+
+        listener.onEvent(event, doc, context);
+
+        verify(licensor, never()).hasLicensure(any(DocumentReference.class));
+        verify(slackConfigProvider, never()).get();
+    }
+
+    @Test
+    public void licenseVerdictIsReused()
+    {
+        when(configuration.hasConfigurationSource()).thenReturn(true);
+
+        listener.onEvent(event, doc, context);
+        listener.onEvent(event, doc, context);
+
+        verify(licensor, times(1)).hasLicensure(any(DocumentReference.class));
+        verify(slackConfigProvider, times(2)).get();
+    }
+
+    @Test
+    public void notifyEachChannel() throws Exception
+    {
+        DocumentReference configurationReference = new DocumentReference("wiki", "Space", "WebPreferences");
+        SlackEventFilter creationsOnly = new SlackEventFilter(SlackEventType.DOCUMENT_CREATED.getMask(),
+            Collections.<String>emptyList(), Collections.<String>emptyList(), Collections.<String>emptyList(),
+            Collections.<String>emptyList(), false);
+        List<SlackWebhook> webhooks = Arrays.asList(
+            new SlackWebhook(configurationReference, "space", "https://hooks/space", true, 5, 0,
+                SlackEventFilter.ALL),
+            new SlackWebhook(configurationReference, "disabled", "https://hooks/disabled", false, 0, 0,
+                SlackEventFilter.ALL),
+            new SlackWebhook(configurationReference, "creations", "https://hooks/creations", true, 0, 0,
+                creationsOnly),
+            new SlackWebhook(configurationReference, "wiki", "https://hooks/wiki", true, 0, 10,
+                SlackEventFilter.ALL));
+        when(this.configuration.getSnapshot(docReference)).thenReturn(new SlackConfigurationSnapshot(
+            Collections.singletonList(configurationReference), true, "https://hooks/space", webhooks));
+
+        listener.onEvent(event, doc, context);
+
+        SlackMessageAggregator aggregator = mocker.getInstance(SlackMessageAggregator.class);
+        ArgumentCaptor<SlackNotification> notifications = ArgumentCaptor.forClass(SlackNotification.class);
+        verify(aggregator, times(2)).add(notifications.capture(), anyLong(), anyInt());
+        // Each channel keeps its own coalescing window and digest threshold.
+        verify(aggregator).add(any(SlackNotification.class), eq(5L), eq(0));
+        verify(aggregator).add(any(SlackNotification.class), eq(0L), eq(10));
+
+        List<SlackNotification> sent = notifications.getAllValues();
+        assertEquals("https://hooks/space", sent.get(0).getWebhookUrl());
+        assertEquals("https://hooks/wiki", sent.get(1).getWebhookUrl());
+        // The notification is prepared once for all the channels.
+        assertSame(sent.get(0).getSource(), sent.get(1).getSource());
+    }
+
+    @Test
+    public void skipTheChannelsAlreadyNotified() throws Exception
+    {
+        DocumentReference configurationReference = new DocumentReference("wiki", "Space", "WebPreferences");
+        List<SlackWebhook> webhooks = Arrays.asList(
+            new SlackWebhook(configurationReference, "space", "https://hooks/space", true, 0, 0,
+                SlackEventFilter.ALL),
+            new SlackWebhook(configurationReference, "wiki", "https://hooks/wiki", true, 0, 0,
+                SlackEventFilter.ALL));
+        when(this.configuration.getSnapshot(docReference)).thenReturn(new SlackConfigurationSnapshot(
+            Collections.singletonList(configurationReference), true, "https://hooks/space", webhooks));
+        when(doc.getVersion()).thenReturn("2.1");
+        SlackDeduplicator deduplicator = mocker.getInstance(SlackDeduplicator.class);
+        when(deduplicator.isDuplicate(eq(SlackEventType.DOCUMENT_UPDATED), eq(docReference), anyString(),
+            eq("https://hooks/space"))).thenReturn(true);
+
+        listener.onEvent(event, doc, context);
+
+        SlackMessageAggregator aggregator = mocker.getInstance(SlackMessageAggregator.class);
+        ArgumentCaptor<SlackNotification> notification = ArgumentCaptor.forClass(SlackNotification.class);
+        verify(aggregator).add(notification.capture(), anyLong(), anyInt());
+        assertEquals("https://hooks/wiki", notification.getValue().getWebhookUrl());
+    }
 }
@@ -0,0 +1,127 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+import org.xwiki.model.reference.DocumentReference;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link ReferencePatternMatcher}.
+ *
+ * @version $Id$
+ */
+public class ReferencePatternMatcherTest
+{
+    @Test
+    public void literal()
+    {
+        assertTrue(matches("Main.WebHome", "Main", "WebHome"));
+        assertFalse(matches("Main.WebHome", "Main", "Sub", "WebHome"));
+        assertTrue(matches("XWiki.XWikiGuest", "XWiki", "XWikiGuest"));
+    }
+
+    @Test
+    public void trailingWildcard()
+    {
+        assertTrue(matches("XWiki.*", "XWiki", "Foo"));
+        assertTrue(matches("XWiki.*", "XWiki", "A", "B"));
+        assertFalse(matches("XWiki.*", "Main", "Foo"));
+        assertFalse(matches("XWiki.*", "XWiki"));
+    }
+
+    @Test
+    public void leadingWildcard()
+    {
+        assertTrue(matches("*.WebPreferences", "A", "WebPreferences"));
+        assertTrue(matches("*.WebPreferences", "A", "B", "WebPreferences"));
+        assertFalse(matches("*.WebPreferences", "A", "WebHome"));
+        assertTrue(matches("*.Foo.*", "X", "Foo", "Y"));
+        assertTrue(matches("*", "A", "B"));
+    }
+
+    @Test
+    public void innerWildcard()
+    {
+        assertTrue(matches("A.*.WebHome", "A", "B", "WebHome"));
+        assertFalse(matches("A.*.WebHome", "A", "B", "C", "WebHome"));
+        assertTrue(matches("Sandbox*.*", "Sandbox2", "X"));
+    }
+
+    @Test
+    public void escapedDot()
+    {
+        assertTrue(matches("A\\.B.C", "A.B", "C"));
+        assertTrue(matches("A\\.B.*", "A.B", "C", "D"));
+        assertFalse(matches("A\\.B.C", "A", "B", "C"));
+    }
+
+    @Test
+    public void regex()
+    {
+        assertTrue(matches("regex:.*Test.*", "A", "MyTest"));
+        assertFalse(matches("regex:.*Test.*", "A", "Page"));
+    }
+
+    @Test
+    public void escapedWildcard()
+    {
+        assertTrue(matches("A.B\\*", "A", "B*"));
+        assertFalse(matches("A.B\\*", "A", "Bx"));
+        assertTrue(matches("A.B\\**", "A", "B*x"));
+        assertFalse(matches("A.B\\**", "A", "Bxx"));
+        assertTrue(matches("*.B\\*", "X", "A", "B*"));
+    }
+
+    @Test
+    public void invalidRegex()
+    {
+        assertFalse(matches("regex:[", "A", "B"));
+        ReferencePatternMatcher matcher = new ReferencePatternMatcher(Arrays.asList("regex:[", "A.*"));
+        assertFalse(matcher.isEmpty());
+        assertTrue(matcher.matches(reference("A", "B")));
+        assertFalse(matcher.matches(reference("C", "B")));
+    }
+
+    @Test
+    public void empty()
+    {
+        ReferencePatternMatcher matcher = new ReferencePatternMatcher(Arrays.asList("", "  "));
+        assertTrue(matcher.isEmpty());
+        assertFalse(matcher.matches(reference("A", "B")));
+        assertTrue(new ReferencePatternMatcher(Collections.<String>emptyList()).isEmpty());
+    }
+
+    private boolean matches(String pattern, String... segments)
+    {
+        return new ReferencePatternMatcher(Collections.singletonList(pattern)).matches(reference(segments));
+    }
+
+    private DocumentReference reference(String... segments)
+    {
+        return new DocumentReference("wiki", Arrays.asList(segments).subList(0, segments.length - 1),
+            segments[segments.length - 1]);
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.xwiki.model.reference.DocumentReference;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xpn.xwiki.objects.BaseProperty;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link SlackChangeSummary}.
+ *
+ * @version $Id$
+ */
+public class SlackChangeSummaryTest
+{
+    private static final DocumentReference USERS_CLASS = new DocumentReference("wiki", "XWiki", "XWikiUsers");
+
+    private static final String EMAIL = "email";
+
+    @Test
+    public void content()
+    {
+        XWikiDocument before = mockDocument("= Intro =\none\ntwo\n= Install =\nthree\nfour\n= End =\nfive");
+        XWikiDocument after =
+            mockDocument("= Intro =\none\ntwo\n= Install =\nthree & more\nfour\nextra\n= End =\nfive");
+
+        SlackChangeSummary summary = SlackChangeSummary.compute(before, after);
+
+        assertEquals(2, summary.getAddedLines());
+        assertEquals(1, summary.getRemovedLines());
+        assertFalse(summary.isApproximate());
+        assertEquals(Collections.singleton("Install"), summary.getSections());
+        assertEquals(" [+2 -1 lines in Install]", summary.appendTo(new SlackMessageBuilder()).toString());
+    }
+
+    @Test
+    public void movedLines()
+    {
+        SlackChangeSummary summary =
+            SlackChangeSummary.compute(mockDocument("a\nb\nc\nd"), mockDocument("a\nc\nb\nd"));
+
+        assertEquals(0, summary.getAddedLines());
+        assertEquals(0, summary.getRemovedLines());
+        assertTrue(summary.isEmpty());
+        assertEquals("", summary.appendTo(new SlackMessageBuilder()).toString());
+    }
+
+    @Test
+    public void newSections()
+    {
+        SlackChangeSummary summary = SlackChangeSummary.compute(mockDocument("text"),
+            mockDocument("text\n= A =\n== B ==\n= C & D =\n= E ="));
+
+        assertEquals(4, summary.getAddedLines());
+        assertEquals(" [+4 -0 lines in A, B, C &amp; D and 1 more]",
+            summary.appendTo(new SlackMessageBuilder()).toString());
+    }
+
+    @Test
+    public void largeContent()
+    {
+        char[] chars = new char[SlackChangeSummary.MAX_CONTENT_LENGTH + 1];
+        Arrays.fill(chars, 'x');
+        String large = new String(chars);
+
+        SlackChangeSummary summary = SlackChangeSummary.compute(mockDocument("a\nb"), mockDocument(large + "\ny"));
+
+        assertTrue(summary.isApproximate());
+        assertEquals(2, summary.getAddedLines());
+        assertEquals(2, summary.getRemovedLines());
+        assertEquals(" [~+2 -2 lines]", summary.appendTo(new SlackMessageBuilder()).toString());
+    }
+
+    @Test
+    public void objects()
+    {
+        XWikiDocument before = mockDocument("text");
+        XWikiDocument after = mockDocument("text");
+        Map<DocumentReference, List<BaseObject>> beforeObjects = new HashMap<>();
+        beforeObjects.put(USERS_CLASS, Arrays.asList(mockObject("a@example.com", "John")));
+        when(before.getXObjects()).thenReturn(beforeObjects);
+        Map<DocumentReference, List<BaseObject>> afterObjects = new HashMap<>();
+        afterObjects.put(USERS_CLASS,
+            Arrays.asList(mockObject("b@example.com", "John"), mockObject("c@example.com", "Jane")));
+        when(after.getXObjects()).thenReturn(afterObjects);
+
+        SlackChangeSummary summary = SlackChangeSummary.compute(before, after);
+
+        assertEquals(new LinkedHashSet<>(Arrays.asList("XWikiUsers.email", "XWikiUsers")), summary.getProperties());
+        assertEquals(" [changed XWikiUsers.email, XWikiUsers]",
+            summary.appendTo(new SlackMessageBuilder()).toString());
+    }
+
+    private XWikiDocument mockDocument(String content)
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getContent()).thenReturn(content);
+        when(document.getXObjects()).thenReturn(new HashMap<DocumentReference, List<BaseObject>>());
+        return document;
+    }
+
+    private BaseObject mockObject(String email, String firstName)
+    {
+        BaseObject object = mock(BaseObject.class);
+        when(object.getPropertyList()).thenReturn(new LinkedHashSet<>(Arrays.asList(EMAIL, "first_name")));
+        BaseProperty emailProperty = mock(BaseProperty.class);
+        when(emailProperty.getValue()).thenReturn(email);
+        when(object.safeget(EMAIL)).thenReturn(emailProperty);
+        BaseProperty firstNameProperty = mock(BaseProperty.class);
+        when(firstNameProperty.getValue()).thenReturn(firstName);
+        when(object.safeget("first_name")).thenReturn(firstNameProperty);
+        return object;
+    }
+}
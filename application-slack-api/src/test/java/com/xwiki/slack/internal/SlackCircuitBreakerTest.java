@@ -0,0 +1,107 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xwiki.slack.SlackWebhookStatus;
+import com.xwiki.slack.SlackWebhookStatus.State;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link SlackCircuitBreaker}.
+ *
+ * @version $Id$
+ */
+public class SlackCircuitBreakerTest
+{
+    private static final String WEBHOOK = "https://hooks.slack.com/services/T/B/X";
+
+    @Rule
+    public final MockitoComponentMockingRule<SlackCircuitBreaker> mocker =
+        new MockitoComponentMockingRule<>(SlackCircuitBreaker.class);
+
+    private SlackCircuitBreaker circuitBreaker;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        SlackDeliveryConfiguration configuration = this.mocker.getInstance(SlackDeliveryConfiguration.class);
+        when(configuration.getCircuitBreakerThreshold()).thenReturn(2);
+        when(configuration.getCircuitBreakerProbeInterval()).thenReturn(50L);
+        this.circuitBreaker = this.mocker.getComponentUnderTest();
+    }
+
+    @Test
+    public void openAfterConsecutiveFailuresAndCloseAfterProbe() throws Exception
+    {
+        SlackWebhookStatus status = this.circuitBreaker.getStatus(WEBHOOK);
+        assertEquals(State.CLOSED, status.getState());
+        assertNull(status.getLastSuccess());
+
+        this.circuitBreaker.recordFailure(WEBHOOK, "404 no_service");
+        assertTrue(this.circuitBreaker.allowRequest(WEBHOOK));
+        this.circuitBreaker.recordFailure(WEBHOOK, "404 no_service");
+        assertFalse(this.circuitBreaker.allowRequest(WEBHOOK));
+
+        status = this.circuitBreaker.getStatus(WEBHOOK);
+        assertEquals(State.OPEN, status.getState());
+        assertEquals(2, status.getConsecutiveFailures());
+        assertEquals("404 no_service", status.getLastError());
+        assertNotNull(status.getLastErrorDate());
+
+        Thread.sleep(60);
+        // A single probe is allowed.
+        assertTrue(this.circuitBreaker.allowRequest(WEBHOOK));
+        assertFalse(this.circuitBreaker.allowRequest(WEBHOOK));
+        assertEquals(State.HALF_OPEN, this.circuitBreaker.getStatus(WEBHOOK).getState());
+
+        this.circuitBreaker.recordSuccess(WEBHOOK);
+        assertTrue(this.circuitBreaker.allowRequest(WEBHOOK));
+        status = this.circuitBreaker.getStatus(WEBHOOK);
+        assertEquals(State.CLOSED, status.getState());
+        assertEquals(0, status.getConsecutiveFailures());
+        assertNotNull(status.getLastSuccess());
+    }
+
+    @Test
+    public void failedProbeReopens() throws Exception
+    {
+        this.circuitBreaker.recordFailure(WEBHOOK, "500 error");
+        this.circuitBreaker.recordFailure(WEBHOOK, "500 error");
+        Thread.sleep(60);
+        assertTrue(this.circuitBreaker.allowRequest(WEBHOOK));
+
+        this.circuitBreaker.recordFailure(WEBHOOK, "java.net.SocketTimeoutException: Read timed out");
+
+        assertFalse(this.circuitBreaker.allowRequest(WEBHOOK));
+        assertEquals(State.OPEN, this.circuitBreaker.getStatus(WEBHOOK).getState());
+        assertEquals(1, this.circuitBreaker.getStatuses().size());
+    }
+}
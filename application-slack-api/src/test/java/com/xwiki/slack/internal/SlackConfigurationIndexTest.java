@@ -0,0 +1,383 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.inject.Provider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xwiki.slack.SlackConfigurationSnapshot;
+import com.xwiki.slack.SlackEventFilter;
+import com.xwiki.slack.SlackEventType;
+import com.xwiki.slack.SlackWebhook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link SlackConfigurationIndex}.
+ *
+ * @version $Id$
+ */
+public class SlackConfigurationIndexTest
+{
+    private static final int DEPTH = 12;
+
+    @Rule
+    public final MockitoComponentMockingRule<SlackConfigurationIndex> mocker =
+        new MockitoComponentMockingRule<>(SlackConfigurationIndex.class);
+
+    private SlackConfigurationIndex index;
+
+    private QueryManager queryManager;
+
+    private Query query = mock(Query.class);
+
+    private XWikiContext xcontext = mock(XWikiContext.class);
+
+    private XWiki xwiki = mock(XWiki.class);
+
+    private WikiReference wikiReference = new WikiReference("wiki");
+
+    /**
+     * The spaces {@code S1}, {@code S1.S2}, ..., {@code S1.S2...S12}.
+     */
+    private List<SpaceReference> spaces = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.index = this.mocker.getComponentUnderTest();
+
+        Provider<XWikiContext> xcontextProvider = this.mocker.getInstance(XWikiContext.TYPE_PROVIDER);
+        when(xcontextProvider.get()).thenReturn(this.xcontext);
+        when(this.xcontext.getWiki()).thenReturn(this.xwiki);
+
+        this.queryManager = this.mocker.getInstance(QueryManager.class);
+        when(this.queryManager.createQuery("from doc.object(Slack.Code.SlackConfigurationClass) config", Query.XWQL))
+            .thenReturn(this.query);
+        when(this.query.setWiki("wiki")).thenReturn(this.query);
+
+        SpaceReference space = new SpaceReference("S1", this.wikiReference);
+        this.spaces.add(space);
+        for (int i = 2; i <= DEPTH; i++) {
+            space = new SpaceReference("S" + i, space);
+            this.spaces.add(space);
+        }
+
+        // Webhooks configured on S1, on S1...S6 and on the whole wiki.
+        DocumentReference topConfig = configure(new DocumentReference("WebPreferences", this.spaces.get(0)), "top");
+        DocumentReference middleConfig =
+            configure(new DocumentReference("WebPreferences", this.spaces.get(5)), "middle");
+        DocumentReference wikiConfig =
+            configure(new DocumentReference("wiki", "XWiki", "XWikiPreferences"), "top", "wiki");
+        when(this.query.execute()).thenReturn(Arrays.<Object>asList("S1.WebPreferences",
+            "S1.S2.S3.S4.S5.S6.WebPreferences", "XWiki.XWikiPreferences"));
+        DocumentReferenceResolver<String> resolver =
+            this.mocker.getInstance(DocumentReferenceResolver.TYPE_STRING, "current");
+        when(resolver.resolve("S1.WebPreferences", this.wikiReference)).thenReturn(topConfig);
+        when(resolver.resolve("S1.S2.S3.S4.S5.S6.WebPreferences", this.wikiReference)).thenReturn(middleConfig);
+        when(resolver.resolve("XWiki.XWikiPreferences", this.wikiReference)).thenReturn(wikiConfig);
+    }
+
+    @Test
+    public void getConfigurationReferencesInDeepHierarchy() throws Exception
+    {
+        DocumentReference deepPage = new DocumentReference("Page", this.spaces.get(DEPTH - 1));
+
+        assertEquals(Arrays.asList(new DocumentReference("WebPreferences", this.spaces.get(5)),
+            new DocumentReference("WebPreferences", this.spaces.get(0)),
+            new DocumentReference("wiki", "XWiki", "XWikiPreferences")),
+            this.index.getConfigurationReferences(deepPage));
+
+        DocumentReference shallowPage = new DocumentReference("Page", this.spaces.get(2));
+        assertEquals(Arrays.asList(new DocumentReference("WebPreferences", this.spaces.get(0)),
+            new DocumentReference("wiki", "XWiki", "XWikiPreferences")),
+            this.index.getConfigurationReferences(shallowPage));
+
+        // The index is built once per wiki.
+        verify(this.query, times(1)).execute();
+    }
+
+    @Test
+    public void getWebhooksInDeepHierarchy() throws Exception
+    {
+        DocumentReference deepPage = new DocumentReference("Page", this.spaces.get(DEPTH - 1));
+        SlackWebhookResolver resolver = new SlackWebhookResolver();
+        ReflectionUtils.setFieldValue(resolver, "index", this.index);
+
+        List<SlackWebhook> webhooks = resolver.getWebhooks(deepPage);
+
+        // Each channel once, with the closest configuration first.
+        assertEquals(3, webhooks.size());
+        assertEquals("https://hooks.slack.com/middle", webhooks.get(0).getUrl());
+        assertEquals("https://hooks.slack.com/top", webhooks.get(1).getUrl());
+        assertEquals(new DocumentReference("WebPreferences", this.spaces.get(0)),
+            webhooks.get(1).getConfigurationReference());
+        assertEquals("https://hooks.slack.com/wiki", webhooks.get(2).getUrl());
+    }
+
+    @Test
+    public void getSnapshot() throws Exception
+    {
+        DocumentReference deepPage = new DocumentReference("Page", this.spaces.get(DEPTH - 1));
+        SlackConfigurationSnapshot snapshot = this.index.getSnapshot(deepPage);
+
+        assertTrue(snapshot.hasConfigurationSource());
+        assertTrue(snapshot.isEnabled());
+        assertEquals("https://hooks.slack.com/middle", snapshot.getWebhookUrl());
+        assertEquals(3, snapshot.getWebhooks().size());
+        // Resolved once per space.
+        assertSame(snapshot, this.index.getSnapshot(new DocumentReference("Other", this.spaces.get(DEPTH - 1))));
+
+        // Disabling the closest channel publishes a new snapshot, the previous one is left untouched.
+        DocumentReference middleConfig = new DocumentReference("WebPreferences", this.spaces.get(5));
+        XWikiDocument config = mockConfiguration(middleConfig, "middle");
+        BaseObject object = config.getXObjects(SlackConfigurationSource.CLASS_REFERENCE).get(0);
+        when(object.getIntValue("enabled", 1)).thenReturn(0);
+        this.index.update(config);
+
+        assertFalse(this.index.getSnapshot(deepPage).getWebhooks().get(0).isEnabled());
+        assertTrue(snapshot.getWebhooks().get(0).isEnabled());
+    }
+
+    @Test
+    public void disabledChannelInSpaceUnderEnabledWikiChannel() throws Exception
+    {
+        // The space configuration holds a disabled channel followed by an enabled one.
+        DocumentReference middleConfig = new DocumentReference("WebPreferences", this.spaces.get(5));
+        XWikiDocument config = mockConfiguration(middleConfig, "middle", "other");
+        List<BaseObject> objects = config.getXObjects(SlackConfigurationSource.CLASS_REFERENCE);
+        when(objects.get(0).getIntValue("enabled", 1)).thenReturn(0);
+        this.index.update(config);
+
+        SlackConfigurationSnapshot snapshot =
+            this.index.getSnapshot(new DocumentReference("Page", this.spaces.get(DEPTH - 1)));
+        assertTrue(snapshot.isEnabled());
+        List<SlackWebhook> webhooks = snapshot.getWebhooks();
+        assertEquals(4, webhooks.size());
+        assertEquals("https://hooks.slack.com/middle", webhooks.get(0).getUrl());
+        assertFalse(webhooks.get(0).isEnabled());
+        assertTrue(webhooks.get(1).isEnabled());
+        assertTrue(webhooks.get(2).isEnabled());
+        assertEquals("https://hooks.slack.com/wiki", webhooks.get(3).getUrl());
+        assertTrue(webhooks.get(3).isEnabled());
+
+        // Disabling all the channels of the space keeps the channels configured for the whole wiki.
+        when(config.getXObjects(SlackConfigurationSource.CLASS_REFERENCE)).thenReturn(objects.subList(0, 1));
+        this.index.update(config);
+        assertFalse(this.index.getWebhooks(middleConfig).get(0).isEnabled());
+        snapshot = this.index.getSnapshot(new DocumentReference("Page", this.spaces.get(DEPTH - 1)));
+        assertTrue(snapshot.isEnabled());
+        assertFalse(snapshot.getWebhooks().get(0).isEnabled());
+        assertEquals("https://hooks.slack.com/wiki", snapshot.getWebhooks().get(2).getUrl());
+        assertTrue(snapshot.getWebhooks().get(2).isEnabled());
+
+        // The channels disabled in a space are not notified about its documents, even if enabled for the whole wiki.
+        DocumentReference topConfig = new DocumentReference("WebPreferences", this.spaces.get(0));
+        XWikiDocument top = mockConfiguration(topConfig, "top", "wiki");
+        for (BaseObject topObject : top.getXObjects(SlackConfigurationSource.CLASS_REFERENCE)) {
+            when(topObject.getIntValue("enabled", 1)).thenReturn(0);
+        }
+        this.index.update(top);
+        snapshot = this.index.getSnapshot(new DocumentReference("Page", this.spaces.get(2)));
+        assertFalse(snapshot.isEnabled());
+        assertEquals(2, snapshot.getWebhooks().size());
+        assertFalse(snapshot.getWebhooks().get(1).isEnabled());
+        assertTrue(this.index.getSnapshot(new DocumentReference("wiki", "Other", "Page")).isEnabled());
+    }
+
+    @Test
+    public void removeDuplicateWebhookUrls() throws Exception
+    {
+        // The space configuration repeats its channel (with some spaces around the URL) and the wiki channel.
+        DocumentReference middleConfig = new DocumentReference("WebPreferences", this.spaces.get(5));
+        XWikiDocument config = mockConfiguration(middleConfig, "middle", "wiki", "middle");
+        BaseObject copy = config.getXObjects(SlackConfigurationSource.CLASS_REFERENCE).get(2);
+        when(copy.getStringValue("channelUrl")).thenReturn(" https://hooks.slack.com/middle ");
+        this.index.update(config);
+
+        List<SlackWebhook> webhooks =
+            this.index.getSnapshot(new DocumentReference("Page", this.spaces.get(DEPTH - 1))).getWebhooks();
+
+        assertEquals(3, webhooks.size());
+        assertEquals("https://hooks.slack.com/middle", webhooks.get(0).getUrl());
+        assertEquals("https://hooks.slack.com/wiki", webhooks.get(1).getUrl());
+        // The closest configuration of a channel wins.
+        assertEquals(middleConfig, webhooks.get(1).getConfigurationReference());
+        assertEquals("https://hooks.slack.com/top", webhooks.get(2).getUrl());
+        assertEquals(new DocumentReference("WebPreferences", this.spaces.get(0)),
+            webhooks.get(2).getConfigurationReference());
+    }
+
+    @Test
+    public void getWebhookEvents() throws Exception
+    {
+        DocumentReference topConfig = new DocumentReference("WebPreferences", this.spaces.get(0));
+        assertTrue(this.index.getWebhooks(topConfig).get(0).isEventEnabled(SlackEventType.DOCUMENT_UPDATED));
+
+        XWikiDocument config = mockConfiguration(topConfig, "top");
+        BaseObject object = config.getXObjects(SlackConfigurationSource.CLASS_REFERENCE).get(0);
+        when(object.getListValue("events")).thenReturn(Arrays.asList("documentCreated", "documentDeleted"));
+        this.index.update(config);
+
+        SlackWebhook webhook = this.index.getWebhooks(topConfig).get(0);
+        assertEquals(SlackEventType.DOCUMENT_CREATED.getMask() | SlackEventType.DOCUMENT_DELETED.getMask(),
+            webhook.getEvents());
+        assertTrue(webhook.isEventEnabled(SlackEventType.DOCUMENT_DELETED));
+        assertFalse(webhook.isEventEnabled(SlackEventType.DOCUMENT_UPDATED));
+    }
+
+    @Test
+    public void getWebhookDefaultCoalesceWindow() throws Exception
+    {
+        DocumentReference topConfig = new DocumentReference("WebPreferences", this.spaces.get(0));
+        XWikiDocument config = mockConfiguration(topConfig, "top");
+        BaseObject object = config.getXObjects(SlackConfigurationSource.CLASS_REFERENCE).get(0);
+        // The channels configured before the notifications could be coalesced have no value.
+        when(object.getIntValue(eq("coalesceWindow"), anyInt())).thenAnswer(invocation -> invocation.getArguments()[1]);
+        this.index.update(config);
+
+        // Delivered right away, unless the administrator opts in.
+        assertEquals(0, this.index.getWebhooks(topConfig).get(0).getCoalesceWindow());
+    }
+
+    @Test
+    public void getWebhookFilter() throws Exception
+    {
+        DocumentReference topConfig = new DocumentReference("WebPreferences", this.spaces.get(0));
+        XWikiDocument config = mockConfiguration(topConfig, "top");
+        BaseObject object = config.getXObjects(SlackConfigurationSource.CLASS_REFERENCE).get(0);
+        when(object.getLargeStringValue("excludeDocuments")).thenReturn("Sandbox.*\n*.WebPreferences\n");
+        when(object.getLargeStringValue("excludeAuthors")).thenReturn("XWiki.Bot");
+        when(object.getIntValue("excludeMinorEdits", 0)).thenReturn(1);
+        this.index.update(config);
+
+        SlackEventFilter filter = this.index.getWebhooks(topConfig).get(0).getFilter();
+        DocumentReference user = new DocumentReference("wiki", "XWiki", "User");
+        DocumentReference page = new DocumentReference("wiki", "Main", "Page");
+        assertTrue(filter.accept(SlackEventType.DOCUMENT_UPDATED, page, user, false));
+        assertTrue(filter.accept(SlackEventType.DOCUMENT_CREATED, page, null, false));
+        assertFalse(filter.accept(SlackEventType.DOCUMENT_UPDATED, page, user, true));
+        assertFalse(filter.accept(SlackEventType.DOCUMENT_UPDATED,
+            new DocumentReference("wiki", "Sandbox", "Test"), user, false));
+        assertFalse(filter.accept(SlackEventType.DOCUMENT_UPDATED,
+            new DocumentReference("wiki", "Main", "WebPreferences"), user, false));
+        assertFalse(filter.accept(SlackEventType.DOCUMENT_UPDATED, page,
+            new DocumentReference("wiki", "XWiki", "Bot"), false));
+    }
+
+    @Test
+    public void getConfigurationReferencesWithoutConfiguration() throws Exception
+    {
+        DocumentReference page = new DocumentReference("wiki", Arrays.asList("A", "B", "C"), "Page");
+        when(this.query.execute()).thenReturn(Collections.emptyList());
+
+        assertTrue(this.index.getConfigurationReferences(page).isEmpty());
+        assertSame(SlackConfigurationSnapshot.EMPTY, this.index.getSnapshot(page));
+        // The negative result is remembered.
+        assertTrue(this.index.getConfigurationReferences(page).isEmpty());
+        verify(this.query, times(1)).execute();
+    }
+
+    @Test
+    public void isConfigured() throws Exception
+    {
+        // Only the webhook configured on S1...S6.
+        when(this.query.execute()).thenReturn(Arrays.<Object>asList("S1.S2.S3.S4.S5.S6.WebPreferences"));
+
+        assertTrue(this.index.isConfigured(new DocumentReference("Page", this.spaces.get(DEPTH - 1))));
+        assertTrue(this.index.isConfigured(new DocumentReference("Page", this.spaces.get(5))));
+        assertFalse(this.index.isConfigured(new DocumentReference("Page", this.spaces.get(4))));
+        assertFalse(this.index.isConfigured(new DocumentReference("wiki", "Other", "Page")));
+
+        // The wiki preferences apply to all the documents.
+        this.index.update(mockConfiguration(new DocumentReference("wiki", "XWiki", "XWikiPreferences"), "wiki"));
+        assertTrue(this.index.isConfigured(new DocumentReference("wiki", "Other", "Page")));
+    }
+
+    @Test
+    public void updateInvalidatesResolvedSpaces() throws Exception
+    {
+        DocumentReference deepPage = new DocumentReference("Page", this.spaces.get(DEPTH - 1));
+        assertEquals(3, this.index.getConfigurationReferences(deepPage).size());
+
+        DocumentReference deepConfigReference = new DocumentReference("WebPreferences", this.spaces.get(DEPTH - 1));
+        XWikiDocument deepConfig = mockConfiguration(deepConfigReference, "deep");
+        this.index.update(deepConfig);
+
+        List<DocumentReference> configReferences = this.index.getConfigurationReferences(deepPage);
+        assertEquals(4, configReferences.size());
+        assertEquals(deepConfigReference, configReferences.get(0));
+
+        this.index.remove(deepConfigReference);
+        assertEquals(3, this.index.getConfigurationReferences(deepPage).size());
+    }
+
+    private DocumentReference configure(DocumentReference reference, String... channels) throws Exception
+    {
+        XWikiDocument document = mockConfiguration(reference, channels);
+        when(this.xwiki.getDocument(reference, this.xcontext)).thenReturn(document);
+        return reference;
+    }
+
+    private XWikiDocument mockConfiguration(DocumentReference reference, String... channels)
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getDocumentReference()).thenReturn(reference);
+        List<BaseObject> objects = new ArrayList<>();
+        for (String channel : channels) {
+            BaseObject object = mock(BaseObject.class);
+            when(object.getStringValue("channelName")).thenReturn(channel);
+            when(object.getStringValue("channelUrl")).thenReturn("https://hooks.slack.com/" + channel);
+            when(object.getIntValue("enabled", 1)).thenReturn(1);
+            objects.add(object);
+        }
+        when(document.getXObjects(SlackConfigurationSource.CLASS_REFERENCE)).thenReturn(objects);
+        return document;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.slack.SlackEventType;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link SlackDeduplicator}.
+ *
+ * @version $Id$
+ */
+public class SlackDeduplicatorTest
+{
+    private static final String WEBHOOK = "https://hooks.slack.com/services/T/B/X";
+
+    private static final DocumentReference PAGE = new DocumentReference("wiki", "Space", "Page");
+
+    @Rule
+    public final MockitoComponentMockingRule<SlackDeduplicator> mocker =
+        new MockitoComponentMockingRule<>(SlackDeduplicator.class);
+
+    private SlackDeliveryConfiguration configuration;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.configuration = this.mocker.getInstance(SlackDeliveryConfiguration.class);
+        when(this.configuration.getDeduplicationWindow()).thenReturn(60000L);
+        when(this.configuration.getDeduplicationCapacity()).thenReturn(2);
+    }
+
+    @Test
+    public void isDuplicate() throws Exception
+    {
+        SlackDeduplicator deduplicator = this.mocker.getComponentUnderTest();
+
+        assertFalse(deduplicator.isDuplicate(SlackEventType.DOCUMENT_UPDATED, PAGE, "1.2", WEBHOOK));
+        assertTrue(deduplicator.isDuplicate(SlackEventType.DOCUMENT_UPDATED, PAGE, "1.2", WEBHOOK));
+        assertFalse(deduplicator.isDuplicate(SlackEventType.DOCUMENT_UPDATED, PAGE, "1.3", WEBHOOK));
+        assertFalse(deduplicator.isDuplicate(SlackEventType.DOCUMENT_DELETED, PAGE, "1.3", WEBHOOK));
+
+        // The first generation is full: the notifications it holds are still remembered after the rotation.
+        assertTrue(deduplicator.isDuplicate(SlackEventType.DOCUMENT_UPDATED, PAGE, "1.2", WEBHOOK));
+        assertTrue(deduplicator.isDuplicate(SlackEventType.DOCUMENT_DELETED, PAGE, "1.3", WEBHOOK));
+    }
+
+    @Test
+    public void disabled() throws Exception
+    {
+        when(this.configuration.getDeduplicationWindow()).thenReturn(0L);
+        SlackDeduplicator deduplicator = this.mocker.getComponentUnderTest();
+
+        assertFalse(deduplicator.isDuplicate(SlackEventType.DOCUMENT_UPDATED, PAGE, "1.2", WEBHOOK));
+        assertFalse(deduplicator.isDuplicate(SlackEventType.DOCUMENT_UPDATED, PAGE, "1.2", WEBHOOK));
+    }
+
+    @Test
+    public void getKey()
+    {
+        long key = SlackDeduplicator.getKey(SlackEventType.DOCUMENT_UPDATED, PAGE, "1.2", WEBHOOK);
+        assertNotEquals(key,
+            SlackDeduplicator.getKey(SlackEventType.DOCUMENT_UPDATED, PAGE, "1.2", WEBHOOK + "Y"));
+        assertNotEquals(key, SlackDeduplicator.getKey(SlackEventType.DOCUMENT_UPDATED,
+            new DocumentReference("wiki", "SpacePage", "Page"), "1.2", WEBHOOK));
+        assertNotEquals(key, SlackDeduplicator.getKey(SlackEventType.DOCUMENT_UPDATED,
+            new DocumentReference("wiki", "Space", "Page2"), "1.2", WEBHOOK));
+    }
+
+    @Test
+    public void createDeleteAndCreateAgain() throws Exception
+    {
+        when(this.configuration.getDeduplicationCapacity()).thenReturn(100);
+        SlackDeduplicator deduplicator = this.mocker.getComponentUnderTest();
+
+        XWikiDocument created = getDocument("1.1", 1000L);
+        XWikiDocument deleted = getDeletedDocument(created);
+        XWikiDocument createdAgain = getDocument("1.1", 2000L);
+
+        assertFalse(isDuplicate(deduplicator, SlackEventType.DOCUMENT_CREATED, created));
+        assertFalse(isDuplicate(deduplicator, SlackEventType.DOCUMENT_DELETED, deleted));
+        assertFalse(isDuplicate(deduplicator, SlackEventType.DOCUMENT_CREATED, createdAgain));
+        // The same event notified twice.
+        assertTrue(isDuplicate(deduplicator, SlackEventType.DOCUMENT_CREATED, createdAgain));
+    }
+
+    @Test
+    public void deleteTwiceInARow() throws Exception
+    {
+        when(this.configuration.getDeduplicationCapacity()).thenReturn(100);
+        SlackDeduplicator deduplicator = this.mocker.getComponentUnderTest();
+
+        XWikiDocument deleted = getDeletedDocument(getDocument("1.1", 1000L));
+        XWikiDocument deletedAgain = getDeletedDocument(getDocument("1.1", 2000L));
+
+        assertFalse(isDuplicate(deduplicator, SlackEventType.DOCUMENT_DELETED, deleted));
+        assertFalse(isDuplicate(deduplicator, SlackEventType.DOCUMENT_DELETED, deletedAgain));
+        assertTrue(isDuplicate(deduplicator, SlackEventType.DOCUMENT_DELETED, deletedAgain));
+    }
+
+    private boolean isDuplicate(SlackDeduplicator deduplicator, SlackEventType eventType, XWikiDocument document)
+    {
+        return deduplicator.isDuplicate(eventType, PAGE, SlackDeduplicator.getRevision(eventType, document),
+            WEBHOOK);
+    }
+
+    private XWikiDocument getDocument(String version, long date)
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getVersion()).thenReturn(version);
+        when(document.getDate()).thenReturn(new Date(date));
+        when(document.getCreationDate()).thenReturn(new Date(date));
+        return document;
+    }
+
+    /**
+     * @return the blank document of the deletion event, whose original document is the deleted one
+     */
+    private XWikiDocument getDeletedDocument(XWikiDocument deleted)
+    {
+        XWikiDocument document = getDocument("1.1", 0L);
+        when(document.getOriginalDocument()).thenReturn(deleted);
+        return document;
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.component.annotation.DisposePriority;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xwiki.slack.SlackClient;
+import com.xwiki.slack.SlackDeliveryStatus;
+import com.xwiki.slack.SlackSendExecutor;
+import com.xwiki.slack.internal.SlackDeliveryQueue.OverflowPolicy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link SlackDeliveryQueue}.
+ *
+ * @version $Id$
+ */
+public class SlackDeliveryQueueTest
+{
+    private static final String WEBHOOK = "https://hooks.slack.com/services/T/B/X";
+
+    private static final String OTHER_WEBHOOK = "https://hooks.slack.com/services/T/B/Y";
+
+    @Rule
+    public final MockitoComponentMockingRule<SlackDeliveryQueue> mocker =
+        new MockitoComponentMockingRule<>(SlackDeliveryQueue.class);
+
+    private SlackDeliveryQueue deliveryQueue;
+
+    private SlackDeliveryConfiguration configuration;
+
+    private SlackClient slack;
+
+    private SlackSendExecutor sendExecutor;
+
+    private final ScheduledExecutorService requestThread = Executors.newSingleThreadScheduledExecutor();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.configuration = this.mocker.getInstance(SlackDeliveryConfiguration.class);
+        when(this.configuration.getQueueCapacity()).thenReturn(10);
+        when(this.configuration.getWorkerCount()).thenReturn(1);
+        when(this.configuration.getQueueCapacity(any(SlackLane.class))).thenReturn(10);
+        when(this.configuration.getWorkerCount(any(SlackLane.class))).thenReturn(1);
+        when(this.configuration.getOverflowPolicy()).thenReturn(OverflowPolicy.DROP);
+        when(this.configuration.getBatchSize()).thenReturn(3);
+        when(this.configuration.getBatchLatency()).thenReturn(0L);
+
+        SlackDeliveryStatus ok = new SlackDeliveryStatus(200, "ok", 0);
+        this.slack = this.mocker.getInstance(SlackClient.class);
+        when(this.slack.postMessage(anyString(), anyString())).thenReturn(ok);
+        when(this.slack.postMessages(anyListOf(String.class), anyString())).thenReturn(ok);
+
+        SlackCircuitBreaker circuitBreaker = this.mocker.getInstance(SlackCircuitBreaker.class);
+        when(circuitBreaker.allowRequest(anyString())).thenReturn(true);
+
+        this.sendExecutor = this.mocker.getInstance(SlackSendExecutor.class);
+        doAnswer(invocation -> {
+            ((Runnable) invocation.getArguments()[0]).run();
+            return null;
+        }).when(this.sendExecutor).execute(any(Runnable.class));
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        this.requestThread.shutdownNow();
+        if (this.deliveryQueue != null) {
+            this.deliveryQueue.dispose();
+        }
+    }
+
+    @Test
+    public void bulkMessagesDontDelayInteractiveOnes() throws Exception
+    {
+        this.deliveryQueue = this.mocker.getComponentUnderTest();
+        SlackRateLimiter rateLimiter = this.mocker.getInstance(SlackRateLimiter.class);
+        when(rateLimiter.reserve(WEBHOOK, SlackLane.BULK)).thenReturn(60000L);
+
+        this.deliveryQueue.enqueue(new SlackMessage("import", WEBHOOK, "created", SlackLane.BULK));
+        this.deliveryQueue.enqueue(new SlackMessage("edit", WEBHOOK, "modified", SlackLane.INTERACTIVE));
+
+        verify(this.slack, timeout(2000)).postMessage("edit", WEBHOOK);
+        verify(this.slack, never()).postMessage("import", WEBHOOK);
+    }
+
+    @Test
+    public void batchMessagesForTheSameWebhook() throws Exception
+    {
+        when(this.configuration.getBatchLatency()).thenReturn(5000L);
+        this.deliveryQueue = this.mocker.getComponentUnderTest();
+
+        this.deliveryQueue.enqueue(new SlackMessage("first", WEBHOOK));
+        this.deliveryQueue.enqueue(new SlackMessage("other", OTHER_WEBHOOK));
+        this.deliveryQueue.enqueue(new SlackMessage("second", WEBHOOK));
+
+        // The batch is full, so it is delivered without waiting for the batch latency.
+        verify(this.slack, timeout(2000)).postMessages(Arrays.asList("first", "second"), WEBHOOK);
+        verify(this.slack, timeout(2000)).postMessage("other", OTHER_WEBHOOK);
+    }
+
+    @Test
+    public void sendMessageFromAnotherThread() throws Exception
+    {
+        // The request starts once the worker is already collecting the next messages.
+        doAnswer(invocation -> {
+            this.requestThread.schedule((Runnable) invocation.getArguments()[0], 200, TimeUnit.MILLISECONDS);
+            return null;
+        }).when(this.sendExecutor).execute(any(Runnable.class));
+        this.deliveryQueue = this.mocker.getComponentUnderTest();
+
+        this.deliveryQueue.enqueue(new SlackMessage("single", WEBHOOK));
+
+        verify(this.slack, timeout(2000)).postMessage("single", WEBHOOK);
+    }
+
+    @Test
+    public void delayedBatchComesBackAsAWhole() throws Exception
+    {
+        when(this.configuration.getBatchLatency()).thenReturn(5000L);
+        SlackRateLimiter rateLimiter = this.mocker.getInstance(SlackRateLimiter.class);
+        when(rateLimiter.reserve(WEBHOOK, SlackLane.INTERACTIVE)).thenReturn(100L);
+        this.deliveryQueue = this.mocker.getComponentUnderTest();
+
+        this.deliveryQueue.enqueue(new SlackMessage("first", WEBHOOK));
+        this.deliveryQueue.enqueue(new SlackMessage("other", OTHER_WEBHOOK));
+        this.deliveryQueue.enqueue(new SlackMessage("second", WEBHOOK));
+
+        verify(this.slack, timeout(2000)).postMessages(Arrays.asList("first", "second"), WEBHOOK);
+        // The batch used the slot it reserved.
+        verify(rateLimiter).reserve(WEBHOOK, SlackLane.INTERACTIVE);
+        verify(rateLimiter).acquire(WEBHOOK, SlackLane.INTERACTIVE);
+    }
+
+    @Test
+    public void dropMessagesWhenTheQueueIsFull() throws Exception
+    {
+        CountDownLatch slackAnswer = blockSlack();
+        when(this.configuration.getQueueCapacity(any(SlackLane.class))).thenReturn(1);
+        this.deliveryQueue = this.mocker.getComponentUnderTest();
+
+        assertTrue(this.deliveryQueue.enqueue(new SlackMessage("blocking", WEBHOOK)));
+        verify(this.slack, timeout(2000)).postMessage("blocking", WEBHOOK);
+        assertTrue(this.deliveryQueue.enqueue(new SlackMessage("queued", WEBHOOK)));
+        assertFalse(this.deliveryQueue.enqueue(new SlackMessage("dropped", WEBHOOK)));
+        assertEquals(1, this.deliveryQueue.getDroppedCount());
+        assertEquals(1, this.deliveryQueue.getQueueSize());
+
+        slackAnswer.countDown();
+        verify(this.slack, timeout(2000)).postMessage("queued", WEBHOOK);
+        verify(this.slack, never()).postMessage("dropped", WEBHOOK);
+    }
+
+    @Test
+    public void spillMessagesToTheOutboxWhenTheQueueIsFull() throws Exception
+    {
+        CountDownLatch slackAnswer = blockSlack();
+        when(this.configuration.getQueueCapacity(any(SlackLane.class))).thenReturn(1);
+        when(this.configuration.getOverflowPolicy()).thenReturn(OverflowPolicy.SPILL);
+        SlackOutbox outbox = this.mocker.getInstance(SlackOutbox.class);
+        when(outbox.store(any(SlackMessage.class))).thenReturn(true);
+        this.deliveryQueue = this.mocker.getComponentUnderTest();
+
+        this.deliveryQueue.enqueue(new SlackMessage("blocking", WEBHOOK));
+        verify(this.slack, timeout(2000)).postMessage("blocking", WEBHOOK);
+        this.deliveryQueue.enqueue(new SlackMessage("queued", WEBHOOK));
+        SlackMessage spilled = new SlackMessage("spilled", WEBHOOK);
+        assertTrue(this.deliveryQueue.enqueue(spilled));
+
+        verify(outbox).store(spilled);
+        assertEquals(0, this.deliveryQueue.getDroppedCount());
+        slackAnswer.countDown();
+    }
+
+    @Test
+    public void storeTheUndeliveredMessagesAtShutdown() throws Exception
+    {
+        // The messages of the system lane are never taken from the queue.
+        when(this.configuration.getWorkerCount(SlackLane.SYSTEM)).thenReturn(0);
+        SlackRateLimiter rateLimiter = this.mocker.getInstance(SlackRateLimiter.class);
+        when(rateLimiter.reserve(WEBHOOK, SlackLane.INTERACTIVE)).thenReturn(60000L);
+        SlackOutbox outbox = this.mocker.getInstance(SlackOutbox.class);
+        when(outbox.store(any(SlackMessage.class))).thenReturn(true);
+        this.deliveryQueue = this.mocker.getComponentUnderTest();
+
+        SlackMessage queued = new SlackMessage("queued", WEBHOOK, "created", SlackLane.SYSTEM);
+        this.deliveryQueue.enqueue(queued);
+        SlackMessage delayed = new SlackMessage("delayed", WEBHOOK);
+        this.deliveryQueue.enqueue(delayed);
+        verify(rateLimiter, timeout(2000)).reserve(WEBHOOK, SlackLane.INTERACTIVE);
+
+        this.deliveryQueue.dispose();
+
+        verify(outbox).store(queued);
+        verify(outbox).store(delayed);
+        verify(this.slack, never()).postMessage(anyString(), anyString());
+    }
+
+    @Test
+    public void disposedBeforeTheOutbox()
+    {
+        int queuePriority = SlackDeliveryQueue.class.getAnnotation(DisposePriority.class).value();
+        assertTrue(SlackMessageAggregator.class.getAnnotation(DisposePriority.class).value() < queuePriority);
+        // The send executor has the default priority.
+        assertTrue(queuePriority < 1000);
+        assertTrue(queuePriority < SlackOutbox.class.getAnnotation(DisposePriority.class).value());
+    }
+
+    /**
+     * @return the latch to release for Slack to answer
+     */
+    private CountDownLatch blockSlack() throws Exception
+    {
+        CountDownLatch slackAnswer = new CountDownLatch(1);
+        when(this.slack.postMessage(anyString(), anyString())).thenAnswer(invocation -> {
+            slackAnswer.await();
+            return new SlackDeliveryStatus(200, "ok", 0);
+        });
+        return slackAnswer;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.job.Job;
+import org.xwiki.job.JobContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link SlackLaneClassifier}.
+ *
+ * @version $Id$
+ */
+public class SlackLaneClassifierTest
+{
+    private static final DocumentReference USER = new DocumentReference("wiki", "XWiki", "John");
+
+    private static final DocumentReference IMPORTER = new DocumentReference("wiki", "XWiki", "Importer");
+
+    @Rule
+    public final MockitoComponentMockingRule<SlackLaneClassifier> mocker =
+        new MockitoComponentMockingRule<>(SlackLaneClassifier.class);
+
+    private XWikiDocument document = mock(XWikiDocument.class);
+
+    @Before
+    public void setUp() throws Exception
+    {
+        SlackDeliveryConfiguration configuration = this.mocker.getInstance(SlackDeliveryConfiguration.class);
+        when(configuration.getBulkAuthors()).thenReturn(Arrays.asList("XWiki.Importer"));
+    }
+
+    @Test
+    public void getLane() throws Exception
+    {
+        SlackLaneClassifier classifier = this.mocker.getComponentUnderTest();
+
+        assertEquals(SlackLane.INTERACTIVE, classifier.getLane(this.document, USER));
+        assertEquals(SlackLane.INTERACTIVE, classifier.getLane(this.document, null));
+        assertEquals(SlackLane.BULK, classifier.getLane(this.document, IMPORTER));
+
+        JobContext jobContext = this.mocker.getInstance(JobContext.class);
+        when(jobContext.getCurrentJob()).thenReturn(mock(Job.class));
+        assertEquals(SlackLane.BULK, classifier.getLane(this.document, USER));
+
+        when(this.document.isHidden()).thenReturn(true);
+        assertEquals(SlackLane.SYSTEM, classifier.getLane(this.document, USER));
+    }
+}
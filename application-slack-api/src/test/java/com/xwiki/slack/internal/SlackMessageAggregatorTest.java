@@ -0,0 +1,213 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.xwiki.component.manager.ComponentLifecycleException;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Tests for {@link SlackMessageAggregator}.
+ *
+ * @version $Id$
+ */
+public class SlackMessageAggregatorTest
+{
+    private static final String WEBHOOK = "https://hooks.slack.com/services/T/B/X";
+
+    @Rule
+    public final MockitoComponentMockingRule<SlackMessageAggregator> mocker =
+        new MockitoComponentMockingRule<>(SlackMessageAggregator.class);
+
+    private SlackMessageAggregator aggregator;
+
+    private SlackDeliveryQueue deliveryQueue;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.aggregator = this.mocker.getComponentUnderTest();
+        this.deliveryQueue = this.mocker.getInstance(SlackDeliveryQueue.class);
+    }
+
+    @Test
+    public void sendRightAwayWithoutWindow()
+    {
+        this.aggregator.add(notification("Page", "modified", "Alice"), 0, 10);
+
+        ArgumentCaptor<SlackMessage> captor = ArgumentCaptor.forClass(SlackMessage.class);
+        verify(this.deliveryQueue).enqueue(captor.capture());
+        assertEquals("Page was modified by Alice", captor.getValue().getText());
+    }
+
+    @Test
+    public void mergeRepeatedUpdates() throws Exception
+    {
+        this.aggregator.add(notification("Page", "modified", "Alice"), 60, 10);
+        this.aggregator.add(notification("Page", "modified", "Bob"), 60, 10);
+        this.aggregator.add(notification("Page", "modified", "Alice"), 60, 10);
+        this.aggregator.add(notification("Other", "created", "Bob"), 60, 10);
+
+        this.aggregator.dispose();
+
+        ArgumentCaptor<SlackMessage> captor = ArgumentCaptor.forClass(SlackMessage.class);
+        verify(this.deliveryQueue, times(2)).enqueue(captor.capture());
+        List<SlackMessage> messages = captor.getAllValues();
+        assertEquals("Page was modified 3 times by Alice, Bob", messages.get(0).getText());
+        assertEquals("Other was created by Bob", messages.get(1).getText());
+    }
+
+    @Test
+    public void digestLargeBursts() throws Exception
+    {
+        for (int i = 0; i < 30; i++) {
+            this.aggregator.add(notification("Page" + i, "created", "Importer"), 60, 10);
+        }
+
+        this.aggregator.dispose();
+
+        ArgumentCaptor<SlackMessage> captor = ArgumentCaptor.forClass(SlackMessage.class);
+        verify(this.deliveryQueue).enqueue(captor.capture());
+        String digest = captor.getValue().getText();
+        assertTrue(digest.startsWith("30 pages were changed:\n• Page0 was created by Importer\n"));
+        assertTrue(digest.endsWith("\nand 10 more."));
+    }
+
+    @Test
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public void renderOnlyTheNotificationsDisplayedByTheDigest() throws Exception
+    {
+        for (int i = 0; i < 30; i++) {
+            this.aggregator.add(unrenderedNotification("Page" + i), 60, 10);
+        }
+
+        this.aggregator.dispose();
+
+        ArgumentCaptor<Collection> captor = ArgumentCaptor.forClass(Collection.class);
+        verify(this.mocker.<SlackNotificationRenderer>getInstance(SlackNotificationRenderer.class))
+            .render(captor.capture());
+        assertEquals(20, captor.getValue().size());
+        verify(this.deliveryQueue).enqueue(any(SlackMessage.class));
+    }
+
+    @Test
+    public void collapseLargeBurstsWithoutDigest() throws Exception
+    {
+        // Too many messages to post in a row: only a count is kept for the pages above the limit.
+        for (int i = 0; i < 150; i++) {
+            this.aggregator.add(notification("Page" + i, "created", "Importer"), 60, 0);
+        }
+        this.aggregator.add(notification("Page0", "created", "Importer"), 60, 0);
+        this.aggregator.dispose();
+
+        ArgumentCaptor<SlackMessage> captor = ArgumentCaptor.forClass(SlackMessage.class);
+        verify(this.deliveryQueue).enqueue(captor.capture());
+        String digest = captor.getValue().getText();
+        assertEquals("digest", captor.getValue().getEventType());
+        assertTrue(digest.startsWith("150 pages were changed:\n• Page0 was created 2 times by Importer\n"));
+        assertTrue(digest.endsWith("\nand 130 more."));
+    }
+
+    @Test
+    public void deliverThePendingNotificationsAtShutdown() throws Exception
+    {
+        SlackNotificationRenderer renderer = this.mocker.getInstance(SlackNotificationRenderer.class);
+        CountDownLatch rendering = new CountDownLatch(1);
+        CountDownLatch slowRendering = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            rendering.countDown();
+            slowRendering.await();
+            return null;
+        }).when(renderer).render(anyCollectionOf(SlackNotification.class));
+
+        this.aggregator.add(unrenderedNotification("First"), 0, 10);
+        this.aggregator.add(unrenderedNotification("Second"), 0, 10);
+        assertTrue(rendering.await(2, TimeUnit.SECONDS));
+
+        // The shutdown waits for the notification being rendered, then delivers the one waiting for its turn.
+        Thread shutdown = new Thread(() -> {
+            try {
+                this.aggregator.dispose();
+            } catch (ComponentLifecycleException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        shutdown.start();
+        while (shutdown.getState() != Thread.State.TIMED_WAITING && shutdown.isAlive()) {
+            Thread.yield();
+        }
+        slowRendering.countDown();
+        shutdown.join(2000);
+
+        verify(renderer, times(2)).render(anyCollectionOf(SlackNotification.class));
+        verify(this.deliveryQueue, times(2)).enqueue(any(SlackMessage.class));
+    }
+
+    @Test
+    public void deliverTheLateNotificationsRightAway() throws Exception
+    {
+        this.aggregator.dispose();
+
+        this.aggregator.add(notification("Page", "modified", "Alice"), 0, 10);
+        this.aggregator.add(unrenderedNotification("Other"), 0, 10);
+        this.aggregator.add(notification("Third", "created", "Bob"), 60, 10);
+
+        ArgumentCaptor<SlackMessage> captor = ArgumentCaptor.forClass(SlackMessage.class);
+        verify(this.deliveryQueue, times(3)).enqueue(captor.capture());
+        assertEquals("Page was modified by Alice", captor.getAllValues().get(0).getText());
+        assertEquals("Third was created by Bob", captor.getAllValues().get(2).getText());
+        verify(this.mocker.<SlackNotificationRenderer>getInstance(SlackNotificationRenderer.class))
+            .render(anyCollectionOf(SlackNotification.class));
+    }
+
+    private SlackNotification unrenderedNotification(String page)
+    {
+        SlackNotification.Source source = new SlackNotification.Source(new DocumentReference("wiki", "Space", page),
+            mock(XWikiDocument.class), mock(XWikiContext.class));
+        return new SlackNotification(source, "created", null, "", WEBHOOK);
+    }
+
+    private SlackNotification notification(String page, String action, String author)
+    {
+        return new SlackNotification(new DocumentReference("wiki", "Space", page), page, action, author, "",
+            WEBHOOK);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests for {@link SlackMessageBuilder}.
+ *
+ * @version $Id$
+ */
+public class SlackMessageBuilderTest
+{
+    @Test
+    public void encodeReturnsTheSameStringWhenThereIsNothingToEscape()
+    {
+        String text = "Release notes";
+        assertSame(text, SlackMessageBuilder.encode(text));
+    }
+
+    @Test
+    public void encode()
+    {
+        assertEquals("&lt;b&gt;Q&amp;A&lt;/b&gt; &amp;amp;", SlackMessageBuilder.encode("<b>Q&A</b> &amp;"));
+    }
+
+    @Test
+    public void nullIsEmpty()
+    {
+        assertEquals("", SlackMessageBuilder.encode(null));
+        assertEquals("<https://wiki/view|> by ", new SlackMessageBuilder().appendLink("https://wiki/view", null)
+            .append(" by ").appendEncoded(null).toString());
+    }
+
+    @Test
+    public void appendLinkEncodesTheLabel()
+    {
+        assertEquals("<https://wiki/view?viewer=changes&amp;rev2=1.2|R&amp;D> (&lt;draft&gt;)",
+            new SlackMessageBuilder().appendLink("https://wiki/view?viewer=changes&amp;rev2=1.2", "R&D").append(" (")
+                .appendEncoded("<draft>").append(")").toString());
+    }
+
+    @Test
+    public void payloadsAreNotShared()
+    {
+        // The payloads built concurrently (e.g. on virtual threads) must not overwrite each other.
+        CharSequence first = SlackMessageBuilder.buildPayload("first");
+        CharSequence second = SlackMessageBuilder.buildBlocksPayload(Arrays.asList("second"));
+        assertEquals("{\"text\":\"first\",\"mrkdwn\":false}", first.toString());
+        assertEquals(SlackMessageBuilder.toBlocksPayload(Arrays.asList("second")), second.toString());
+    }
+
+    @Test
+    public void toPayloadEscapesJson()
+    {
+        assertEquals("{\"text\":\"say \\\"hi\\\"\\\\\\n\\tbye\\u0001\",\"mrkdwn\":false}",
+            SlackMessageBuilder.toPayload("say \"hi\"\\\n\tbye\u0001"));
+    }
+
+    @Test
+    public void toBlocksPayload()
+    {
+        assertEquals("{\"text\":\"first\\nand 1 more.\",\"blocks\":["
+            + "{\"type\":\"section\",\"text\":{\"type\":\"mrkdwn\",\"text\":\"first\"}},"
+            + "{\"type\":\"section\",\"text\":{\"type\":\"mrkdwn\",\"text\":\"\\\"second\\\"\"}}]}",
+            SlackMessageBuilder.toBlocksPayload(Arrays.asList("first", "\"second\"")));
+    }
+
+    @Test
+    public void toBlocksPayloadKeepsTheFormattingCharactersLiteral()
+    {
+        // A single message is posted with "mrkdwn":false, so a block must not format the same title either.
+        String message = new SlackMessageBuilder()
+            .appendLink("https://wiki/view/Release_Notes", "*Draft* _v2_ ~old~ `x`").append(" was modified").toString();
+        String blockText = "<https://wiki/view/Release_Notes|\u200B*\u200BDraft\u200B*\u200B "
+            + "\u200B_\u200Bv2\u200B_\u200B \u200B~\u200Bold\u200B~\u200B \u200B`\u200Bx\u200B`\u200B> was modified";
+
+        assertEquals("{\"text\":\"" + message + "\",\"blocks\":["
+            + "{\"type\":\"section\",\"text\":{\"type\":\"mrkdwn\",\"text\":\"" + blockText + "\"}}]}",
+            SlackMessageBuilder.toBlocksPayload(Arrays.asList(message)));
+        assertEquals(blockText.length(), SlackMessageBuilder.getBlockTextLength(message));
+    }
+
+    @Test
+    public void truncateReturnsTheSameStringWhenShortEnough()
+    {
+        String text = "Release notes";
+        assertSame(text, SlackMessageBuilder.truncate(text, text.length()));
+    }
+
+    @Test
+    public void truncateDoesNotCutLinksOrEntities()
+    {
+        assertEquals("Release\u2026", SlackMessageBuilder.truncate("Release notes", 8));
+        assertEquals("see \u2026", SlackMessageBuilder.truncate("see <https://wiki/view|label> now", 10));
+        assertEquals("Q\u2026", SlackMessageBuilder.truncate("Q&amp;A here", 5));
+        assertEquals("Q&amp;A\u2026", SlackMessageBuilder.truncate("Q&amp;A here", 8));
+        assertEquals("ab\u2026", SlackMessageBuilder.truncate("ab\ud83d\ude00cd", 4));
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests for {@link SlackMetrics}.
+ *
+ * @version $Id$
+ */
+public class SlackMetricsTest
+{
+    private static final String TOKEN = "Xy7Qk2LmN8pR4sTvW6zA1bCd";
+
+    private static final String WEBHOOK = "https://hooks.slack.com/services/T0ABCDEF/B0GHIJKL/" + TOKEN;
+
+    @Rule
+    public final MockitoComponentMockingRule<SlackMetrics> mocker =
+        new MockitoComponentMockingRule<>(SlackMetrics.class);
+
+    private SlackMetrics metrics;
+
+    private ObjectName objectName;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        this.metrics = this.mocker.getComponentUnderTest();
+        this.objectName = new ObjectName("com.xwiki.slack:type=Metrics");
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        this.metrics.dispose();
+    }
+
+    @Test
+    public void countByTag()
+    {
+        this.metrics.increment(SlackMetrics.SENT, "updated", WEBHOOK);
+        this.metrics.increment(SlackMetrics.SENT, "updated", WEBHOOK);
+        this.metrics.increment(SlackMetrics.SENT, "created", WEBHOOK);
+        this.metrics.increment(SlackMetrics.FAILED, null, WEBHOOK);
+        this.metrics.increment(SlackMetrics.SKIPPED_REMOTE, null, null);
+
+        assertEquals(3, this.metrics.getSentCount());
+        assertEquals(1, this.metrics.getFailedCount());
+        assertEquals(1, this.metrics.getSkippedRemoteCount());
+        assertEquals(0, this.metrics.getSkippedDisabledCount());
+
+        String label = SlackMetrics.getWebhookLabel(WEBHOOK);
+        Map<String, Long> counters = this.metrics.getCounters();
+        assertEquals(4, counters.size());
+        assertEquals(Long.valueOf(2), counters.get("sent{event=updated,webhook=" + label + "}"));
+        assertEquals(Long.valueOf(1), counters.get("sent{event=created,webhook=" + label + "}"));
+        assertEquals(Long.valueOf(1), counters.get("failed{webhook=" + label + "}"));
+        assertEquals(Long.valueOf(1), counters.get("skipped.remote"));
+    }
+
+    @Test
+    public void recordLatencies()
+    {
+        long now = System.nanoTime();
+        this.metrics.record(SlackMetrics.HTTP, "updated", WEBHOOK, now - TimeUnit.MILLISECONDS.toNanos(3));
+        this.metrics.record(SlackMetrics.HTTP, "updated", WEBHOOK, now - TimeUnit.MILLISECONDS.toNanos(40));
+        this.metrics.record(SlackMetrics.MESSAGE_BUILDING, "updated", null, now);
+
+        Map<String, String> timers = this.metrics.getTimers();
+        assertEquals(2, timers.size());
+        String http = timers.get("http{event=updated,webhook=" + SlackMetrics.getWebhookLabel(WEBHOOK) + "}");
+        assertTrue(http, http.startsWith("count=2 mean="));
+        assertTrue(http, http.contains(" p50<="));
+        assertTrue(http, http.contains(" p99<="));
+        assertTrue(timers.get("message.building{event=updated}").startsWith("count=1 "));
+    }
+
+    @Test
+    public void registerInJMX() throws Exception
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        assertTrue(server.isRegistered(this.objectName));
+
+        this.metrics.increment(SlackMetrics.SENT, "updated", WEBHOOK);
+        this.metrics.increment(SlackMetrics.DEDUPLICATED, "updated", WEBHOOK);
+        assertEquals(1L, server.getAttribute(this.objectName, "SentCount"));
+        assertEquals(1L, server.getAttribute(this.objectName, "DeduplicatedCount"));
+
+        this.metrics.dispose();
+        assertFalse(server.isRegistered(this.objectName));
+    }
+
+    @Test
+    public void disposeLeavesTheMBeanOfAnotherInstance() throws Exception
+    {
+        SlackMetrics other = new SlackMetrics();
+        other.initialize();
+        other.dispose();
+
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(this.objectName));
+    }
+
+    @Test
+    public void webhookLabelDoesNotDiscloseTheToken()
+    {
+        String label = SlackMetrics.getWebhookLabel(WEBHOOK);
+
+        assertTrue(label, label.startsWith("hooks.slack.com/"));
+        assertFalse(label, label.contains(TOKEN));
+        assertFalse(label, label.contains(TOKEN.substring(TOKEN.length() - 4)));
+        assertFalse(label, label.contains("T0ABCDEF"));
+        // Another webhook of the same workspace gets another label.
+        assertNotEquals(label, SlackMetrics.getWebhookLabel(WEBHOOK.replace(TOKEN, "Zz9")));
+
+        this.metrics.increment(SlackMetrics.SENT, "updated", WEBHOOK);
+        this.metrics.record(SlackMetrics.HTTP, "updated", WEBHOOK, System.nanoTime());
+        for (String key : this.metrics.getCounters().keySet()) {
+            assertFalse(key, key.contains(TOKEN));
+        }
+        for (String key : this.metrics.getTimers().keySet()) {
+            assertFalse(key, key.contains(TOKEN));
+        }
+    }
+}
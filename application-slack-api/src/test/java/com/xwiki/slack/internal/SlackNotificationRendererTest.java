@@ -0,0 +1,181 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.rendering.syntax.Syntax;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.web.XWikiURLFactory;
+import com.xwiki.slack.SlackClient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link SlackNotificationRenderer}.
+ *
+ * @version $Id$
+ */
+public class SlackNotificationRendererTest
+{
+    private static final String WEBHOOK = "https://hooks.slack.com/services/T/B/X";
+
+    @Rule
+    public final MockitoComponentMockingRule<SlackNotificationRenderer> mocker =
+        new MockitoComponentMockingRule<>(SlackNotificationRenderer.class);
+
+    private SlackNotificationRenderer renderer;
+
+    private XWikiContext xcontext = mock(XWikiContext.class);
+
+    private XWiki xwiki = mock(XWiki.class);
+
+    private DocumentReference userReference = new DocumentReference("wiki", "XWiki", "alice");
+
+    private Map<String, String> cachedUsers = new HashMap<>();
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception
+    {
+        // A cache backed by a map.
+        Cache<String> cache = mock(Cache.class);
+        when(cache.get(anyString())).then(invocation -> this.cachedUsers.get(invocation.getArguments()[0]));
+        doAnswer(invocation -> this.cachedUsers.put((String) invocation.getArguments()[0],
+            (String) invocation.getArguments()[1])).when(cache).set(anyString(), anyString());
+        doAnswer(invocation -> this.cachedUsers.remove(invocation.getArguments()[0])).when(cache)
+            .remove(anyString());
+        CacheManager cacheManager = this.mocker.getInstance(CacheManager.class);
+        when(cacheManager.<String>createNewCache(any(CacheConfiguration.class))).thenReturn(cache);
+
+        Execution execution = this.mocker.getInstance(Execution.class);
+        when(execution.getContext()).thenReturn(new ExecutionContext());
+
+        SlackClient slack = this.mocker.getInstance(SlackClient.class);
+        when(slack.encode(anyString())).then(invocation -> invocation.getArguments()[0]);
+
+        when(this.xcontext.getWiki()).thenReturn(this.xwiki);
+        when(this.xcontext.getURLFactory()).thenReturn(mock(XWikiURLFactory.class));
+        when(this.xwiki.getExternalURL("wiki:XWiki.alice", "view", this.xcontext))
+            .thenReturn("https://wiki/bin/view/XWiki/alice");
+        when(this.xwiki.getPlainUserName(this.userReference, this.xcontext)).thenReturn("Alice & Co");
+
+        this.renderer = this.mocker.getComponentUnderTest();
+    }
+
+    @Test
+    public void renderDocumentAndAuthorOnce() throws Exception
+    {
+        DocumentReference documentReference = new DocumentReference("wiki", "Space", "Page");
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getVersion()).thenReturn("2.1");
+        when(document.getExternalURL("view", "viewer=changes&amp;rev2=2.1", this.xcontext))
+            .thenReturn("https://wiki/bin/view/Space/Page?viewer=changes&amp;rev2=2.1");
+        when(document.getRenderedTitle(Syntax.PLAIN_1_0, this.xcontext)).thenReturn("<Page>");
+
+        SlackNotification.Source source = new SlackNotification.Source(documentReference, document, this.xcontext);
+        SlackNotification first = new SlackNotification(source, "modified", this.userReference, "", WEBHOOK);
+        SlackNotification second = new SlackNotification(source, "modified", this.userReference, "", WEBHOOK + 2);
+
+        this.renderer.render(Arrays.asList(first, second));
+
+        assertTrue(first.isRendered());
+        String expected = "<https://wiki/bin/view/Space/Page?viewer=changes&amp;rev2=2.1|&lt;Page&gt;> was modified by "
+            + "<https://wiki/bin/view/XWiki/alice|Alice &amp; Co>";
+        assertEquals(expected, first.getText());
+        assertEquals(expected, second.getText());
+        verify(document, times(1)).getRenderedTitle(Syntax.PLAIN_1_0, this.xcontext);
+        verify(this.xwiki, times(1)).getPlainUserName(this.userReference, this.xcontext);
+    }
+
+    @Test
+    public void mergedChangesLinkToTheLastVersion() throws Exception
+    {
+        DocumentReference documentReference = new DocumentReference("wiki", "Space", "Page");
+        XWikiDocument version1 = mockDocument("1.1", "a");
+        XWikiDocument version2 = mockDocument("2.1", "a\nb");
+        XWikiDocument version3 = mockDocument("3.1", "a\nb\nc");
+        when(version2.getOriginalDocument()).thenReturn(version1);
+        when(version3.getOriginalDocument()).thenReturn(version2);
+
+        SlackNotification notification = new SlackNotification(
+            new SlackNotification.Source(documentReference, version2, this.xcontext), "modified", this.userReference,
+            " (first)", WEBHOOK);
+        notification.merge(new SlackNotification(
+            new SlackNotification.Source(documentReference, version3, this.xcontext), "modified", this.userReference,
+            " (second)", WEBHOOK));
+
+        this.renderer.render(Arrays.asList(notification));
+
+        // The link to the last change and the summary of both changes.
+        assertEquals("<https://wiki/bin/view/Space/Page?viewer=changes&amp;rev2=3.1|Page> was modified 2 times by "
+            + "<https://wiki/bin/view/XWiki/alice|Alice &amp; Co> [+2 -0 lines]", notification.getText());
+        verify(version2, never()).getRenderedTitle(Syntax.PLAIN_1_0, this.xcontext);
+    }
+
+    @Test
+    public void invalidateUser() throws Exception
+    {
+        assertEquals("<https://wiki/bin/view/XWiki/alice|Alice &amp; Co>",
+            this.renderer.getAuthor(this.userReference, this.xcontext));
+
+        when(this.xwiki.getPlainUserName(this.userReference, this.xcontext)).thenReturn("Alice");
+        this.renderer.invalidate(this.userReference);
+
+        assertEquals("<https://wiki/bin/view/XWiki/alice|Alice>",
+            this.renderer.getAuthor(this.userReference, this.xcontext));
+        assertEquals("Guest", this.renderer.getAuthor(null, this.xcontext));
+    }
+
+    private XWikiDocument mockDocument(String version, String content) throws Exception
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getVersion()).thenReturn(version);
+        when(document.getContent()).thenReturn(content);
+        when(document.getExternalURL("view", "viewer=changes&amp;rev2=" + version, this.xcontext))
+            .thenReturn("https://wiki/bin/view/Space/Page?viewer=changes&amp;rev2=" + version);
+        when(document.getRenderedTitle(Syntax.PLAIN_1_0, this.xcontext)).thenReturn("Page");
+        return document;
+    }
+}
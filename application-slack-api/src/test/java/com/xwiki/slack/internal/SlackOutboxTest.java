@@ -0,0 +1,273 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.InOrder;
+import org.xwiki.environment.Environment;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import com.xwiki.slack.SlackClient;
+import com.xwiki.slack.SlackDeliveryStatus;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link SlackOutbox}.
+ *
+ * @version $Id$
+ */
+public class SlackOutboxTest
+{
+    private static final String WEBHOOK = "https://hooks.slack.com/services/T/B/X";
+
+    private static final String OTHER_WEBHOOK = "https://hooks.slack.com/services/T/B/Y";
+
+    private static final long NO_REPLAY = 60000L;
+
+    @Rule
+    public final TemporaryFolder permanentDirectory = new TemporaryFolder();
+
+    @Rule
+    public final MockitoComponentMockingRule<SlackOutbox> mocker =
+        new MockitoComponentMockingRule<>(SlackOutbox.class);
+
+    /**
+     * The outbox after a restart, reading the same journal.
+     */
+    @Rule
+    public final MockitoComponentMockingRule<SlackOutbox> restarted =
+        new MockitoComponentMockingRule<>(SlackOutbox.class);
+
+    /**
+     * The outbox after a second restart.
+     */
+    @Rule
+    public final MockitoComponentMockingRule<SlackOutbox> restartedAgain =
+        new MockitoComponentMockingRule<>(SlackOutbox.class);
+
+    private final List<SlackOutbox> started = new ArrayList<>();
+
+    @After
+    public void tearDown() throws Exception
+    {
+        for (SlackOutbox outbox : this.started) {
+            outbox.dispose();
+        }
+    }
+
+    @Test
+    public void storeAndReplayAfterRestart() throws Exception
+    {
+        SlackOutbox outbox = start(this.mocker, NO_REPLAY);
+        assertTrue(outbox.store(new SlackMessage("first", WEBHOOK, "created")));
+        assertTrue(outbox.store(new SlackMessage("caf\u00e9 \ud83d\ude00", OTHER_WEBHOOK)));
+        assertTrue(outbox.store(new SlackMessage("third", WEBHOOK, "deleted")));
+        assertEquals(3, outbox.getSize());
+        outbox.dispose();
+        assertFalse(outbox.store(new SlackMessage("too late", WEBHOOK)));
+
+        SlackClient slack = deliverEverything(this.restarted);
+        SlackOutbox reloaded = start(this.restarted, 10L);
+
+        verify(slack, timeout(2000)).postMessage("third", WEBHOOK);
+        verify(slack, timeout(2000)).postMessage("caf\u00e9 \ud83d\ude00", OTHER_WEBHOOK);
+        waitForSize(reloaded, 0);
+
+        // The messages of a webhook are posted in the order they were stored.
+        InOrder order = inOrder(slack);
+        order.verify(slack).postMessage("first", WEBHOOK);
+        order.verify(slack).postMessage("third", WEBHOOK);
+    }
+
+    @Test
+    public void storeRespectsTheMaximumSize() throws Exception
+    {
+        SlackOutbox outbox = start(this.mocker, NO_REPLAY, 2);
+
+        assertTrue(outbox.store(new SlackMessage("first", WEBHOOK)));
+        assertTrue(outbox.store(new SlackMessage("second", WEBHOOK)));
+        assertFalse(outbox.store(new SlackMessage("third", WEBHOOK)));
+        assertEquals(2, outbox.getSize());
+    }
+
+    @Test
+    public void compactWhileStoring() throws Exception
+    {
+        // The messages of the first webhook are delivered (and compacted away) while the ones of the other webhook,
+        // which is down, keep being stored.
+        deliverEverything(this.mocker);
+        SlackCircuitBreaker circuitBreaker = this.mocker.getInstance(SlackCircuitBreaker.class);
+        when(circuitBreaker.allowRequest(OTHER_WEBHOOK)).thenReturn(false);
+        SlackOutbox outbox = start(this.mocker, 1L);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread thread = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    outbox.store(new SlackMessage("delivered " + j, WEBHOOK));
+                    if (j % 4 == 0) {
+                        outbox.store(new SlackMessage("kept " + j, OTHER_WEBHOOK));
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        waitForSize(outbox, 1000);
+        outbox.dispose();
+
+        SlackOutbox reloaded = start(this.restarted, NO_REPLAY);
+        assertEquals(1000, reloaded.getSize());
+    }
+
+    @Test
+    public void ignoreTruncatedEnd() throws Exception
+    {
+        SlackOutbox outbox = start(this.mocker, NO_REPLAY);
+        outbox.store(new SlackMessage("first", WEBHOOK));
+        outbox.store(new SlackMessage("second", WEBHOOK));
+        outbox.dispose();
+
+        // A crash in the middle of writing the last record.
+        try (RandomAccessFile journal = new RandomAccessFile(getJournal(), "rw")) {
+            journal.setLength(journal.length() - 3);
+        }
+
+        SlackOutbox reloaded = start(this.restarted, NO_REPLAY);
+        assertEquals(1, reloaded.getSize());
+        // The journal doesn't hold the truncated record anymore, so that the next records can be read.
+        assertTrue(reloaded.store(new SlackMessage("third", WEBHOOK)));
+        reloaded.dispose();
+
+        SlackClient slack = deliverEverything(this.restartedAgain);
+        SlackOutbox replayed = start(this.restartedAgain, 10L);
+        verify(slack, timeout(2000)).postMessage("third", WEBHOOK);
+        waitForSize(replayed, 0);
+
+        InOrder order = inOrder(slack);
+        order.verify(slack).postMessage("first", WEBHOOK);
+        order.verify(slack).postMessage("third", WEBHOOK);
+    }
+
+    @Test
+    public void ignoreCorruptEnd() throws Exception
+    {
+        SlackOutbox outbox = start(this.mocker, NO_REPLAY);
+        outbox.store(new SlackMessage("first", WEBHOOK));
+        outbox.store(new SlackMessage("second", WEBHOOK));
+        outbox.dispose();
+
+        // Corrupt the text of the last record.
+        try (RandomAccessFile journal = new RandomAccessFile(getJournal(), "rw")) {
+            journal.seek(journal.length() - 1);
+            journal.write('x');
+        }
+
+        SlackOutbox reloaded = start(this.restarted, NO_REPLAY);
+        assertEquals(1, reloaded.getSize());
+    }
+
+    @Test
+    public void ignoreInvalidRecordLength() throws Exception
+    {
+        SlackOutbox outbox = start(this.mocker, NO_REPLAY);
+        outbox.store(new SlackMessage("first", WEBHOOK));
+        outbox.store(new SlackMessage("second", WEBHOOK));
+        outbox.dispose();
+
+        // A record with a negative length, and then one too large to be allocated.
+        try (RandomAccessFile journal = new RandomAccessFile(getJournal(), "rw")) {
+            journal.seek(journal.length());
+            journal.writeInt(Integer.MIN_VALUE);
+            journal.writeInt(0);
+            journal.writeInt(Integer.MAX_VALUE);
+            journal.writeInt(0);
+        }
+
+        SlackOutbox reloaded = start(this.restarted, NO_REPLAY);
+        assertEquals(2, reloaded.getSize());
+    }
+
+    private SlackOutbox start(MockitoComponentMockingRule<SlackOutbox> outboxMocker, long replayInterval)
+        throws Exception
+    {
+        return start(outboxMocker, replayInterval, 10000);
+    }
+
+    /**
+     * The configuration is stubbed before the outbox starts: stubbing a mock while the replay thread calls it fails.
+     */
+    private SlackOutbox start(MockitoComponentMockingRule<SlackOutbox> outboxMocker, long replayInterval, int maxSize)
+        throws Exception
+    {
+        Environment environment = outboxMocker.getInstance(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(this.permanentDirectory.getRoot());
+        SlackDeliveryConfiguration configuration = outboxMocker.getInstance(SlackDeliveryConfiguration.class);
+        when(configuration.isOutboxEnabled()).thenReturn(true);
+        when(configuration.getOutboxMaxSize()).thenReturn(maxSize);
+        when(configuration.getOutboxReplayInterval()).thenReturn(replayInterval);
+
+        SlackOutbox outbox = outboxMocker.getComponentUnderTest();
+        this.started.add(outbox);
+        return outbox;
+    }
+
+    private SlackClient deliverEverything(MockitoComponentMockingRule<SlackOutbox> outboxMocker) throws Exception
+    {
+        SlackCircuitBreaker circuitBreaker = outboxMocker.getInstance(SlackCircuitBreaker.class);
+        when(circuitBreaker.allowRequest(anyString())).thenReturn(true);
+        SlackClient slack = outboxMocker.getInstance(SlackClient.class);
+        when(slack.postMessage(anyString(), anyString())).thenReturn(new SlackDeliveryStatus(200, "ok", 0));
+        return slack;
+    }
+
+    private void waitForSize(SlackOutbox outbox, int size) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (outbox.getSize() != size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, outbox.getSize());
+    }
+
+    private File getJournal()
+    {
+        return new File(new File(this.permanentDirectory.getRoot(), "slack"), "outbox.journal");
+    }
+}
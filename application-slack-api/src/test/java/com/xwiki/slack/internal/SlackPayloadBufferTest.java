@@ -0,0 +1,90 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Tests for {@link SlackPayloadBuffer}.
+ *
+ * @version $Id$
+ */
+public class SlackPayloadBufferTest
+{
+    @Test
+    public void writeUtf8()
+    {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append("{\"text\":\"caf\u00e9 \u20ac \ud83d\ude00\"}");
+        }
+
+        SlackPayloadBuffer buffer = SlackPayloadBuffer.of(text);
+
+        assertArrayEquals(text.toString().getBytes(StandardCharsets.UTF_8), buffer.toByteArray());
+    }
+
+    @Test
+    public void buffersAreNotShared() throws Exception
+    {
+        // The payloads of concurrent posts (e.g. from virtual threads) must not overwrite each other.
+        SlackPayloadBuffer first = SlackPayloadBuffer.of("first");
+        SlackPayloadBuffer second = SlackPayloadBuffer.of("second");
+        assertEquals("first", EntityUtils.toString(first.toEntity()));
+        assertEquals("second", EntityUtils.toString(second.toEntity()));
+        assertEquals("first", EntityUtils.toString(first.toEntity()));
+
+        HttpEntity entity = SlackPayloadBuffer.of("{}").toEntity();
+        assertEquals("{}", EntityUtils.toString(entity));
+        assertEquals("application/json; charset=UTF-8", entity.getContentType().getValue());
+        assertNull(entity.getContentEncoding());
+    }
+
+    @Test
+    public void compress() throws Exception
+    {
+        SlackPayloadBuffer buffer = SlackPayloadBuffer.of("{\"text\":\"Release notes\"}");
+
+        HttpEntity entity = buffer.compress().toEntity();
+
+        assertEquals("gzip", entity.getContentEncoding().getValue());
+        try (InputStream input = new GZIPInputStream(entity.getContent())) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] chunk = new byte[256];
+            int read = input.read(chunk);
+            while (read >= 0) {
+                output.write(chunk, 0, read);
+                read = input.read(chunk);
+            }
+            assertArrayEquals(buffer.toByteArray(), output.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.internal;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.xwiki.test.mockito.MockitoComponentMockingRule;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests for {@link SlackRateLimiter}.
+ *
+ * @version $Id$
+ */
+public class SlackRateLimiterTest
+{
+    private static final String WEBHOOK = "https://hooks.slack.com/services/T/B/X";
+
+    @Rule
+    public final MockitoComponentMockingRule<SlackRateLimiter> mocker =
+        new MockitoComponentMockingRule<>(SlackRateLimiter.class);
+
+    private SlackRateLimiter rateLimiter;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        SlackDeliveryConfiguration configuration = this.mocker.getInstance(SlackDeliveryConfiguration.class);
+        when(configuration.getRateLimit()).thenReturn(1.0);
+        when(configuration.getRateLimitBurst()).thenReturn(2);
+        when(configuration.getRateLimit(SlackLane.BULK)).thenReturn(0.5);
+
+        this.rateLimiter = this.mocker.getComponentUnderTest();
+    }
+
+    @Test
+    public void reserveSpreadsMessagesAfterBurst()
+    {
+        assertEquals(0, this.rateLimiter.reserve(WEBHOOK));
+        assertEquals(0, this.rateLimiter.reserve(WEBHOOK));
+
+        long third = this.rateLimiter.reserve(WEBHOOK);
+        assertTrue(third > 900 && third <= 1000);
+
+        long fourth = this.rateLimiter.reserve(WEBHOOK);
+        assertTrue(fourth > 1900 && fourth <= 2000);
+
+        // Other webhooks have their own budget.
+        assertEquals(0, this.rateLimiter.reserve("https://hooks.slack.com/services/T/B/Y"));
+    }
+
+    @Test
+    public void reserveLane()
+    {
+        // The bulk lane has its own budget of one message every two seconds.
+        assertEquals(0, this.rateLimiter.reserve(WEBHOOK, SlackLane.BULK));
+        long second = this.rateLimiter.reserve(WEBHOOK, SlackLane.BULK);
+        assertTrue(second > 1900 && second <= 2000);
+
+        // The interactive messages use the rest of the webhook budget.
+        assertEquals(0, this.rateLimiter.reserve(WEBHOOK));
+        long interactive = this.rateLimiter.reserve(WEBHOOK);
+        assertTrue(interactive > 900 && interactive <= 1000);
+
+        // The bulk messages don't queue up behind the interactive ones, they try again once the webhook has a token.
+        long acquire = this.rateLimiter.acquire(WEBHOOK, SlackLane.BULK);
+        assertTrue(acquire > 1900 && acquire <= 2000);
+        assertEquals(interactive, this.rateLimiter.reserve(WEBHOOK) - 1000, 10);
+    }
+
+    @Test
+    public void pause()
+    {
+        this.rateLimiter.pause(WEBHOOK, 30000);
+
+        assertTrue(this.rateLimiter.getRemainingPause(WEBHOOK) > 29000);
+        assertTrue(this.rateLimiter.reserve(WEBHOOK) > 29000);
+        assertEquals(0, this.rateLimiter.getRemainingPause("https://hooks.slack.com/services/T/B/Y"));
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Provider;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.model.reference.DocumentReferenceResolver;
+import org.xwiki.model.reference.EntityReference;
+import org.xwiki.model.reference.LocalDocumentReference;
+import org.xwiki.model.reference.SpaceReference;
+import org.xwiki.model.reference.WikiReference;
+import org.xwiki.query.Query;
+import org.xwiki.query.QueryManager;
+
+import com.xpn.xwiki.XWiki;
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xpn.xwiki.objects.BaseObject;
+import com.xwiki.slack.SlackWebhook;
+import com.xwiki.slack.internal.SlackConfigurationIndex;
+import com.xwiki.slack.internal.SlackWebhookResolver;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures the lookup of the webhooks that apply to a document, depending on how deep the document is in the space
+ * hierarchy. The configurations are on the top level space and on the wiki preferences, so the whole hierarchy is
+ * walked. With a single space the lookup is always answered by the resolved spaces memo; with more spaces than the
+ * memo can hold every lookup walks the hierarchy.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigurationResolutionBenchmark
+{
+    private static final String WIKI = "xwiki";
+
+    private static final LocalDocumentReference CLASS_REFERENCE =
+        new LocalDocumentReference(Arrays.asList("Slack", "Code"), "SlackConfigurationClass");
+
+    /**
+     * The number of spaces between the wiki and the document.
+     */
+    @Param({ "1", "5", "10", "20" })
+    public int depth;
+
+    /**
+     * The number of distinct spaces, at the given depth, holding the documents that are looked up.
+     */
+    @Param({ "1", "20000" })
+    public int spaces;
+
+    private SlackWebhookResolver resolver;
+
+    private List<DocumentReference> documents = new ArrayList<>();
+
+    private int next;
+
+    /**
+     * Set up the index with mocked XWiki components.
+     *
+     * @throws Exception if the mocks can't be created
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        WikiReference wikiReference = new WikiReference(WIKI);
+        SpaceReference topSpace = new SpaceReference("Top", wikiReference);
+        EntityReference parent = topSpace;
+        for (int i = 2; i < this.depth; i++) {
+            parent = new SpaceReference("Space" + i, parent);
+        }
+        for (int i = 0; i < this.spaces; i++) {
+            SpaceReference space = this.depth > 1 ? new SpaceReference("Leaf" + i, parent) : topSpace;
+            this.documents.add(new DocumentReference("Page", space));
+        }
+
+        XWiki xwiki = mock(XWiki.class);
+        XWikiContext xcontext = mock(XWikiContext.class);
+        when(xcontext.getWiki()).thenReturn(xwiki);
+
+        DocumentReference topConfig = new DocumentReference("WebPreferences", topSpace);
+        DocumentReference wikiConfig = new DocumentReference(WIKI, "XWiki", "XWikiPreferences");
+        XWikiDocument topConfigDocument = mockConfiguration(topConfig, "top");
+        XWikiDocument wikiConfigDocument = mockConfiguration(wikiConfig, "wiki");
+        when(xwiki.getDocument(topConfig, xcontext)).thenReturn(topConfigDocument);
+        when(xwiki.getDocument(wikiConfig, xcontext)).thenReturn(wikiConfigDocument);
+
+        Query query = mock(Query.class);
+        when(query.setWiki(anyString())).thenReturn(query);
+        when(query.execute()).thenReturn(Arrays.<Object>asList("Top.WebPreferences", "XWiki.XWikiPreferences"));
+        QueryManager queryManager = mock(QueryManager.class);
+        when(queryManager.createQuery(anyString(), anyString())).thenReturn(query);
+
+        @SuppressWarnings("unchecked")
+        DocumentReferenceResolver<String> documentReferenceResolver = mock(DocumentReferenceResolver.class);
+        when(documentReferenceResolver.resolve("Top.WebPreferences", wikiReference)).thenReturn(topConfig);
+        when(documentReferenceResolver.resolve("XWiki.XWikiPreferences", wikiReference)).thenReturn(wikiConfig);
+
+        SlackConfigurationIndex index = new SlackConfigurationIndex();
+        ReflectionUtils.setFieldValue(index, "logger", LoggerFactory.getLogger(SlackConfigurationIndex.class));
+        ReflectionUtils.setFieldValue(index, "xcontextProvider", (Provider<XWikiContext>) () -> xcontext);
+        ReflectionUtils.setFieldValue(index, "queryManager", queryManager);
+        ReflectionUtils.setFieldValue(index, "documentReferenceResolver", documentReferenceResolver);
+
+        this.resolver = new SlackWebhookResolver();
+        ReflectionUtils.setFieldValue(this.resolver, "index", index);
+    }
+
+    /**
+     * @return the webhooks that apply to the next document
+     */
+    @Benchmark
+    public List<SlackWebhook> getWebhooks()
+    {
+        DocumentReference document = this.documents.get(this.next);
+        this.next = (this.next + 1) % this.documents.size();
+        return this.resolver.getWebhooks(document);
+    }
+
+    private XWikiDocument mockConfiguration(DocumentReference reference, String channel)
+    {
+        BaseObject object = mock(BaseObject.class);
+        when(object.getStringValue("channelName")).thenReturn(channel);
+        when(object.getStringValue("channelUrl")).thenReturn("https://hooks.slack.com/services/" + channel);
+        when(object.getIntValue(anyString(), anyInt())).thenReturn(1);
+
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getDocumentReference()).thenReturn(reference);
+        when(document.getXObjects(CLASS_REFERENCE)).thenReturn(Arrays.asList(object));
+        return document;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.xwiki.slack.SlackClient;
+
+/**
+ * Measures the escaping of the message parts and the serialization of the JSON payload done by {@link SlackClient}.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodeBenchmark
+{
+    /**
+     * The kind of text to encode: a short title without special characters, a short title that needs escaping, or a
+     * long edit comment that needs escaping.
+     */
+    @Param({ "plain", "escaped", "long" })
+    public String text;
+
+    private String message;
+
+    private SlackClient slack;
+
+    /**
+     * Prepare the text to encode.
+     */
+    @Setup
+    public void setUp()
+    {
+        this.slack = new SlackClient();
+        if ("plain".equals(this.text)) {
+            this.message = "Release notes for version 12.10";
+        } else if ("escaped".equals(this.text)) {
+            this.message = "Q&A <draft> for R&D";
+        } else {
+            this.message = StringUtils.repeat("Fixed the <b>layout</b> of the R&D dashboard. ", 50);
+        }
+    }
+
+    /**
+     * @return the encoded text
+     */
+    @Benchmark
+    public String encode()
+    {
+        return this.slack.encode(this.message);
+    }
+
+    /**
+     * @return the JSON payload holding the text
+     */
+    @Benchmark
+    public String payload()
+    {
+        return this.slack.getPayload(this.message);
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.benchmarks;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.component.util.ReflectionUtils;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.licensing.Licensor;
+import com.xwiki.slack.SlackConfiguration;
+import com.xwiki.slack.SlackConfigurationSnapshot;
+import com.xwiki.slack.SlackEventFilter;
+import com.xwiki.slack.SlackWebhook;
+import com.xwiki.slack.internal.DocumentListener;
+import com.xwiki.slack.internal.SlackConfigurationIndex;
+import com.xwiki.slack.internal.SlackDeduplicator;
+import com.xwiki.slack.internal.SlackLaneClassifier;
+import com.xwiki.slack.internal.SlackMessageAggregator;
+import com.xwiki.slack.internal.SlackMetrics;
+import com.xwiki.slack.internal.SlackNotification;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Measures the work done by {@link DocumentListener} on the thread saving a document, from the event to the
+ * notification handed to the {@link SlackMessageAggregator}: configuration lookup, license check and the cheap parts
+ * of the message (the rest is rendered later, outside of the saving thread).
+ * The XWiki components are mocked, so the absolute numbers include some mocking overhead; compare runs with each
+ * other.
+ *
+ * @version $Id$
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBuildingBenchmark
+{
+    private DocumentListener listener;
+
+    private Event event = new DocumentUpdatedEvent();
+
+    private XWikiDocument document;
+
+    private XWikiContext xcontext;
+
+    private SlackNotification lastNotification;
+
+    /**
+     * Set up the listener with mocked XWiki components.
+     *
+     * @throws Exception if the mocks can't be created
+     */
+    @Setup
+    public void setUp() throws Exception
+    {
+        DocumentReference documentReference =
+            new DocumentReference("xwiki", Arrays.asList("Engineering", "Releases"), "Release 12.10");
+        DocumentReference authorReference = new DocumentReference("xwiki", "XWiki", "jdoe");
+
+        this.xcontext = mock(XWikiContext.class);
+        when(this.xcontext.getMainXWiki()).thenReturn("xwiki");
+        when(this.xcontext.clone()).thenReturn(this.xcontext);
+
+        this.document = mock(XWikiDocument.class);
+        when(this.document.getDocumentReference()).thenReturn(documentReference);
+        when(this.document.getAuthorReference()).thenReturn(authorReference);
+        when(this.document.getComment()).thenReturn("Added the <b>known issues</b> of R&D");
+
+        Licensor licensor = mock(Licensor.class);
+        when(licensor.hasLicensure(any(DocumentReference.class))).thenReturn(true);
+
+        final List<SlackWebhook> webhooks = Collections.singletonList(new SlackWebhook(
+            new DocumentReference("xwiki", "Engineering", "WebPreferences"), "engineering",
+            "https://hooks.slack.com/services/T000/B000/XXXX", true, 0, 0, SlackEventFilter.ALL));
+        final SlackConfigurationSnapshot snapshot = new SlackConfigurationSnapshot(
+            Collections.singletonList(webhooks.get(0).getConfigurationReference()), true, null, webhooks);
+        SlackConfiguration configuration = new SlackConfiguration()
+        {
+            @Override
+            public SlackConfigurationSnapshot getSnapshot(DocumentReference documentReference)
+            {
+                return snapshot;
+            }
+        };
+
+        SlackMessageAggregator aggregator = new SlackMessageAggregator()
+        {
+            @Override
+            public void add(SlackNotification notification, long window, int digestThreshold)
+            {
+                MessageBuildingBenchmark.this.lastNotification = notification;
+            }
+        };
+
+        this.listener = new DocumentListener();
+        ReflectionUtils.setFieldValue(this.listener, "logger", LoggerFactory.getLogger(DocumentListener.class));
+        ReflectionUtils.setFieldValue(this.listener, "licensorProvider",
+            (javax.inject.Provider<Licensor>) () -> licensor);
+        ReflectionUtils.setFieldValue(this.listener, "aggregator", aggregator);
+        ReflectionUtils.setFieldValue(this.listener, "metrics", new SlackMetrics());
+        ReflectionUtils.setFieldValue(this.listener, "slackConfigurationProvider",
+            (javax.inject.Provider<SlackConfiguration>) () -> configuration);
+        ReflectionUtils.setFieldValue(this.listener, "configurationIndex", new SlackConfigurationIndex()
+        {
+            @Override
+            public boolean isConfigured(DocumentReference documentReference)
+            {
+                return true;
+            }
+        });
+        RemoteObservationManagerContext remoteContext = mock(RemoteObservationManagerContext.class);
+        ReflectionUtils.setFieldValue(this.listener, "remoteObservationManagerContext", remoteContext);
+        // The benchmark notifies the same document version again and again.
+        ReflectionUtils.setFieldValue(this.listener, "deduplicator", mock(SlackDeduplicator.class));
+        ReflectionUtils.setFieldValue(this.listener, "laneClassifier", mock(SlackLaneClassifier.class));
+    }
+
+    /**
+     * @return the notification built for a document update
+     */
+    @Benchmark
+    public SlackNotification documentUpdated()
+    {
+        this.listener.onEvent(this.event, this.document, this.xcontext);
+        return this.lastNotification;
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-in for the Slack incoming webhooks. It accepts the messages posted to any path and remembers which
+ * synthetic pages they mention, and can be configured to answer slowly, to rate limit (429 with a
+ * {@code Retry-After} header), to fail in bursts (503) and to hang.
+ *
+ * @version $Id$
+ */
+public class FakeSlackServer implements AutoCloseable
+{
+    /**
+     * How the synthetic pages are named, followed by their number.
+     */
+    public static final String PAGE_PREFIX = "Page-";
+
+    private static final Pattern PAGE = Pattern.compile(PAGE_PREFIX + "(\\d+)");
+
+    private static final int STATUS_OK = 200;
+
+    private static final int STATUS_TOO_MANY_REQUESTS = 429;
+
+    private static final int STATUS_SERVICE_UNAVAILABLE = 503;
+
+    private final HttpServer server;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    private final Set<Integer> received = ConcurrentHashMap.newKeySet();
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final AtomicInteger duplicates = new AtomicInteger();
+
+    private final AtomicInteger rateLimited = new AtomicInteger();
+
+    private final AtomicInteger errors = new AtomicInteger();
+
+    private final AtomicInteger hangs = new AtomicInteger();
+
+    private long latency;
+
+    private int rateLimit;
+
+    private int errorBurstPeriod;
+
+    private int errorBurstLength;
+
+    private int hangPeriod;
+
+    private long hangDuration;
+
+    private long rateWindowStart;
+
+    private int rateWindowCount;
+
+    /**
+     * Creates the server, listening on a free port of the loopback interface.
+     *
+     * @throws IOException if the server can't be created
+     */
+    public FakeSlackServer() throws IOException
+    {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/", this::handle);
+    }
+
+    /**
+     * @param latency the number of milliseconds taken to answer each request
+     * @return this server
+     */
+    public FakeSlackServer withLatency(long latency)
+    {
+        this.latency = latency;
+        return this;
+    }
+
+    /**
+     * @param rateLimit the number of requests accepted per second, the others being answered with 429
+     * @return this server
+     */
+    public FakeSlackServer withRateLimit(int rateLimit)
+    {
+        this.rateLimit = rateLimit;
+        return this;
+    }
+
+    /**
+     * @param period the number of requests between the starts of two bursts of errors
+     * @param length the number of requests of each burst answered with 503
+     * @return this server
+     */
+    public FakeSlackServer withErrorBursts(int period, int length)
+    {
+        this.errorBurstPeriod = period;
+        this.errorBurstLength = length;
+        return this;
+    }
+
+    /**
+     * @param period one request out of {@code period} hangs
+     * @param duration how long, in milliseconds, the request hangs before being accepted
+     * @return this server
+     */
+    public FakeSlackServer withHangs(int period, long duration)
+    {
+        this.hangPeriod = period;
+        this.hangDuration = duration;
+        return this;
+    }
+
+    /**
+     * Starts answering the requests.
+     *
+     * @return this server
+     */
+    public FakeSlackServer start()
+    {
+        this.server.start();
+        return this;
+    }
+
+    @Override
+    public void close()
+    {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * @return the URL of a webhook served by this server
+     */
+    public String getWebhookUrl()
+    {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort() + "/services/T000/B000/LOAD";
+    }
+
+    /**
+     * @return the numbers of the pages mentioned by the accepted messages
+     */
+    public Set<Integer> getReceived()
+    {
+        return this.received;
+    }
+
+    /**
+     * @return the number of times a page was mentioned again by an accepted message
+     */
+    public int getDuplicates()
+    {
+        return this.duplicates.get();
+    }
+
+    /**
+     * @return the number of requests received
+     */
+    public int getRequests()
+    {
+        return this.requests.get();
+    }
+
+    /**
+     * @return the number of requests answered with 429
+     */
+    public int getRateLimited()
+    {
+        return this.rateLimited.get();
+    }
+
+    /**
+     * @return the number of requests answered with 503
+     */
+    public int getErrors()
+    {
+        return this.errors.get();
+    }
+
+    /**
+     * @return the number of requests that hung
+     */
+    public int getHangs()
+    {
+        return this.hangs.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        int request = this.requests.incrementAndGet();
+        String payload = read(exchange.getRequestBody());
+        try {
+            if (this.hangPeriod > 0 && request % this.hangPeriod == 0) {
+                this.hangs.incrementAndGet();
+                // The client gives up before the message is accepted, which leads to a duplicate when it retries.
+                sleep(this.hangDuration);
+                accept(payload);
+                respond(exchange, STATUS_OK, "ok");
+            } else if (!acquire()) {
+                this.rateLimited.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", "1");
+                respond(exchange, STATUS_TOO_MANY_REQUESTS, "rate_limited");
+            } else if (this.errorBurstPeriod > 0 && request % this.errorBurstPeriod < this.errorBurstLength) {
+                this.errors.incrementAndGet();
+                respond(exchange, STATUS_SERVICE_UNAVAILABLE, "service_unavailable");
+            } else {
+                sleep(this.latency);
+                accept(payload);
+                respond(exchange, STATUS_OK, "ok");
+            }
+        } catch (IOException e) {
+            // The client gave up.
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private synchronized boolean acquire()
+    {
+        if (this.rateLimit <= 0) {
+            return true;
+        }
+        long now = System.nanoTime();
+        if (now - this.rateWindowStart >= TimeUnit.SECONDS.toNanos(1)) {
+            this.rateWindowStart = now;
+            this.rateWindowCount = 0;
+        }
+        return ++this.rateWindowCount <= this.rateLimit;
+    }
+
+    private void accept(String payload)
+    {
+        // The fallback text of a message made of several blocks repeats the first one.
+        Set<Integer> pages = new HashSet<>();
+        Matcher matcher = PAGE.matcher(payload);
+        while (matcher.find()) {
+            pages.add(Integer.valueOf(matcher.group(1)));
+        }
+        for (Integer page : pages) {
+            if (!this.received.add(page)) {
+                this.duplicates.incrementAndGet();
+            }
+        }
+    }
+
+    private void respond(HttpExchange exchange, int status, String body) throws IOException
+    {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(bytes);
+        }
+    }
+
+    private String read(InputStream input) throws IOException
+    {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int count = input.read(buffer);
+        while (count >= 0) {
+            output.write(buffer, 0, count);
+            count = input.read(buffer);
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private void sleep(long millis)
+    {
+        if (millis > 0) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.loadtest;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.xwiki.slack.internal.SlackMetrics;
+
+/**
+ * The outcome of a load test scenario: the latency added to the document saves, the delivery throughput and the
+ * messages lost or duplicated on the way to Slack.
+ *
+ * @version $Id$
+ */
+public class LoadReport
+{
+    private static final double NANOS_PER_MICRO = 1000.0;
+
+    private static final double NANOS_PER_SECOND = 1e9;
+
+    private final String scenario;
+
+    private final long[] latencies;
+
+    private final long duration;
+
+    private final int events;
+
+    private final int received;
+
+    private final int duplicates;
+
+    private final String server;
+
+    private final String pipeline;
+
+    /**
+     * Creates a new report.
+     *
+     * @param scenario the name of the scenario
+     * @param latencies the time spent notifying the pipeline of each event, in nanoseconds
+     * @param duration the time between the first event and the delivery of the last message, in nanoseconds
+     * @param server the Slack server the messages were posted to
+     * @param metrics the metrics of the pipeline
+     */
+    public LoadReport(String scenario, long[] latencies, long duration, FakeSlackServer server, SlackMetrics metrics)
+    {
+        this.scenario = scenario;
+        this.latencies = latencies.clone();
+        Arrays.sort(this.latencies);
+        this.duration = duration;
+        this.events = latencies.length;
+        this.received = server.getReceived().size();
+        this.duplicates = server.getDuplicates();
+        this.server = String.format("%d requests, %d rate limited, %d failed, %d hung", server.getRequests(),
+            server.getRateLimited(), server.getErrors(), server.getHangs());
+        this.pipeline = String.format("%d sent, %d failed", metrics.getSentCount(), metrics.getFailedCount());
+    }
+
+    /**
+     * @param percentile a percentile, between 0 (excluded) and 100
+     * @return the latency added to the document saves at the given percentile, in nanoseconds
+     */
+    public long getLatency(double percentile)
+    {
+        int index = (int) Math.ceil(percentile / 100 * this.latencies.length) - 1;
+        return this.latencies[Math.max(0, index)];
+    }
+
+    /**
+     * @return the number of messages delivered per second
+     */
+    public double getThroughput()
+    {
+        return this.received * NANOS_PER_SECOND / this.duration;
+    }
+
+    /**
+     * @return the number of events whose notification never reached Slack
+     */
+    public int getLost()
+    {
+        return this.events - this.received;
+    }
+
+    /**
+     * @return the number of notifications that reached Slack more than once
+     */
+    public int getDuplicates()
+    {
+        return this.duplicates;
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format(
+            "[%s] %d events in %d ms%n"
+                + "  save path latency (us): p50=%.1f p90=%.1f p99=%.1f p99.9=%.1f max=%.1f%n"
+                + "  delivery: %.1f messages/s, %d lost, %d duplicated%n"
+                + "  Slack: %s%n  pipeline: %s",
+            this.scenario, this.events, TimeUnit.NANOSECONDS.toMillis(this.duration), micros(getLatency(50)),
+            micros(getLatency(90)), micros(getLatency(99)), micros(getLatency(99.9)), micros(getLatency(100)),
+            getThroughput(), getLost(), getDuplicates(), this.server, this.pipeline);
+    }
+
+    private double micros(long nanos)
+    {
+        return nanos / NANOS_PER_MICRO;
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.loadtest;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xwiki.bridge.event.DocumentCreatedEvent;
+import org.xwiki.bridge.event.DocumentDeletedEvent;
+import org.xwiki.bridge.event.DocumentUpdatedEvent;
+import org.xwiki.observation.event.Event;
+
+import com.xpn.xwiki.doc.XWikiDocument;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Drives thousands of document events through the real notification pipeline, posting to a local stand-in for Slack
+ * that misbehaves in various ways, and reports the latency added to the saves, the delivery throughput and the lost
+ * messages. Every scenario must deliver all the messages in the end.
+ *
+ * @version $Id$
+ */
+public class NotificationPipelineLoadTest
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(NotificationPipelineLoadTest.class);
+
+    private static final int EVENTS = 3000;
+
+    private static final long DELIVERY_TIMEOUT = TimeUnit.MINUTES.toNanos(2);
+
+    private static final long POLL_INTERVAL = 50L;
+
+    private static final Event[] EVENT_TYPES =
+        {new DocumentCreatedEvent(), new DocumentUpdatedEvent(), new DocumentDeletedEvent()};
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void nominal() throws Exception
+    {
+        LoadReport report = run("nominal", new FakeSlackServer().withLatency(20));
+
+        assertEquals(0, report.getLost());
+        assertEquals(0, report.getDuplicates());
+    }
+
+    @Test
+    public void rateLimited() throws Exception
+    {
+        LoadReport report = run("rate limited", new FakeSlackServer().withLatency(5).withRateLimit(10));
+
+        assertEquals(0, report.getLost());
+    }
+
+    @Test
+    public void serverErrorBursts() throws Exception
+    {
+        LoadReport report = run("5xx bursts", new FakeSlackServer().withLatency(5).withErrorBursts(40, 8));
+
+        assertEquals(0, report.getLost());
+    }
+
+    @Test
+    public void hangs() throws Exception
+    {
+        // Hang longer than the socket timeout: the client gives up and posts the messages again.
+        LoadReport report = run("hangs", new FakeSlackServer().withLatency(5).withHangs(25, 3000));
+
+        assertEquals(0, report.getLost());
+    }
+
+    private LoadReport run(String scenario, FakeSlackServer server) throws Exception
+    {
+        Map<String, Object> properties = new HashMap<>();
+        // Large enough for all the events: the scenarios measure the delivery, not the overflow policy.
+        properties.put("slack.delivery.queueCapacity", EVENTS);
+        properties.put("slack.delivery.batchSize", 50);
+        properties.put("slack.delivery.rateLimit", 50.0);
+        properties.put("slack.delivery.rateLimitBurst", 50);
+        properties.put("slack.delivery.retryDelay", 100L);
+        properties.put("slack.delivery.maxRetryDelay", 2000L);
+        properties.put("slack.delivery.circuitBreakerProbeInterval", 1000L);
+        properties.put("slack.outbox.replayInterval", 500L);
+        properties.put("slack.http.socketTimeout", 1000);
+
+        try (FakeSlackServer slack = server.start();
+            SlackPipeline pipeline = new SlackPipeline(slack.getWebhookUrl(), properties, this.folder.newFolder())) {
+            XWikiDocument[] documents = new XWikiDocument[EVENTS];
+            for (int i = 0; i < EVENTS; i++) {
+                documents[i] = pipeline.createDocument(i);
+            }
+
+            long[] latencies = new long[EVENTS];
+            long start = System.nanoTime();
+            for (int i = 0; i < EVENTS; i++) {
+                long eventStart = System.nanoTime();
+                pipeline.onEvent(EVENT_TYPES[i % EVENT_TYPES.length], documents[i]);
+                latencies[i] = System.nanoTime() - eventStart;
+            }
+            while (slack.getReceived().size() < EVENTS && System.nanoTime() - start < DELIVERY_TIMEOUT) {
+                Thread.sleep(POLL_INTERVAL);
+            }
+
+            LoadReport report = new LoadReport(scenario, latencies, System.nanoTime() - start, slack,
+                pipeline.getMetrics());
+            LOGGER.info("{}", report);
+            return report;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package com.xwiki.slack.loadtest;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xwiki.cache.Cache;
+import org.xwiki.cache.CacheManager;
+import org.xwiki.cache.config.CacheConfiguration;
+import org.xwiki.component.annotation.ComponentAnnotationLoader;
+import org.xwiki.component.descriptor.ComponentDescriptor;
+import org.xwiki.component.embed.EmbeddableComponentManager;
+import org.xwiki.configuration.ConfigurationSource;
+import org.xwiki.context.Execution;
+import org.xwiki.context.ExecutionContext;
+import org.xwiki.context.ExecutionContextManager;
+import org.xwiki.environment.Environment;
+import org.xwiki.job.JobContext;
+import org.xwiki.model.reference.DocumentReference;
+import org.xwiki.observation.EventListener;
+import org.xwiki.observation.event.Event;
+import org.xwiki.observation.remote.RemoteObservationManagerContext;
+
+import com.xpn.xwiki.XWikiContext;
+import com.xpn.xwiki.doc.XWikiDocument;
+import com.xwiki.licensing.Licensor;
+import com.xwiki.slack.SlackClient;
+import com.xwiki.slack.SlackConfiguration;
+import com.xwiki.slack.SlackConfigurationSnapshot;
+import com.xwiki.slack.SlackEventFilter;
+import com.xwiki.slack.SlackWebhook;
+import com.xwiki.slack.internal.DefaultSlackSendExecutor;
+import com.xwiki.slack.internal.DocumentListener;
+import com.xwiki.slack.internal.SlackCircuitBreaker;
+import com.xwiki.slack.internal.SlackConfigurationIndex;
+import com.xwiki.slack.internal.SlackDeduplicator;
+import com.xwiki.slack.internal.SlackDeliveryConfiguration;
+import com.xwiki.slack.internal.SlackDeliveryQueue;
+import com.xwiki.slack.internal.SlackLaneClassifier;
+import com.xwiki.slack.internal.SlackMessageAggregator;
+import com.xwiki.slack.internal.SlackMetrics;
+import com.xwiki.slack.internal.SlackNotificationRenderer;
+import com.xwiki.slack.internal.SlackOutbox;
+import com.xwiki.slack.internal.SlackRateLimiter;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.RETURNS_DEFAULTS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The real notification pipeline, from {@link DocumentListener} to {@link SlackClient}, with the XWiki components it
+ * relies on (configuration, licensing, cache, execution context) mocked and all the documents configured to notify a
+ * single Slack channel.
+ *
+ * @version $Id$
+ */
+public class SlackPipeline implements AutoCloseable
+{
+    private static final List<Class<?>> COMPONENTS = Arrays.<Class<?>>asList(DocumentListener.class,
+        SlackClient.class, DefaultSlackSendExecutor.class, SlackCircuitBreaker.class, SlackDeduplicator.class,
+        SlackDeliveryConfiguration.class, SlackDeliveryQueue.class, SlackLaneClassifier.class,
+        SlackMessageAggregator.class, SlackMetrics.class, SlackNotificationRenderer.class, SlackOutbox.class,
+        SlackRateLimiter.class);
+
+    private final EmbeddableComponentManager componentManager = new EmbeddableComponentManager();
+
+    private final EventListener listener;
+
+    private final XWikiContext xcontext;
+
+    private final SlackMetrics metrics;
+
+    /**
+     * Creates the pipeline.
+     *
+     * @param webhookUrl where the notifications are posted
+     * @param properties the {@code xwiki.properties} configuration, see the README
+     * @param permanentDirectory where the outbox is stored
+     * @throws Exception if the pipeline can't be created
+     */
+    public SlackPipeline(String webhookUrl, Map<String, Object> properties, File permanentDirectory) throws Exception
+    {
+        ComponentAnnotationLoader loader = new ComponentAnnotationLoader();
+        for (Class<?> componentClass : COMPONENTS) {
+            for (ComponentDescriptor<?> descriptor : loader.getComponentsDescriptors(componentClass)) {
+                this.componentManager.registerComponent(descriptor);
+            }
+        }
+
+        Map<String, Object> configuration = new HashMap<>(properties);
+        ConfigurationSource xwikiProperties = mock(ConfigurationSource.class, invocation -> {
+            if (!"getProperty".equals(invocation.getMethod().getName())) {
+                return RETURNS_DEFAULTS.answer(invocation);
+            }
+            Object[] arguments = invocation.getArguments();
+            Object value = configuration.get(arguments[0]);
+            // getProperty(key, defaultValue) as opposed to getProperty(key, valueClass).
+            boolean hasDefault = arguments.length > 1 && !(arguments[1] instanceof Class);
+            return value == null && hasDefault ? arguments[1] : value;
+        });
+        register(ConfigurationSource.class, "xwikiproperties", xwikiProperties);
+
+        SlackWebhook webhook = new SlackWebhook(new DocumentReference("wiki", "Load", "WebPreferences"), "load",
+            webhookUrl, true, 0, 0, SlackEventFilter.ALL);
+        SlackConfiguration slackConfiguration = mock(SlackConfiguration.class);
+        when(slackConfiguration.getSnapshot(any(DocumentReference.class))).thenReturn(new SlackConfigurationSnapshot(
+            Collections.singletonList(webhook.getConfigurationReference()), true, webhookUrl,
+            Collections.singletonList(webhook)));
+        register(SlackConfiguration.class, slackConfiguration);
+
+        SlackConfigurationIndex configurationIndex = mock(SlackConfigurationIndex.class);
+        when(configurationIndex.isConfigured(any(DocumentReference.class))).thenReturn(true);
+        register(SlackConfigurationIndex.class, configurationIndex);
+
+        Licensor licensor = mock(Licensor.class);
+        when(licensor.hasLicensure(any(DocumentReference.class))).thenReturn(true);
+        register(Licensor.class, licensor);
+
+        register(RemoteObservationManagerContext.class, mock(RemoteObservationManagerContext.class));
+        register(JobContext.class, mock(JobContext.class));
+
+        CacheManager cacheManager = mock(CacheManager.class);
+        when(cacheManager.createNewCache(any(CacheConfiguration.class))).thenReturn(mock(Cache.class));
+        register(CacheManager.class, cacheManager);
+
+        Execution execution = mock(Execution.class);
+        when(execution.getContext()).thenReturn(new ExecutionContext());
+        register(Execution.class, execution);
+        register(ExecutionContextManager.class, mock(ExecutionContextManager.class));
+
+        Environment environment = mock(Environment.class);
+        when(environment.getPermanentDirectory()).thenReturn(permanentDirectory);
+        register(Environment.class, environment);
+
+        // Without URL factory the notifications mention the document and user references, which is what the fake
+        // Slack server looks for.
+        this.xcontext = mock(XWikiContext.class);
+        when(this.xcontext.clone()).thenReturn(this.xcontext);
+        when(this.xcontext.getMainXWiki()).thenReturn("wiki");
+        when(this.xcontext.getUserReference()).thenReturn(new DocumentReference("wiki", "XWiki", "LoadTester"));
+
+        this.listener = this.componentManager.getInstance(EventListener.class, DocumentListener.NAME);
+        this.metrics = this.componentManager.getInstance(SlackMetrics.class);
+    }
+
+    /**
+     * Creates a synthetic document.
+     *
+     * @param number the number of the document, mentioned by its notifications
+     * @return the document
+     */
+    public XWikiDocument createDocument(int number)
+    {
+        XWikiDocument document = mock(XWikiDocument.class);
+        when(document.getDocumentReference())
+            .thenReturn(new DocumentReference("wiki", "Load", FakeSlackServer.PAGE_PREFIX + number));
+        when(document.getVersion()).thenReturn("1.1");
+        when(document.getAuthorReference()).thenReturn(new DocumentReference("wiki", "XWiki", "LoadTester"));
+        when(document.getComment()).thenReturn("Load test");
+        return document;
+    }
+
+    /**
+     * Notifies the pipeline of a document event, as the observation manager does on the thread saving the document.
+     *
+     * @param event the event
+     * @param document the document
+     */
+    public void onEvent(Event event, XWikiDocument document)
+    {
+        this.listener.onEvent(event, document, this.xcontext);
+    }
+
+    /**
+     * @return the metrics of the pipeline
+     */
+    public SlackMetrics getMetrics()
+    {
+        return this.metrics;
+    }
+
+    @Override
+    public void close()
+    {
+        this.componentManager.dispose();
+    }
+
+    private void register(Class<?> role, Object component) throws Exception
+    {
+        register(role, "default", component);
+    }
+
+    private void register(Class<?> role, String hint, Object component) throws Exception
+    {
+        this.componentManager.registerComponent(role, hint, component);
+    }
+}